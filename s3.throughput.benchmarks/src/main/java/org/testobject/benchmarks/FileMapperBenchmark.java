@@ -0,0 +1,171 @@
+package org.testobject.benchmarks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.FileMapper.WriteRequest;
+import org.testobject.persistence.file.FileMapper.WriteResult;
+import org.testobject.persistence.file.aws.S3Emulator;
+import org.testobject.persistence.file.aws.S3FileSystemMapper;
+import org.testobject.persistence.file.aws.S3TransferConfiguration;
+import org.testobject.persistence.file.cache.DiskCachingFileMapper;
+import org.testobject.persistence.file.cas.ContentAddressedFileMapper;
+import org.testobject.persistence.file.journal.WriteBehindFileMapper;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Batch writes and single reads of each {@link FileMapper} implementation, by threads of the mapper's pool and file
+ * size. Every write carries distinct content so that the content-addressed mapper cannot skip it. The S3 mapper and the
+ * disk cache in front of it talk to an {@link S3Emulator} without latency, so they show the client's overhead.
+ * <p>
+ * {@value #CALLERS} callers share the mapper, run with {@code -t} to vary them independently of the pool size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(FileMapperBenchmark.CALLERS)
+public class FileMapperBenchmark {
+
+	static final int CALLERS = 4;
+
+	private static final String NAMESPACE = "benchmark";
+	private static final int BATCH_SIZE = 64;
+
+	@Param({ "local", "cas", "write-behind", "s3", "disk-cache" })
+	public String mapper;
+
+	/**
+	 * Threads of the mapper's own pool, callers are set with {@link Threads}.
+	 */
+	@Param({ "1", "4", "16" })
+	public int threads;
+
+	@Param({ "1024", "65536" })
+	public int size;
+
+	private File workFolder;
+	private S3Emulator emulator;
+	private FileMapper fileMapper;
+	private final List<Object> closeables = new ArrayList<>();
+	private byte[] content;
+	private final AtomicLong version = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		workFolder = Workspace.create();
+		content = new byte[size];
+		new Random(size).nextBytes(content);
+
+		switch (mapper) {
+		case "local":
+			fileMapper = local();
+			break;
+		case "cas":
+			fileMapper = owned(new ContentAddressedFileMapper(local(), threads, 64 * 1024));
+			break;
+		case "write-behind":
+			fileMapper = owned(new WriteBehindFileMapper(local(), workFolder.getPath()));
+			break;
+		case "s3":
+			fileMapper = s3();
+			break;
+		case "disk-cache":
+			fileMapper = owned(new DiskCachingFileMapper(s3(), workFolder.getPath()));
+			break;
+		default:
+			throw new IllegalArgumentException("unknown mapper '" + mapper + "'");
+		}
+
+		fileMapper.createNamespace(NAMESPACE);
+		writeAll();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		// wrappers first, then the mappers they write to
+		Collections.reverse(closeables);
+		for (Object closeable : closeables) {
+			if (closeable instanceof Closeable) {
+				Closeables.closeQuietly((Closeable) closeable);
+			}
+		}
+		closeables.clear();
+		Closeables.closeQuietly(emulator);
+		Workspace.remove(workFolder);
+	}
+
+	private LocalFileSystemMapper local() {
+		return owned(new LocalFileSystemMapper("benchmark", workFolder.getPath(), threads));
+	}
+
+	private S3FileSystemMapper s3() {
+		emulator = new S3Emulator();
+		return owned(new S3FileSystemMapper(workFolder.getPath(), "benchmark", "EU", "access", "secret",
+				new S3TransferConfiguration().withThreads(threads).withClientConfiguration(emulator.clientConfiguration())));
+	}
+
+	private <T> T owned(T mapper) {
+		closeables.add(mapper);
+		return mapper;
+	}
+
+	@Benchmark
+	public List<WriteResult> writeAll() {
+		List<WriteRequest> requests = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			byte[] distinct = content.clone();
+			ByteBuffer.wrap(distinct).putLong(0, version.getAndIncrement());
+			requests.add(new WriteRequest(toPath(i), new ByteArrayWriter(distinct)));
+		}
+
+		List<WriteResult> results = fileMapper.writeAll(NAMESPACE, requests);
+		if (fileMapper instanceof WriteBehindFileMapper) {
+			// measure until the batch is durable in the backing mapper, not just journaled
+			((WriteBehindFileMapper) fileMapper).flush();
+		}
+		return results;
+	}
+
+	@Benchmark
+	public byte[] read() throws IOException {
+		try (InputStream in = fileMapper.read(NAMESPACE, toPath(ThreadLocalRandom.current().nextInt(BATCH_SIZE)))) {
+			return ByteStreams.toByteArray(in);
+		}
+	}
+
+	private static String[] toPath(int i) {
+		return new String[] { "files", Integer.toString(i) };
+	}
+}
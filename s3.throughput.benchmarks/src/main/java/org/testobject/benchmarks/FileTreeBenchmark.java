@@ -0,0 +1,108 @@
+package org.testobject.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testobject.commons.file.FileUtil;
+
+import com.google.common.io.Files;
+
+/**
+ * Serial and fork-join copies and removals of {@link FileUtil} on a tree of small files, laid out like a namespace of
+ * the local file mapper with {@value #FILES_PER_FOLDER} files per folder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileTreeBenchmark {
+
+	private static final int FILES_PER_FOLDER = 100;
+	private static final int FILE_SIZE = 4096;
+
+	@Param({ "1000", "10000" })
+	public int files;
+
+	private File workFolder;
+	private File tree;
+	private File target;
+	private ForkJoinPool pool;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		workFolder = Workspace.create();
+		tree = new File(workFolder, "tree");
+		target = new File(workFolder, "target");
+		pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors() * 2);
+
+		byte[] content = new byte[FILE_SIZE];
+		Random random = new Random(files);
+		for (int i = 0; i < files; i++) {
+			File folder = new File(tree, "folder-" + i / FILES_PER_FOLDER);
+			folder.mkdirs();
+			random.nextBytes(content);
+			Files.write(content, new File(folder, "file-" + i));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pool.shutdown();
+		Workspace.remove(workFolder);
+	}
+
+	@TearDown(Level.Invocation)
+	public void removeTarget() {
+		FileUtil.removeDir(target, pool);
+	}
+
+	@Benchmark
+	public void copySerial() throws IOException {
+		FileUtil.copyFolder(tree, target);
+	}
+
+	@Benchmark
+	public void copyParallel() throws IOException {
+		FileUtil.copyFolder(tree, target, pool);
+	}
+
+	@State(Scope.Thread)
+	public static class Copy {
+
+		File copy;
+
+		@Setup(Level.Invocation)
+		public void setUp(FileTreeBenchmark benchmark) throws IOException {
+			copy = benchmark.target;
+			FileUtil.copyFolder(benchmark.tree, copy, benchmark.pool);
+		}
+	}
+
+	@Benchmark
+	public boolean removeSerial(Copy copy) {
+		return FileUtil.removeDir(copy.copy);
+	}
+
+	@Benchmark
+	public boolean removeParallel(Copy copy) {
+		return FileUtil.removeDir(copy.copy, pool);
+	}
+}
@@ -0,0 +1,90 @@
+package org.testobject.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testobject.commons.file.FileUtil;
+
+import com.google.common.io.Files;
+
+/**
+ * Stream and file copies of {@link FileUtil} by content size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileUtilBenchmark {
+
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	@Param({ "4096", "1048576", "16777216" })
+	public int size;
+
+	private File workFolder;
+	private byte[] content;
+	private File source;
+	private File target;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		workFolder = Workspace.create();
+		content = new byte[size];
+		new Random(size).nextBytes(content);
+
+		source = new File(workFolder, "source");
+		target = new File(workFolder, "target");
+		Files.write(content, source);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Workspace.remove(workFolder);
+	}
+
+	@Benchmark
+	public long transfer() throws IOException {
+		return FileUtil.transfer(new ByteArrayInputStream(content), DISCARD);
+	}
+
+	@Benchmark
+	public long transferFile() throws IOException {
+		try (FileInputStream in = new FileInputStream(source); FileOutputStream out = new FileOutputStream(target)) {
+			return FileUtil.transfer(in, out);
+		}
+	}
+
+	@Benchmark
+	public void copyFile() throws IOException {
+		FileUtil.copyFile(source, target);
+	}
+}
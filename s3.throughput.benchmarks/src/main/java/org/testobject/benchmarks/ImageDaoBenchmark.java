@@ -0,0 +1,82 @@
+package org.testobject.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testobject.persistence.dao.ImageDao;
+import org.testobject.persistence.dao.ImageDaoConfiguration;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+/**
+ * End-to-end cost of {@link ImageDao#put} for a whole dataset and of an uncached {@link ImageDao#get}, on a
+ * {@link LocalFileSystemMapper} so that the encoding pipeline rather than the network dominates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImageDaoBenchmark {
+
+	private static final String PATH = "images";
+
+	@Param({ "tiny.zip", "big.zip" })
+	public String dataset;
+
+	@Param({ "FILE_PER_IMAGE", "BUNDLE" })
+	public ImageDaoConfiguration.Storage storage;
+
+	@Param({ "PNG", "COMPACT" })
+	public ImageDaoConfiguration.Format format;
+
+	private File workFolder;
+	private BufferedImage[] images;
+	private LocalFileSystemMapper mapper;
+	private ImageDao dao;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		workFolder = Workspace.create();
+		images = ImageData.load(dataset).images;
+
+		mapper = new LocalFileSystemMapper("benchmark", workFolder.getPath());
+		mapper.createNamespace(ImageDao.NAMESPACE);
+		dao = new ImageDao(mapper, new ImageDaoConfiguration().withStorage(storage).withFormat(format).withCacheSize(0));
+		dao.put(PATH, images);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		dao.close();
+		mapper.close();
+		Workspace.remove(workFolder);
+	}
+
+	@Benchmark
+	public void put() {
+		dao.put(PATH, images);
+	}
+
+	@Benchmark
+	public BufferedImage get() throws IOException {
+		next = (next + 1) % images.length;
+		return dao.get(PATH, next);
+	}
+}
@@ -0,0 +1,184 @@
+package org.testobject.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.persistence.dao.ImageDao;
+import org.testobject.persistence.dao.ImageDaoConfiguration;
+import org.testobject.persistence.file.aws.S3Emulator;
+import org.testobject.persistence.file.aws.S3FileSystemMapper;
+import org.testobject.persistence.file.aws.S3TransferConfiguration;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Drives {@link ImageDao} on top of an {@link S3FileSystemMapper} against the {@link S3Emulator} at a fixed rate of
+ * operations and reports throughput and latency percentiles. Load is open-loop: operations are issued on schedule
+ * regardless of how many are still running, and latency is measured from the scheduled start, so a stalled system
+ * shows up in the percentiles instead of silently lowering the rate.
+ * <p>
+ * Options are passed as {@code key=value}, see {@link #DEFAULTS}, e.g.
+ * {@code ImageDaoLoadGenerator dataset=big.zip rate=20 latency=30 throttle=0.01}.
+ */
+public class ImageDaoLoadGenerator {
+
+	private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+	static {
+		DEFAULTS.put("dataset", "tiny.zip");
+		DEFAULTS.put("operation", "put"); // put or get
+		DEFAULTS.put("storage", "FILE_PER_IMAGE");
+		DEFAULTS.put("rate", "10"); // operations per second
+		DEFAULTS.put("duration", "30"); // seconds
+		DEFAULTS.put("workers", "64"); // concurrently running operations
+		DEFAULTS.put("latency", "20"); // emulated request latency in ms
+		DEFAULTS.put("jitter", "10"); // random extra latency in ms
+		DEFAULTS.put("bandwidth", "0"); // bytes per second, 0 is unlimited
+		DEFAULTS.put("throttle", "0"); // share of requests answered with 503
+		DEFAULTS.put("errors", "0"); // share of requests answered with 500
+		DEFAULTS.put("maxConcurrent", "0"); // requests in flight before 503, 0 is unlimited
+		DEFAULTS.put("warmUp", "0"); // connections opened when the namespace is created
+		DEFAULTS.put("hedge", "false"); // hedge slow reads and small writes
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>(DEFAULTS);
+		for (String arg : args) {
+			String[] option = arg.split("=", 2);
+			if (option.length != 2 || DEFAULTS.containsKey(option[0]) == false) {
+				throw new IllegalArgumentException("unknown option '" + arg + "', expected one of " + DEFAULTS.keySet());
+			}
+			options.put(option[0], option[1]);
+		}
+
+		new ImageDaoLoadGenerator().run(options);
+	}
+
+	private void run(Map<String, String> options) throws Exception {
+		final BufferedImage[] images = ImageData.load(options.get("dataset")).images;
+		long datasetBytes = 0;
+		for (BufferedImage image : images) {
+			datasetBytes += (long) image.getWidth() * image.getHeight() * 4;
+		}
+
+		File workFolder = Workspace.create();
+		try (S3Emulator emulator = new S3Emulator()) {
+			emulator.setLatency(Long.parseLong(options.get("latency")), Long.parseLong(options.get("jitter")));
+			emulator.setBandwidth(Long.parseLong(options.get("bandwidth")));
+			emulator.setThrottleRate(Double.parseDouble(options.get("throttle")));
+			emulator.setErrorRate(Double.parseDouble(options.get("errors")));
+			int maxConcurrent = Integer.parseInt(options.get("maxConcurrent"));
+			if (maxConcurrent > 0) {
+				emulator.setMaxConcurrentRequests(maxConcurrent);
+			}
+
+			S3FileSystemMapper mapper = new S3FileSystemMapper(workFolder.getPath(), "load", "EU", "access", "secret",
+					new S3TransferConfiguration().withClientConfiguration(emulator.clientConfiguration())
+							.withWarmUpConnections(Integer.parseInt(options.get("warmUp"))).withHedgeReads(Boolean.parseBoolean(options.get("hedge")))
+							.withHedgeWrites(Boolean.parseBoolean(options.get("hedge"))));
+			mapper.createNamespace(ImageDao.NAMESPACE);
+			final ImageDao dao = new ImageDao(mapper, new ImageDaoConfiguration()
+					.withStorage(ImageDaoConfiguration.Storage.valueOf(options.get("storage")))
+					.withCacheSize(0));
+
+			final boolean put = "put".equals(options.get("operation"));
+			if (put == false) {
+				dao.put("load", images);
+			}
+
+			double rate = Double.parseDouble(options.get("rate"));
+			long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+			long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+			int operations = (int) (duration / interval);
+
+			final long[] latencies = new long[operations];
+			final AtomicLong failures = new AtomicLong();
+			long requestsBefore = emulator.getRequestCount();
+			long throttledBefore = emulator.getThrottledCount();
+
+			ExecutorService workers = Executors.newFixedThreadPool(Integer.parseInt(options.get("workers")),
+					new ThreadFactoryBuilder().setNameFormat("load-worker-%d").setDaemon(true).build());
+			long begin = System.nanoTime();
+			for (int i = 0; i < operations; i++) {
+				final int operation = i;
+				final long scheduled = begin + i * interval;
+				long wait = scheduled - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (put) {
+								dao.put("load-" + operation, images);
+							} else {
+								dao.get("load", operation % images.length);
+							}
+						} catch (Exception e) {
+							failures.incrementAndGet();
+						}
+						latencies[operation] = System.nanoTime() - scheduled;
+					}
+				});
+			}
+			workers.shutdown();
+			workers.awaitTermination(1, TimeUnit.HOURS);
+			double elapsed = (System.nanoTime() - begin) / 1e9;
+
+			Arrays.sort(latencies);
+			long bytes = put ? datasetBytes * operations : datasetBytes / images.length * operations;
+			System.out.println("operation          " + options.get("operation") + " of " + options.get("dataset") + " (" + images.length + " images, "
+					+ options.get("storage") + ")");
+			System.out.println("operations         " + operations + " (" + failures.get() + " failed) in " + String.format("%.1f", elapsed) + " s");
+			System.out.println("throughput         " + String.format("%.1f ops/s, %.1f MB/s of raw pixels", operations / elapsed, bytes / elapsed / 1e6)
+					+ " at a target of " + rate + " ops/s");
+			System.out.println("latency            p50 " + millis(percentile(latencies, 0.5)) + ", p99 " + millis(percentile(latencies, 0.99)) + ", p999 "
+					+ millis(percentile(latencies, 0.999)) + ", max " + millis(latencies[latencies.length - 1]));
+			System.out.println("s3 requests        " + (emulator.getRequestCount() - requestsBefore) + " (" + (emulator.getThrottledCount() - throttledBefore)
+					+ " throttled, " + mapper.getMetrics().counter("s3.retries").get() + " retried), concurrency limit " + mapper.getLimiter().getLimit());
+			System.out.println("first upload       " + String.format("%.1f ms", mapper.getTimeToFirstUploadMillis()) + " after construction");
+			System.out.println("hedged             " + hedges(mapper.getMetrics(), "read") + ", " + hedges(mapper.getMetrics(), "write"));
+			System.out.println("phases             " + phases(dao.getMetrics().snapshot(), "encode", "queueWait", "write", "read", "decode"));
+			System.out.println("s3 phases          " + phases(mapper.getMetrics().snapshot(), "capture", "upload", "s3.put", "s3.getObject"));
+			dao.close();
+			mapper.close();
+		} finally {
+			Workspace.remove(workFolder);
+		}
+	}
+
+	private static String phases(SortedMap<String, Number> snapshot, String... timers) {
+		StringBuilder sb = new StringBuilder();
+		for (String timer : timers) {
+			if (snapshot.get(timer + ".count").longValue() > 0) {
+				sb.append(sb.length() == 0 ? "" : ", ").append(timer).append(String.format(" p50 %.1f ms p99 %.1f ms", snapshot.get(timer + ".p50Millis"),
+						snapshot.get(timer + ".p99Millis")));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String hedges(Metrics metrics, String operation) {
+		String name = "hedge." + operation;
+		return operation + "s " + metrics.counter(name + ".hedged").get() + " of " + metrics.counter(name + ".requests").get() + " ("
+				+ metrics.counter(name + ".wins").get() + " won, " + metrics.counter(name + ".budgetExhausted").get() + " over budget)";
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.1f ms", nanos / 1e6);
+	}
+}
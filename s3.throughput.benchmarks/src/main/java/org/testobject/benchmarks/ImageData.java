@@ -0,0 +1,52 @@
+package org.testobject.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
+
+import org.testobject.commons.file.FileUtil;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+/**
+ * The screenshots of {@code tiny.zip} and {@code big.zip}, loaded from the test jar of s3.throughput.issue.
+ */
+class ImageData {
+
+	final BufferedImage[] images;
+	final byte[][] encoded;
+
+	private ImageData(BufferedImage[] images, byte[][] encoded) {
+		this.images = images;
+		this.encoded = encoded;
+	}
+
+	static ImageData load(String dataset) throws IOException {
+		InputStream resource = FileUtil.readFileFromClassPath(dataset);
+		Preconditions.checkArgument(resource != null, "dataset '" + dataset + "' not found on the classpath");
+
+		List<BufferedImage> images = new ArrayList<>();
+		List<byte[]> encoded = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(resource)) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				byte[] bytes = ByteStreams.toByteArray(zip);
+				encoded.add(bytes);
+				images.add(ImageIO.read(new ByteArrayInputStream(bytes)));
+			}
+		}
+
+		return new ImageData(images.toArray(new BufferedImage[images.size()]), encoded.toArray(new byte[encoded.size()][]));
+	}
+}
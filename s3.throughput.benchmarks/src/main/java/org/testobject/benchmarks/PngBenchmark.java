@@ -0,0 +1,63 @@
+package org.testobject.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testobject.persistence.dao.PngEncoder;
+
+/**
+ * Cost of encoding and decoding a single screenshot, per deflate level.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PngBenchmark {
+
+	@Param({ "tiny.zip", "big.zip" })
+	public String dataset;
+
+	@Param({ "-1", "1", "9" })
+	public int deflateLevel;
+
+	private ImageData data;
+	private PngEncoder encoder;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = ImageData.load(dataset);
+		encoder = new PngEncoder(deflateLevel);
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		next = (next + 1) % data.images.length;
+		return encoder.encode(data.images[next]);
+	}
+
+	@Benchmark
+	public BufferedImage decode() throws IOException {
+		next = (next + 1) % data.encoded.length;
+		return ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(data.encoded[next])));
+	}
+}
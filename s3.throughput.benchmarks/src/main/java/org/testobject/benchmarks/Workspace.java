@@ -0,0 +1,25 @@
+package org.testobject.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.testobject.commons.file.FileUtil;
+
+/**
+ * Scratch folder of a benchmark trial.
+ */
+class Workspace {
+
+	static File create() {
+		try {
+			return Files.createTempDirectory("s3.throughput.benchmarks").toFile();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static void remove(File folder) {
+		FileUtil.removeDir(folder);
+	}
+}
@@ -13,15 +13,26 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 public class FileUtil {
 
-	private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
 
+	// files of a directory handled by one task of the parallel tree operations, amortizes the task over a few syscalls
+	private static final int FILES_PER_TASK = 32;
 
 	public static void move(File from, File to) throws IOException {
 		copyFile(from, to);
@@ -42,7 +53,20 @@ public class FileUtil {
 	    }
 	}
 
+	/**
+	 * Copies the remaining input to the output. A file input is handed to the kernel through
+	 * {@link FileChannel#transferTo}, which avoids copying through the heap entirely when the output is a file as well.
+	 */
 	public static long transfer(InputStream input, OutputStream output) throws IOException {
+		if (input instanceof FileInputStream) {
+			FileChannel source = ((FileInputStream) input).getChannel();
+			WritableByteChannel target = output instanceof FileOutputStream ? ((FileOutputStream) output).getChannel() : Channels.newChannel(output);
+			long start = source.position();
+			long count = transfer(source, start, target);
+			source.position(start + count);
+			return count;
+		}
+
 		byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
 		long count = 0;
 		int n = 0;
@@ -53,6 +77,16 @@ public class FileUtil {
 		return count;
 	}
 
+	private static long transfer(FileChannel source, long start, WritableByteChannel target) throws IOException {
+		long position = start;
+		long n;
+		// transferTo stops short of the requested count at the platform's limit per call, e.g. 2 GB for sendfile
+		while ((n = source.transferTo(position, Long.MAX_VALUE, target)) > 0) {
+			position += n;
+		}
+		return position - start;
+	}
+
 	public static void copyFolder(File src, File dst, FilenameFilter filter) throws IOException {
 		if (src.isDirectory()) {
 			if (!dst.exists()) {
@@ -91,28 +125,121 @@ public class FileUtil {
 		}
 	}
 
-	public static void copyFile(File src, File dst) throws IOException {
-		if (!dst.exists()) {
-			dst.createNewFile();
-		}
+	/**
+	 * Parallel variant of {@link #copyFolder(File, File)}, sub-directories and batches of files are copied as separate
+	 * tasks of the given pool.
+	 */
+	public static void copyFolder(File src, File dst, ForkJoinPool pool) throws IOException {
+		copyFolder(src, dst, null, pool);
+	}
 
-		FileChannel source = null;
-		FileChannel destination = null;
+	/**
+	 * Parallel variant of {@link #copyFolder(File, File, FilenameFilter)}, the filter applies to the entries of
+	 * {@code src} only.
+	 */
+	public static void copyFolder(File src, File dst, FilenameFilter filter, ForkJoinPool pool) throws IOException {
+		if (src.isDirectory() == false) {
+			copyFile(src, dst);
+			return;
+		}
 
 		try {
-			source = new FileInputStream(src).getChannel();
-			destination = new FileOutputStream(dst).getChannel();
-			destination.transferFrom(source, 0, source.size());
-		} finally {
-			if (source != null) {
-				source.close();
+			pool.invoke(new CopyDir(src, dst, filter));
+		} catch (RuntimeException e) {
+			// the pool may rethrow a copy of the task's exception which wraps the original
+			for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
 			}
-			if (destination != null) {
-				destination.close();
+			throw e;
+		}
+	}
+
+	private static class CopyDir extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File src;
+		private final File dst;
+		private final FilenameFilter filter;
+
+		CopyDir(File src, File dst, FilenameFilter filter) {
+			this.src = src;
+			this.dst = dst;
+			this.filter = filter;
+		}
+
+		@Override
+		protected void compute() {
+			if (!dst.exists()) {
+				dst.mkdir();
+			}
+
+			String[] list = filter == null ? src.list() : src.list(filter);
+			if (list == null) {
+				throw new RuntimeException(new IOException("cannot list directory '" + src + "'"));
+			}
+
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			List<String> files = new ArrayList<>();
+			for (String name : list) {
+				File entry = new File(src, name);
+				if (entry.isDirectory()) {
+					tasks.add(new CopyDir(entry, new File(dst, name), null).fork());
+				} else {
+					files.add(name);
+					if (files.size() == FILES_PER_TASK) {
+						tasks.add(new CopyFiles(src, dst, files).fork());
+						files = new ArrayList<>();
+					}
+				}
+			}
+			new CopyFiles(src, dst, files).compute();
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		}
+	}
+
+	private static class CopyFiles extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File src;
+		private final File dst;
+		private final List<String> names;
+
+		CopyFiles(File src, File dst, List<String> names) {
+			this.src = src;
+			this.dst = dst;
+			this.names = names;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				for (String name : names) {
+					copyFile(new File(src, name), new File(dst, name));
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
 			}
 		}
 	}
 
+	/**
+	 * Copies the file through {@link FileChannel#transferTo}, which lets the kernel move the content without passing it
+	 * through the heap.
+	 */
+	public static void copyFile(File src, File dst) throws IOException {
+		try (FileChannel source = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+				FileChannel destination = FileChannel.open(dst.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			transfer(source, 0, destination);
+		}
+	}
+
 	public static boolean removeDir(File directory) {
 
 		if (directory == null)
@@ -141,6 +268,80 @@ public class FileUtil {
 		return directory.delete();
 	}
 
+	/**
+	 * Parallel variant of {@link #removeDir(File)}, sub-directories and batches of files are removed as separate tasks
+	 * of the given pool.
+	 */
+	public static boolean removeDir(File directory, ForkJoinPool pool) {
+		if (directory == null)
+			return false;
+		if (!directory.exists())
+			return true;
+		if (!directory.isDirectory())
+			return false;
+
+		return pool.invoke(new RemoveDir(directory));
+	}
+
+	private static class RemoveDir extends RecursiveTask<Boolean> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File directory;
+
+		RemoveDir(File directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		protected Boolean compute() {
+			String[] list = directory.list();
+			boolean removed = true;
+			if (list != null) {
+				List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+				List<File> files = new ArrayList<>();
+				for (String name : list) {
+					File entry = new File(directory, name);
+					if (entry.isDirectory()) {
+						tasks.add(new RemoveDir(entry).fork());
+					} else {
+						files.add(entry);
+						if (files.size() == FILES_PER_TASK) {
+							tasks.add(new RemoveFiles(files).fork());
+							files = new ArrayList<>();
+						}
+					}
+				}
+				removed = new RemoveFiles(files).compute();
+				for (ForkJoinTask<Boolean> task : tasks) {
+					removed &= task.join();
+				}
+			}
+
+			return removed && directory.delete();
+		}
+	}
+
+	private static class RemoveFiles extends RecursiveTask<Boolean> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> files;
+
+		RemoveFiles(List<File> files) {
+			this.files = files;
+		}
+
+		@Override
+		protected Boolean compute() {
+			boolean removed = true;
+			for (File file : files) {
+				removed &= file.delete();
+			}
+			return removed;
+		}
+	}
+
 	public static File toFile(URL url) {
 		try {
 			return new File(url.toURI());
@@ -210,10 +411,10 @@ public class FileUtil {
 					f.mkdirs();
 					continue;
 				}
+				// a jar does not need to list an entry's directories before the entry
+				f.getParentFile().mkdirs();
 				try (InputStream is = jar.getInputStream(file); FileOutputStream fos = new FileOutputStream(f);) {
-					while (is.available() > 0) {
-						fos.write(is.read());
-					}
+					transfer(is, fos);
 				}
 			}
 		}
@@ -223,9 +424,13 @@ public class FileUtil {
 
 	public static void extractFromClasspath(String from, String to) throws IOException {
 
-		InputStream src = readFileFromClassPath(from);
-		OutputStream dst = new FileOutputStream(new File(to));
+		InputStream resource = readFileFromClassPath(from);
+		if (resource == null) {
+			throw new IllegalArgumentException("Cannot open file " + from);
+		}
 
-		transfer(src, dst);
+		try (InputStream src = resource; OutputStream dst = new FileOutputStream(new File(to))) {
+			transfer(src, dst);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package org.testobject.commons.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Lock-free pool of fixed-size heap or direct byte buffers. At most {@code maxPooledBytes} are retained while idle,
+ * buffers released beyond that cap are left to the garbage collector.
+ */
+public class BufferPool {
+
+	private final int chunkSize;
+	private final long maxPooledBytes;
+	private final boolean direct;
+
+	private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+	private final AtomicLong pooledBytes = new AtomicLong();
+	private final AtomicLong outstandingBytes = new AtomicLong();
+	private final AtomicLong allocations = new AtomicLong();
+	private final AtomicLong reuses = new AtomicLong();
+
+	public BufferPool(int chunkSize, long maxPooledBytes, boolean direct) {
+		Preconditions.checkArgument(chunkSize > 0, "chunk size must be positive but was " + chunkSize);
+		this.chunkSize = chunkSize;
+		this.maxPooledBytes = maxPooledBytes;
+		this.direct = direct;
+	}
+
+	public ByteBuffer acquire() {
+		outstandingBytes.addAndGet(chunkSize);
+
+		ByteBuffer buffer = free.poll();
+		if (buffer != null) {
+			pooledBytes.addAndGet(-chunkSize);
+			reuses.incrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+
+		allocations.incrementAndGet();
+		return direct ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+	}
+
+	public void release(ByteBuffer buffer) {
+		Preconditions.checkArgument(buffer.capacity() == chunkSize, "buffer does not belong to this pool");
+		outstandingBytes.addAndGet(-chunkSize);
+
+		if (pooledBytes.addAndGet(chunkSize) <= maxPooledBytes) {
+			free.offer(buffer);
+		} else {
+			pooledBytes.addAndGet(-chunkSize);
+		}
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	public long getMaxPooledBytes() {
+		return maxPooledBytes;
+	}
+
+	/**
+	 * Bytes held by idle buffers waiting in the pool.
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	/**
+	 * Bytes held by buffers which are currently acquired.
+	 */
+	public long getOutstandingBytes() {
+		return outstandingBytes.get();
+	}
+
+	public long getAllocationCount() {
+		return allocations.get();
+	}
+
+	public long getReuseCount() {
+		return reuses.get();
+	}
+}
@@ -0,0 +1,212 @@
+package org.testobject.commons.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.LimitInputStream;
+
+/**
+ * Captures written bytes in buffers borrowed from a {@link BufferPool} and spools them to a file in
+ * {@code spoolFolder} only once more than {@code spoolThreshold} bytes were written. The captured content can be
+ * re-read any number of times with a known length, {@link #release()} hands the buffers back to the pool.
+ */
+public class SpoolingOutputStream extends OutputStream {
+
+	private final BufferPool pool;
+	private final long spoolThreshold;
+	private final File spoolFolder;
+
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private long size;
+
+	private File spoolFile;
+	private OutputStream spool;
+
+	public SpoolingOutputStream(BufferPool pool, long spoolThreshold, File spoolFolder) {
+		this.pool = pool;
+		this.spoolThreshold = spoolThreshold;
+		this.spoolFolder = spoolFolder;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (spool == null && size + len > spoolThreshold) {
+			spool();
+		}
+
+		if (spool != null) {
+			spool.write(b, off, len);
+		} else {
+			int written = 0;
+			while (written < len) {
+				ByteBuffer chunk = currentChunk();
+				int n = Math.min(chunk.remaining(), len - written);
+				chunk.put(b, off + written, n);
+				written += n;
+			}
+		}
+		size += len;
+	}
+
+	private ByteBuffer currentChunk() {
+		if (chunks.isEmpty() || chunks.get(chunks.size() - 1).hasRemaining() == false) {
+			chunks.add(pool.acquire());
+		}
+		return chunks.get(chunks.size() - 1);
+	}
+
+	private void spool() throws IOException {
+		spoolFolder.mkdirs();
+		File file = new File(spoolFolder, UUID.randomUUID().toString());
+		spool = new BufferedOutputStream(new FileOutputStream(file), pool.getChunkSize());
+		try (InputStream in = openStream()) {
+			ByteStreams.copy(in, spool);
+		}
+		spoolFile = file;
+		releaseChunks();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (spool != null) {
+			spool.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (spool != null) {
+			spool.close();
+		}
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public boolean isSpooled() {
+		return spoolFile != null;
+	}
+
+	public File getSpoolFile() {
+		return spoolFile;
+	}
+
+	public InputStream openStream() throws IOException {
+		return openStream(0, size);
+	}
+
+	/**
+	 * Opens a stream over {@code length} bytes starting at {@code offset}. Streams over in-memory content support
+	 * mark/reset so that the AWS client can retry requests.
+	 */
+	public InputStream openStream(long offset, long length) throws IOException {
+		Preconditions.checkArgument(offset >= 0 && length >= 0 && offset + length <= size, "range out of bounds");
+		if (spoolFile != null) {
+			flush();
+			RandomAccessFile file = new RandomAccessFile(spoolFile, "r");
+			file.seek(offset);
+			return new LimitInputStream(Channels.newInputStream(file.getChannel()), length);
+		}
+		return new ChunkInputStream(offset, offset + length);
+	}
+
+	/**
+	 * Returns the buffers to the pool and deletes the spool file, the content must not be read afterwards.
+	 */
+	public void release() {
+		releaseChunks();
+		if (spoolFile != null) {
+			try {
+				spool.close();
+			} catch (IOException e) {
+				// nothing to do, the file is deleted anyway
+			}
+			spoolFile.delete();
+		}
+	}
+
+	private void releaseChunks() {
+		for (ByteBuffer chunk : chunks) {
+			pool.release(chunk);
+		}
+		chunks.clear();
+	}
+
+	private class ChunkInputStream extends InputStream {
+
+		private final long end;
+		private long position;
+		private long mark;
+
+		ChunkInputStream(long begin, long end) {
+			this.position = begin;
+			this.mark = begin;
+			this.end = end;
+		}
+
+		@Override
+		public int read() {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (position >= end) {
+				return -1;
+			}
+			int chunkSize = pool.getChunkSize();
+			ByteBuffer chunk = chunks.get((int) (position / chunkSize)).duplicate();
+			chunk.position((int) (position % chunkSize));
+			int n = (int) Math.min(Math.min(len, chunkSize - chunk.position()), end - position);
+			chunk.get(b, off, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			long skipped = Math.max(0, Math.min(n, end - position));
+			position += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, end - position);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			mark = position;
+		}
+
+		@Override
+		public synchronized void reset() {
+			position = mark;
+		}
+	}
+}
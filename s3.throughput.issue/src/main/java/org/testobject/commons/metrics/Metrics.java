@@ -0,0 +1,125 @@
+package org.testobject.commons.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Named timers, counters and gauges of a component. Instruments are looked up once and kept in fields, recording on
+ * them neither locks nor allocates. Readers pull a flat {@link #snapshot()} or the same figures as attributes of an
+ * MBean, see {@link #register(String)}.
+ */
+public class Metrics {
+
+	public static final String DOMAIN = "org.testobject.persistence";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+	public Timer timer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			Timer created = new Timer();
+			timer = timers.putIfAbsent(name, created);
+			if (timer == null) {
+				timer = created;
+			}
+		}
+		return timer;
+	}
+
+	public AtomicLong counter(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Reports a value owned by someone else, e.g. the size of a queue, which is only read when a snapshot is taken.
+	 */
+	public void gauge(String name, Supplier<? extends Number> gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * All figures by name: per timer {@code <timer>.count}, {@code .inFlight}, {@code .meanMillis}, {@code .p50Millis}
+	 * up to {@code .p999Millis}, {@code .maxMillis} and {@code .errors.<exception>}, plus every counter and gauge.
+	 */
+	public SortedMap<String, Number> snapshot() {
+		SortedMap<String, Number> snapshot = new TreeMap<>();
+		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+			String name = entry.getKey();
+			Timer timer = entry.getValue();
+			Histogram.Snapshot latencies = timer.getLatencies().snapshot();
+
+			snapshot.put(name + ".count", latencies.getCount());
+			snapshot.put(name + ".inFlight", timer.getInFlight());
+			snapshot.put(name + ".meanMillis", toMillis(latencies.getMean()));
+			for (int i = 0; i < QUANTILES.length; i++) {
+				snapshot.put(name + "." + QUANTILE_NAMES[i] + "Millis", toMillis(latencies.getValue(QUANTILES[i])));
+			}
+			snapshot.put(name + ".maxMillis", toMillis(latencies.getMax()));
+			for (Map.Entry<String, Long> error : timer.getErrors().entrySet()) {
+				snapshot.put(name + ".errors." + error.getKey(), error.getValue());
+			}
+		}
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, Supplier<? extends Number>> entry : gauges.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as {@code org.testobject.persistence:type=Metrics,name=<name>},
+	 * replacing metrics registered under the same name before.
+	 */
+	public ObjectName register(String name) {
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(new MetricsMBean(this), objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static void unregister(ObjectName objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static double toMillis(double nanos) {
+		return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
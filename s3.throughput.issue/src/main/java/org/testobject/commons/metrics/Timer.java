@@ -0,0 +1,93 @@
+package org.testobject.commons.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram, in-flight count and failures by exception class of one operation. Callers keep the timer in a
+ * field and bracket the operation:
+ *
+ * <pre>
+ * long start = timer.start();
+ * try {
+ * 	...
+ * 	timer.stop(start);
+ * } catch (RuntimeException e) {
+ * 	timer.fail(start, e);
+ * 	throw e;
+ * }
+ * </pre>
+ */
+public class Timer {
+
+	private final Histogram latencies = new Histogram();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final ConcurrentMap<Class<?>, AtomicLong> errors = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the start time in nanoseconds to be passed to {@link #stop(long)} or {@link #fail(long, Throwable)}.
+	 */
+	public long start() {
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	public void stop(long start) {
+		inFlight.decrementAndGet();
+		latencies.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Completes a failed operation, which is counted by its exception class and kept out of the latency histogram.
+	 */
+	public void fail(long start, Throwable error) {
+		inFlight.decrementAndGet();
+		error(error);
+	}
+
+	/**
+	 * Records a latency measured by the caller, e.g. the time an item waited in a queue.
+	 */
+	public void record(long nanos) {
+		latencies.record(nanos);
+	}
+
+	/**
+	 * Counts a failure without a matching {@link #start()}, e.g. one reported per item of a batch.
+	 */
+	public void error(Throwable error) {
+		AtomicLong counter = errors.get(error.getClass());
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = errors.putIfAbsent(error.getClass(), created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	public Histogram getLatencies() {
+		return latencies;
+	}
+
+	public long getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Failures by the simple name of their exception class.
+	 */
+	public Map<String, Long> getErrors() {
+		Map<String, Long> counts = new TreeMap<>();
+		for (Map.Entry<Class<?>, AtomicLong> entry : errors.entrySet()) {
+			String name = entry.getKey().getSimpleName();
+			Long count = counts.get(name);
+			counts.put(name, (count == null ? 0 : count) + entry.getValue().get());
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,114 @@
+package org.testobject.persistence.dao;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.testobject.persistence.dao.ImageDaoConfiguration.Format;
+import org.testobject.persistence.dao.ImageDaoConfiguration.Storage;
+import org.testobject.persistence.dao.codec.AdaptiveCodec;
+import org.testobject.persistence.dao.codec.ImageCodec;
+import org.testobject.persistence.file.AsyncFileMapper;
+import org.testobject.persistence.file.Batches;
+import org.testobject.persistence.file.ByteArrayWriter;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Non-blocking variant of {@link ImageDao} on top of an {@link AsyncFileMapper}. Images are encoded and decoded on a
+ * fork-join pool sized to the cores, transfers are handed to the mapper, so a single caller thread can keep many puts
+ * and gets in flight. Images are stored one file per image in the same layout as {@link ImageDao}, which is why
+ * configurations of {@link Storage#BUNDLE} or with a manifest are rejected.
+ */
+public class AsyncImageDao implements Closeable {
+
+	private final AsyncFileMapper fileMapper;
+	private final ImageCodec codec;
+	private final ListeningExecutorService codecs;
+	private final ListenableFuture<Void> namespace;
+
+	public AsyncImageDao(AsyncFileMapper fileMapper) {
+		this(fileMapper, new ImageDaoConfiguration());
+	}
+
+	public AsyncImageDao(AsyncFileMapper fileMapper, ImageDaoConfiguration configuration) {
+		Preconditions.checkArgument(configuration.getStorage() == Storage.FILE_PER_IMAGE, "storage %s is not supported", configuration.getStorage());
+		Preconditions.checkArgument(!configuration.isManifest(), "manifests are not supported");
+		this.fileMapper = fileMapper;
+		this.codec = new AdaptiveCodec(configuration.getDeflateLevel(), configuration.getFormat() == Format.COMPACT);
+		this.codecs = MoreExecutors.listeningDecorator(new ForkJoinPool(configuration.getEncodeThreads()));
+		this.namespace = fileMapper.createNamespaceAsync(ImageDao.NAMESPACE);
+	}
+
+	public ListenableFuture<Void> put(final String path, BufferedImage ... images) {
+		List<ListenableFuture<Void>> writes = new ArrayList<>(images.length);
+		for(int i = 0; i < images.length; i++) {
+			final String[] file = toPath(path, i);
+			final ListenableFuture<byte[]> encoded = encode(images[i]);
+			writes.add(Futures.transform(Futures.allAsList(Arrays.<ListenableFuture<?>> asList(namespace, encoded)), new AsyncFunction<List<Object>, Void>() {
+				@Override
+				public ListenableFuture<Void> apply(List<Object> ignored) {
+					return fileMapper.writeAsync(ImageDao.NAMESPACE, file, new ByteArrayWriter(Futures.getUnchecked(encoded)));
+				}
+			}));
+		}
+
+		return Futures.transform(Futures.allAsList(writes), new Function<List<Void>, Void>() {
+			@Override
+			public Void apply(List<Void> input) {
+				return null;
+			}
+		});
+	}
+
+	public ListenableFuture<Void> remove(String path, int image) {
+		return fileMapper.deleteAsync(ImageDao.NAMESPACE, toPath(path, image));
+	}
+
+	public ListenableFuture<BufferedImage> get(final String path, final int image) {
+		return Futures.transform(fileMapper.readAsync(ImageDao.NAMESPACE, toPath(path, image)), new Function<InputStream, BufferedImage>() {
+			@Override
+			public BufferedImage apply(InputStream input) {
+				try(InputStream in = input) {
+					return codec.decode(in);
+				} catch (IOException e) {
+					throw new RuntimeException("image " + image + " of path '" + path + "' cannot be decoded", e);
+				}
+			}
+		}, codecs);
+	}
+
+	private ListenableFuture<byte[]> encode(final BufferedImage image) {
+		return codecs.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				return codec.encode(image);
+			}
+		});
+	}
+
+	/**
+	 * Stops the codec threads once the running encodes and decodes are done. Does not close the {@link AsyncFileMapper}.
+	 */
+	@Override
+	public void close() {
+		Batches.shutdown(codecs, 1, TimeUnit.MINUTES);
+	}
+
+	private static String[] toPath(String path, int image) {
+		return new String[] { path, Integer.toString(image) + ".png" };
+	}
+}
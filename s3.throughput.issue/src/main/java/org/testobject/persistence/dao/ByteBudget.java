@@ -0,0 +1,54 @@
+package org.testobject.persistence.dao;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounds the bytes of images in flight. {@link #acquire(long)} blocks while the budget is exhausted, an amount larger
+ * than the whole budget is admitted once nothing else is in flight, so a single huge image cannot stall a put.
+ */
+class ByteBudget {
+
+	private final long capacity;
+	private long used;
+	private long peak;
+
+	ByteBudget(long capacity) {
+		Preconditions.checkArgument(capacity > 0, "byte budget must be positive");
+		this.capacity = capacity;
+	}
+
+	synchronized void acquire(long bytes) throws InterruptedException {
+		while (used > 0 && used + bytes > capacity) {
+			wait();
+		}
+		add(bytes);
+	}
+
+	/**
+	 * Takes the bytes without waiting, for amounts which are already allocated.
+	 */
+	synchronized void force(long bytes) {
+		add(bytes);
+	}
+
+	synchronized void release(long bytes) {
+		used -= bytes;
+		notifyAll();
+	}
+
+	synchronized long getUsed() {
+		return used;
+	}
+
+	/**
+	 * Highest number of bytes ever in flight.
+	 */
+	synchronized long getPeak() {
+		return peak;
+	}
+
+	private void add(long bytes) {
+		used += bytes;
+		peak = Math.max(peak, used);
+	}
+}
@@ -0,0 +1,530 @@
+package org.testobject.persistence.dao;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.commons.metrics.Timer;
+import org.testobject.persistence.dao.codec.ImageCodec;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.FileMapper.WriteRequest;
+import org.testobject.persistence.file.FileMapper.WriteResult;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Two-stage pipeline which decouples CPU-bound image encoding from uploading. Images are encoded on a fork-join pool
+ * sized to the cores and handed over through a bounded queue to a fixed set of I/O threads, which should match the
+ * connection pool of the underlying {@link FileMapper}. A full queue blocks the encoders, so at most
+ * {@code queueCapacity} encoded images wait for upload. An I/O thread hands everything queued, up to
+ * {@value #UPLOAD_BATCH} images, to {@link FileMapper#writeAll} at once.
+ * <p>
+ * Images are taken from an iterator only while the decoded and encoded images in flight, of all batches together,
+ * stay below {@code maxInFlightBytes}. A decoded image is accounted until it is encoded, the encoded image until it was
+ * written.
+ * <p>
+ * The stages are timed as {@code encode}, {@code queueWait} (from encoded until taken by an I/O thread) and
+ * {@code write}, which times each {@link FileMapper#writeAll} call and counts every failed image as an error. The bytes
+ * in flight are reported as {@code inFlightBytes} and {@code inFlightBytes.peak}. Images which arrive encoded skip
+ * the first stage.
+ */
+class EncodingPipeline implements Closeable {
+
+	static final int UPLOAD_BATCH = 16;
+
+	/**
+	 * Result of one image, with the size of the written file and, if requested, the MD5 of its content.
+	 */
+	static class Written extends WriteResult {
+
+		final long size;
+		final String md5;
+
+		Written(String[] path, Throwable error, long size, String md5) {
+			super(path, error);
+			this.size = size;
+			this.md5 = md5;
+		}
+	}
+
+	private final FileMapper fileMapper;
+	private final ImageCodec codec;
+	private final ForkJoinPool encoders;
+	private final BlockingQueue<Encoded> queue;
+	private final boolean digests;
+	private final ByteBudget budget;
+	private final Timer encodes;
+	private final Timer queueWaits;
+	private final Timer writes;
+	private final List<Thread> uploaders = new ArrayList<>();
+	private volatile boolean closed;
+
+	EncodingPipeline(FileMapper fileMapper, ImageCodec codec, ImageDaoConfiguration configuration, Metrics metrics) {
+		this.fileMapper = fileMapper;
+		this.codec = codec;
+		this.encoders = new ForkJoinPool(configuration.getEncodeThreads());
+		this.queue = new ArrayBlockingQueue<>(configuration.getQueueCapacity());
+		this.digests = configuration.isManifest();
+		this.budget = new ByteBudget(configuration.getMaxInFlightBytes());
+		this.encodes = metrics.timer("encode");
+		this.queueWaits = metrics.timer("queueWait");
+		this.writes = metrics.timer("write");
+
+		metrics.gauge("queue.size", new Supplier<Integer>() {
+			@Override
+			public Integer get() {
+				return queue.size();
+			}
+		});
+		metrics.gauge("inFlightBytes", new Supplier<Long>() {
+			@Override
+			public Long get() {
+				return budget.getUsed();
+			}
+		});
+		metrics.gauge("inFlightBytes.peak", new Supplier<Long>() {
+			@Override
+			public Long get() {
+				return budget.getPeak();
+			}
+		});
+
+		ThreadFactoryBuilder threads = new ThreadFactoryBuilder().setNameFormat("image-dao-io-%d").setDaemon(true);
+		for (int i = 0; i < configuration.getIoThreads(); i++) {
+			Thread uploader = threads.build().newThread(new Uploader());
+			uploaders.add(uploader);
+			uploader.start();
+		}
+	}
+
+	/**
+	 * Stops the encoders and, once the images already taken are written, the I/O threads. Images can no longer be
+	 * written afterwards, images a concurrent put hands over after the I/O threads stopped fail.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		encoders.shutdown();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (encoders.awaitTermination(1, TimeUnit.MINUTES)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+				break;
+			}
+		}
+		for (Thread uploader : uploaders) {
+			try {
+				uploader.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		List<Encoded> left = new ArrayList<>();
+		queue.drainTo(left);
+		for (Encoded encoded : left) {
+			rejected(encoded);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("image pipeline is closed");
+		}
+	}
+
+	private void rejected(Encoded encoded) {
+		budget.release(encoded.bytes.length);
+		encoded.batch.complete(encoded.index, new IllegalStateException("image pipeline is closed"));
+	}
+
+	/**
+	 * Encodes and writes the images to the paths of their numbers, blocks until every image taken was either written or
+	 * failed. If the iterator fails, no further images are taken and the failure is reported as the result of the
+	 * image it was to produce.
+	 */
+	List<Written> write(String namespace, Function<Integer, String[]> paths, Iterator<BufferedImage> images) {
+		checkOpen();
+		Batch batch = new Batch();
+		for (int i = 0; ; i++) {
+			int index = -1;
+			long acquired = 0;
+			try {
+				if (images.hasNext() == false) {
+					break;
+				}
+				BufferedImage image = images.next();
+				index = batch.add(paths.apply(i));
+				long bytes = ImageCache.estimateBytes(image);
+				budget.acquire(bytes);
+				acquired = bytes;
+				encoders.execute(new Encode(namespace, batch, index, image, bytes));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				batch.complete(index >= 0 ? index : batch.add(paths.apply(i)), e);
+				break;
+			} catch (RuntimeException e) {
+				// e.g. rejected by the encoders of a closed pipeline, the image was not handed over
+				budget.release(acquired);
+				batch.complete(index >= 0 ? index : batch.add(paths.apply(i)), e);
+				break;
+			}
+		}
+		return batch.await();
+	}
+
+	/**
+	 * Writes already encoded images unchanged, handing them straight to the I/O threads on the calling thread. Bounded
+	 * and reported like {@link #write(String, Function, Iterator)}.
+	 */
+	List<Written> writeEncoded(String namespace, Function<Integer, String[]> paths, Iterator<byte[]> images) {
+		checkOpen();
+		Batch batch = new Batch();
+		for (int i = 0; ; i++) {
+			int index = -1;
+			try {
+				if (images.hasNext() == false) {
+					break;
+				}
+				byte[] bytes = images.next();
+				index = batch.add(paths.apply(i));
+				budget.acquire(bytes.length);
+				Encoded encoded = new Encoded(namespace, batch, index, bytes);
+				try {
+					queue.put(encoded);
+				} catch (InterruptedException e) {
+					budget.release(bytes.length);
+					throw e;
+				}
+				// the I/O threads may have stopped before the put, then either close or this thread fails the image
+				if (closed && queue.remove(encoded)) {
+					rejected(encoded);
+					break;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				batch.complete(index >= 0 ? index : batch.add(paths.apply(i)), e);
+				break;
+			} catch (RuntimeException e) {
+				batch.complete(index >= 0 ? index : batch.add(paths.apply(i)), e);
+				break;
+			}
+		}
+		return batch.await();
+	}
+
+	/**
+	 * Encodes the images in parallel without writing them. Only the decoded images are bounded, the encoded ones are
+	 * all returned.
+	 */
+	List<byte[]> encode(Iterator<BufferedImage> images) {
+		checkOpen();
+		List<Future<byte[]>> futures = new ArrayList<>();
+		try {
+			while (images.hasNext()) {
+				BufferedImage image = images.next();
+				long bytes = ImageCache.estimateBytes(image);
+				budget.acquire(bytes);
+				futures.add(encoders.submit(new EncodeOnly(image, bytes)));
+			}
+
+			List<byte[]> encoded = new ArrayList<>(futures.size());
+			for (Future<byte[]> future : futures) {
+				encoded.add(future.get());
+			}
+			return encoded;
+		} catch (InterruptedException e) {
+			// encodings already submitted run to completion, they hold part of the budget
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private byte[] encode(BufferedImage image) throws IOException {
+		long start = encodes.start();
+		try {
+			byte[] encoded = codec.encode(image);
+			encodes.stop(start);
+			return encoded;
+		} catch (IOException | RuntimeException e) {
+			encodes.fail(start, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Results of the images of one call, which grow as images are taken.
+	 */
+	private static class Batch {
+
+		private final List<String[]> paths = new ArrayList<>();
+		private final List<Written> results = new ArrayList<>();
+		private int pending;
+
+		synchronized int add(String[] path) {
+			paths.add(path);
+			results.add(null);
+			pending++;
+			return paths.size() - 1;
+		}
+
+		synchronized String[] path(int index) {
+			return paths.get(index);
+		}
+
+		synchronized void complete(int index, Throwable error) {
+			complete(index, new Written(paths.get(index), error, 0, null));
+		}
+
+		synchronized void complete(int index, long size, String md5) {
+			complete(index, new Written(paths.get(index), null, size, md5));
+		}
+
+		private void complete(int index, Written result) {
+			results.set(index, result);
+			if (--pending == 0) {
+				notifyAll();
+			}
+		}
+
+		synchronized List<Written> await() {
+			boolean interrupted = false;
+			while (pending > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// images are already queued, the batch has to drain before its results can be reported
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			return new ArrayList<>(results);
+		}
+	}
+
+	private static class Encoded {
+
+		final String namespace;
+		final Batch batch;
+		final int index;
+		final byte[] bytes;
+		final long encoded;
+
+		Encoded(String namespace, Batch batch, int index, byte[] bytes) {
+			this.namespace = namespace;
+			this.batch = batch;
+			this.index = index;
+			this.bytes = bytes;
+			this.encoded = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Swaps the budget of the decoded image for the size of the encoded one.
+	 */
+	private void encoded(long decodedBytes, long encodedBytes) {
+		if (encodedBytes < decodedBytes) {
+			budget.release(decodedBytes - encodedBytes);
+		} else {
+			budget.force(encodedBytes - decodedBytes);
+		}
+	}
+
+	private class Encode implements Runnable {
+
+		private final String namespace;
+		private final Batch batch;
+		private final int index;
+		private final long decodedBytes;
+		private BufferedImage image;
+
+		Encode(String namespace, Batch batch, int index, BufferedImage image, long decodedBytes) {
+			this.namespace = namespace;
+			this.batch = batch;
+			this.index = index;
+			this.image = image;
+			this.decodedBytes = decodedBytes;
+		}
+
+		@Override
+		public void run() {
+			BufferedImage decoded = image;
+			image = null;
+			byte[] bytes;
+			try {
+				bytes = encode(decoded);
+			} catch (Throwable e) {
+				budget.release(decodedBytes);
+				batch.complete(index, e);
+				return;
+			}
+
+			encoded(decodedBytes, bytes.length);
+			try {
+				ForkJoinPool.managedBlock(new Enqueue(new Encoded(namespace, batch, index, bytes)));
+			} catch (Throwable e) {
+				budget.release(bytes.length);
+				batch.complete(index, e);
+			}
+		}
+	}
+
+	/**
+	 * Drops the decoded image as soon as it is encoded, the future would keep it reachable otherwise.
+	 */
+	private class EncodeOnly implements Callable<byte[]> {
+
+		private final long decodedBytes;
+		private BufferedImage image;
+
+		EncodeOnly(BufferedImage image, long decodedBytes) {
+			this.image = image;
+			this.decodedBytes = decodedBytes;
+		}
+
+		@Override
+		public byte[] call() throws IOException {
+			BufferedImage decoded = image;
+			image = null;
+			try {
+				return encode(decoded);
+			} finally {
+				budget.release(decodedBytes);
+			}
+		}
+	}
+
+	private class Enqueue implements ForkJoinPool.ManagedBlocker {
+
+		private final Encoded encoded;
+		private boolean enqueued;
+
+		Enqueue(Encoded encoded) {
+			this.encoded = encoded;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			if (enqueued == false) {
+				queue.put(encoded);
+				enqueued = true;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return enqueued || (enqueued = queue.offer(encoded));
+		}
+	}
+
+	private class Uploader implements Runnable {
+
+		@Override
+		public void run() {
+			List<Encoded> batch = new ArrayList<>(UPLOAD_BATCH);
+			while (true) {
+				Encoded encoded;
+				try {
+					// polls, the queue is drained before the thread stops on close
+					encoded = queue.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (encoded == null) {
+					if (closed && encoders.isTerminated()) {
+						return;
+					}
+					continue;
+				}
+
+				batch.add(encoded);
+				queue.drainTo(batch, UPLOAD_BATCH - 1);
+				long taken = System.nanoTime();
+				for (Encoded queued : batch) {
+					queueWaits.record(taken - queued.encoded);
+				}
+
+				// images of one batch may belong to several namespaces
+				Map<String, List<Encoded>> byNamespace = new LinkedHashMap<>();
+				for (Encoded queued : batch) {
+					List<Encoded> namespace = byNamespace.get(queued.namespace);
+					if (namespace == null) {
+						byNamespace.put(queued.namespace, namespace = new ArrayList<>(batch.size()));
+					}
+					namespace.add(queued);
+				}
+				for (Map.Entry<String, List<Encoded>> namespace : byNamespace.entrySet()) {
+					upload(namespace.getKey(), namespace.getValue());
+				}
+				batch.clear();
+			}
+		}
+
+		private void upload(String namespace, List<Encoded> batch) {
+			List<WriteRequest> requests = new ArrayList<>(batch.size());
+			for (Encoded encoded : batch) {
+				requests.add(new WriteRequest(encoded.batch.path(encoded.index), new ByteArrayWriter(encoded.bytes)));
+			}
+
+			long start = writes.start();
+			List<WriteResult> results;
+			try {
+				results = fileMapper.writeAll(namespace, requests);
+				writes.stop(start);
+			} catch (Throwable e) {
+				writes.fail(start, e);
+				for (Encoded encoded : batch) {
+					budget.release(encoded.bytes.length);
+					encoded.batch.complete(encoded.index, e);
+				}
+				return;
+			}
+
+			for (int i = 0; i < batch.size(); i++) {
+				Encoded encoded = batch.get(i);
+				WriteResult result = results.get(i);
+				if (result.isSuccess()) {
+					String md5 = digests ? Hashing.md5().hashBytes(encoded.bytes).toString() : null;
+					budget.release(encoded.bytes.length);
+					encoded.batch.complete(encoded.index, encoded.bytes.length, md5);
+				} else {
+					failed(encoded, result.error);
+				}
+			}
+		}
+
+		private void failed(Encoded encoded, Throwable error) {
+			writes.error(error);
+			budget.release(encoded.bytes.length);
+			encoded.batch.complete(encoded.index, error);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package org.testobject.persistence.dao;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Read-through cache of decoded images, bounded by the estimated memory of their rasters rather than by entry count.
+ * Concurrent misses of the same image are coalesced into a single load. A load is only cached if the image was not
+ * invalidated while it ran, so a read racing a put cannot bring the old image back. Cached images are shared between
+ * callers and must not be modified.
+ */
+class ImageCache {
+
+	interface Loader {
+		BufferedImage load(String path, int image) throws IOException;
+	}
+
+	static class Key {
+
+		final String namespace;
+		final String path;
+		final int image;
+
+		Key(String namespace, String path, int image) {
+			this.namespace = namespace;
+			this.path = path;
+			this.image = image;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key == false) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return image == other.image && path.equals(other.path) && namespace.equals(other.namespace);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(namespace, path, image);
+		}
+	}
+
+	private final String namespace;
+	private final Loader loader;
+	private final Cache<Key, BufferedImage> cache;
+
+	private final Object lock = new Object();
+	// running loads, a load whose future was removed by an invalidation is not cached
+	private final Map<Key, SettableFuture<BufferedImage>> loading = new HashMap<>();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadFailures = new AtomicLong();
+	private final AtomicLong loadNanos = new AtomicLong();
+
+	ImageCache(String namespace, long maxWeight, Loader loader) {
+		this.namespace = namespace;
+		this.loader = loader;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxWeight)
+				.weigher(new Weigher<Key, BufferedImage>() {
+					@Override
+					public int weigh(Key key, BufferedImage image) {
+						return (int) Math.min(Integer.MAX_VALUE, estimateBytes(image));
+					}
+				})
+				.recordStats()
+				.build();
+	}
+
+	BufferedImage get(String path, int image) throws IOException {
+		Key key = new Key(namespace, path, image);
+		BufferedImage cached = cache.getIfPresent(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		SettableFuture<BufferedImage> running;
+		SettableFuture<BufferedImage> future = null;
+		synchronized (lock) {
+			running = loading.get(key);
+			if (running == null) {
+				future = SettableFuture.create();
+				loading.put(key, future);
+			}
+		}
+		return future != null ? load(key, future) : await(running);
+	}
+
+	private BufferedImage load(Key key, SettableFuture<BufferedImage> future) throws IOException {
+		long start = System.nanoTime();
+		BufferedImage loaded;
+		try {
+			loaded = loader.load(key.path, key.image);
+		} catch (IOException | RuntimeException | Error e) {
+			loadFailures.incrementAndGet();
+			synchronized (lock) {
+				if (loading.get(key) == future) {
+					loading.remove(key);
+				}
+			}
+			future.setException(e);
+			throw e;
+		}
+		loads.incrementAndGet();
+		loadNanos.addAndGet(System.nanoTime() - start);
+
+		synchronized (lock) {
+			if (loading.get(key) == future) {
+				loading.remove(key);
+				cache.put(key, loaded);
+			}
+		}
+		future.set(loaded);
+		return loaded;
+	}
+
+	private static BufferedImage await(SettableFuture<BufferedImage> running) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return running.get();
+				} catch (InterruptedException e) {
+					// the load runs on another caller's thread and finishes regardless
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw (RuntimeException) cause;
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	void invalidate(String path, int image) {
+		Key key = new Key(namespace, path, image);
+		synchronized (lock) {
+			loading.remove(key);
+			cache.invalidate(key);
+		}
+	}
+
+	void invalidate(String path) {
+		synchronized (lock) {
+			Iterator<Key> loads = loading.keySet().iterator();
+			while (loads.hasNext()) {
+				if (loads.next().path.equals(path)) {
+					loads.remove();
+				}
+			}
+			Iterator<Key> keys = cache.asMap().keySet().iterator();
+			while (keys.hasNext()) {
+				if (keys.next().path.equals(path)) {
+					keys.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hits and misses of the lookups, loads as run by this cache, coalesced misses are counted as misses only.
+	 */
+	CacheStats stats() {
+		CacheStats lookups = cache.stats();
+		return new CacheStats(lookups.hitCount(), lookups.missCount(), loads.get(), loadFailures.get(), loadNanos.get(), lookups.evictionCount());
+	}
+
+	long size() {
+		return cache.size();
+	}
+
+	static long estimateBytes(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+}
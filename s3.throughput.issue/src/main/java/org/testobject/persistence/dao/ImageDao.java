@@ -1,49 +1,692 @@
 package org.testobject.persistence.dao;
 
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.imageio.ImageIO;
-
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.commons.metrics.Timer;
+import org.testobject.persistence.dao.ImageDaoConfiguration.Format;
+import org.testobject.persistence.dao.ImageDaoConfiguration.Storage;
+import org.testobject.persistence.dao.codec.AdaptiveCodec;
+import org.testobject.persistence.dao.codec.ImageCodec;
+import org.testobject.persistence.dao.codec.PngCodec;
+import org.testobject.persistence.file.Batches;
 import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.FileMapper.FileSummary;
+import org.testobject.persistence.file.FileMapper.WriteResult;
+import org.testobject.persistence.file.MissingFiles;
+import org.testobject.persistence.file.bundle.Bundle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.LimitInputStream;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+public class ImageDao implements Closeable {
 
-public class ImageDao {
-	
 	public static final String NAMESPACE = "org.foo.bar.images";
-	
+
+	private static final String BUNDLE = "images.bundle";
+	private static final String MANIFEST = "images.manifest";
+	private static final Pattern IMAGE = Pattern.compile("(\\d+)\\.png");
+
 	private final FileMapper fileMapper;
-	
+	private final Storage storage;
+	private final LoadingCache<String, Bundle.Index> bundleIndices;
+	private final boolean keepsManifests;
+	private final LoadingCache<String, ImageManifest> manifests;
+	// serialises manifest updates and bundle rewrites of a path within this process
+	private final Striped<Lock> pathLocks = Striped.lock(64);
+	private final ImageCodec codec;
+	private final EncodingPipeline pipeline;
+	private final ImageCache cache;
+	private final ExecutorService readers;
+	private final int prefetchDepth;
+	private final Metrics metrics = new Metrics();
+	private final Timer puts = metrics.timer("put");
+	private final Timer gets = metrics.timer("get");
+	private final Timer bundleWrites = metrics.timer("bundleWrite");
+	private final Timer reads = metrics.timer("read");
+	private final Timer decodes = metrics.timer("decode");
+
 	public ImageDao(FileMapper fileMapper) {
+		this(fileMapper, new ImageDaoConfiguration());
+	}
+
+	public ImageDao(final FileMapper fileMapper, ImageDaoConfiguration configuration) {
+		Preconditions.checkArgument(configuration.getPrefetchDepth() > 0, "prefetch depth must be positive");
 		this.fileMapper = fileMapper;
-		
+		this.storage = configuration.getStorage();
+		this.readers = Batches.newPool("image-dao-read", configuration.getReadThreads());
+		this.prefetchDepth = configuration.getPrefetchDepth();
+		this.codec = new AdaptiveCodec(configuration.getDeflateLevel(), configuration.getFormat() == Format.COMPACT);
+		this.pipeline = new EncodingPipeline(fileMapper, codec, configuration, metrics);
+		this.cache = configuration.getCacheSize() > 0 ? new ImageCache(NAMESPACE, configuration.getCacheSize(), new ImageCache.Loader() {
+			@Override
+			public BufferedImage load(String path, int image) throws IOException {
+				return read(path, image);
+			}
+		}) : null;
+		this.bundleIndices = CacheBuilder.newBuilder().maximumSize(1024).build(new CacheLoader<String, Bundle.Index>() {
+			@Override
+			public Bundle.Index load(String path) throws IOException {
+				return Bundle.readIndex(fileMapper, NAMESPACE, toBundlePath(path));
+			}
+		});
+
+		this.keepsManifests = configuration.isManifest() && storage == Storage.FILE_PER_IMAGE;
+		this.manifests = CacheBuilder.newBuilder().maximumSize(1024)
+				.expireAfterWrite(configuration.getManifestTtlMillis(), TimeUnit.MILLISECONDS).build(new CacheLoader<String, ImageManifest>() {
+			@Override
+			public ImageManifest load(String path) throws IOException {
+				return readManifest(path);
+			}
+		});
+
 		fileMapper.createNamespace(NAMESPACE);
 	}
 
-	public void put(String path, final BufferedImage ... images) {
-		
-		// ### TODO parallelize sequential upload using multiple threads? ###
-		
-		for(int i = 0; i < images.length; i++) {
-			final BufferedImage image = images[i];
-			fileMapper.write(NAMESPACE, new String[] { path, Integer.toString(i) + ".png" }, new FileMapper.Writer() {
+	public void put(String path, BufferedImage ... images) {
+		put(path, Arrays.asList(images).iterator());
+	}
+
+	/**
+	 * Stores the images under the path numbered in iteration order. The iterator is advanced only while fewer than
+	 * {@link ImageDaoConfiguration#getMaxInFlightBytes()} of images are in flight, so an iterator which decodes its
+	 * images lazily keeps the memory of a put bounded regardless of the number of images. Bundles collect the encoded
+	 * images before writing, only their decoded images are bounded.
+	 */
+	public void put(String path, Iterator<BufferedImage> images) {
+		long start = puts.start();
+		try {
+			if(storage == Storage.BUNDLE) {
+				putBundle(path, images);
+			} else {
+				putFiles(path, images);
+			}
+			puts.stop(start);
+		} catch(RuntimeException e) {
+			puts.fail(start, e);
+			throw e;
+		} finally {
+			if(cache != null) {
+				cache.invalidate(path);
+			}
+		}
+	}
+
+	private void putFiles(final String path, Iterator<BufferedImage> images) {
+		written(path, pipeline.write(NAMESPACE, new Function<Integer, String[]>() {
+			@Override
+			public String[] apply(Integer image) {
+				return toPath(path, image);
+			}
+		}, images));
+	}
+
+	/**
+	 * Stores images which arrive PNG encoded, e.g. read from an archive, unchanged and numbered in iteration order, so
+	 * they are neither decoded nor encoded again. Only the PNG header of each image is checked, an image without one
+	 * fails the put and ends the iteration. Bounded like {@link #put(String, Iterator)} by the bytes in flight, except
+	 * for bundles, which collect every encoded image before the bundle is written.
+	 */
+	public void putEncoded(final String path, Iterator<byte[]> images) {
+		Iterator<byte[]> checked = Iterators.transform(images, new Function<byte[], byte[]>() {
+			@Override
+			public byte[] apply(byte[] encoded) {
+				Preconditions.checkArgument(PngCodec.isPng(encoded, encoded.length), "image without png header");
+				return encoded;
+			}
+		});
+
+		long start = puts.start();
+		try {
+			if(storage == Storage.BUNDLE) {
+				writeBundle(path, Lists.newArrayList(checked));
+			} else {
+				written(path, pipeline.writeEncoded(NAMESPACE, new Function<Integer, String[]>() {
+					@Override
+					public String[] apply(Integer image) {
+						return toPath(path, image);
+					}
+				}, checked));
+			}
+			puts.stop(start);
+		} catch(RuntimeException e) {
+			puts.fail(start, e);
+			throw e;
+		} finally {
+			if(cache != null) {
+				cache.invalidate(path);
+			}
+		}
+	}
+
+	/**
+	 * Stores a single PNG encoded image of the given length unchanged, copying it from the stream while it is written,
+	 * e.g. straight from the entry of a {@link java.util.zip.ZipFile}. The stream is read once and not closed. An image
+	 * of a bundle is buffered and the whole bundle rewritten, see {@link #remove(String, int)}.
+	 * 
+	 * @throws IOException if the stream does not start with a PNG header or ends before the given length
+	 */
+	public void putEncoded(String path, int image, final InputStream in, final long length) throws IOException {
+		Preconditions.checkArgument(length >= 0, "negative length");
+		final byte[] header = new byte[PngCodec.HEADER_SIZE];
+		if(length < header.length) {
+			throw new IOException("image " + image + " of path '" + path + "' is too short for a png");
+		}
+		ByteStreams.readFully(in, header);
+		if(PngCodec.isPng(header, header.length) == false) {
+			throw new IOException("image " + image + " of path '" + path + "' has no png header");
+		}
+		if(storage == Storage.BUNDLE) {
+			Preconditions.checkArgument(length <= Integer.MAX_VALUE, "image too large for a bundle");
+			byte[] entry = Arrays.copyOf(header, (int) length);
+			ByteStreams.readFully(in, entry, header.length, entry.length - header.length);
+			long start = puts.start();
+			try {
+				rewriteBundle(path, image, entry);
+				puts.stop(start);
+			} catch(IOException | RuntimeException e) {
+				puts.fail(start, e);
+				throw e;
+			} finally {
+				if(cache != null) {
+					cache.invalidate(path, image);
+				}
+			}
+			return;
+		}
+
+		final Hasher md5 = keepsManifests ? Hashing.md5().newHasher().putBytes(header) : null;
+		long start = puts.start();
+		try {
+			fileMapper.write(NAMESPACE, toPath(path, image), new FileMapper.Writer() {
+				@Override
+				public void write(OutputStream out) throws IOException {
+					out.write(header);
+					InputStream rest = new LimitInputStream(in, length - header.length);
+					byte[] buffer = new byte[8192];
+					long copied = header.length;
+					for(int n; (n = rest.read(buffer)) >= 0; copied += n) {
+						out.write(buffer, 0, n);
+						if(md5 != null) {
+							md5.putBytes(buffer, 0, n);
+						}
+					}
+					if(copied < length) {
+						throw new EOFException("stream ended after " + copied + " of " + length + " bytes");
+					}
+				}
+			});
+			puts.stop(start);
+		} catch(RuntimeException e) {
+			puts.fail(start, e);
+			throw e;
+		} finally {
+			if(cache != null) {
+				cache.invalidate(path, image);
+			}
+		}
+		if(keepsManifests) {
+			updateManifest(path, Arrays.asList(new ImageManifest.Entry(image, length, md5.hash().toString())), -1);
+		}
+	}
+
+	/**
+	 * Records the written images in the manifest and fails if any image failed.
+	 */
+	private void written(String path, List<EncodingPipeline.Written> results) {
+		if(keepsManifests) {
+			List<ImageManifest.Entry> written = new ArrayList<>(results.size());
+			for(int i = 0; i < results.size(); i++) {
+				EncodingPipeline.Written result = results.get(i);
+				if(result.isSuccess()) {
+					written.add(new ImageManifest.Entry(i, result.size, result.md5));
+				}
+			}
+			updateManifest(path, written, -1);
+		}
+		checkResults(path, results);
+	}
+
+	/**
+	 * Adds the written entries to the manifest of the path, or removes the given image, and stores it. The manifest is
+	 * read again rather than taken from the cache, so images which another process put in the meantime are kept.
+	 */
+	private void updateManifest(final String path, List<ImageManifest.Entry> written, int removed) {
+		Lock lock = pathLocks.get(path);
+		lock.lock();
+		try {
+			ImageManifest current;
+			try {
+				current = readManifest(path);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			final ImageManifest updated = removed < 0 ? current.with(written) : current.without(removed);
+			manifests.invalidate(path);
+			fileMapper.write(NAMESPACE, toManifestPath(path), new FileMapper.Writer() {
 				@Override
 				public void write(OutputStream out) throws IOException {
-					ImageIO.write(image, "png", out);
+					updated.write(out);
 				}
 			});
+			manifests.put(path, updated);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void putBundle(String path, Iterator<BufferedImage> images) {
+		writeBundle(path, pipeline.encode(images));
+	}
+
+	private void writeBundle(String path, List<byte[]> entries) {
+		bundleIndices.invalidate(path);
+		long start = bundleWrites.start();
+		try {
+			Bundle.write(fileMapper, NAMESPACE, toBundlePath(path), entries);
+			bundleWrites.stop(start);
+		} catch(RuntimeException e) {
+			bundleWrites.fail(start, e);
+			throw e;
 		}
 	}
-	
+
+	/**
+	 * Replaces a single entry by rewriting the bundle, which reads all other entries once. Images are numbered by their
+	 * position, so a removed image leaves an empty entry behind unless it was the last one.
+	 */
+	private void rewriteBundle(String path, int image, byte[] entry) throws IOException {
+		Preconditions.checkArgument(image >= 0, "negative image");
+		Lock lock = pathLocks.get(path);
+		lock.lock();
+		try {
+			List<byte[]> entries = readBundleEntries(path);
+			if(entry.length == 0 && image >= entries.size()) {
+				return;
+			}
+			while(entries.size() <= image) {
+				entries.add(new byte[0]);
+			}
+			entries.set(image, entry);
+			while(entries.isEmpty() == false && entries.get(entries.size() - 1).length == 0) {
+				entries.remove(entries.size() - 1);
+			}
+			writeBundle(path, entries);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private List<byte[]> readBundleEntries(String path) throws IOException {
+		Bundle.Index index;
+		try {
+			index = Bundle.readIndex(fileMapper, NAMESPACE, toBundlePath(path));
+		} catch(IOException | RuntimeException e) {
+			if(MissingFiles.isMissing(e) == false) {
+				throw e;
+			}
+			return new ArrayList<>();
+		}
+		List<byte[]> entries = new ArrayList<>(index.size());
+		for(int i = 0; i < index.size(); i++) {
+			try(InputStream in = Bundle.read(fileMapper, NAMESPACE, toBundlePath(path), index, i)) {
+				entries.add(ByteStreams.toByteArray(in));
+			}
+		}
+		return entries;
+	}
+
+	private static void checkResults(String path, List<? extends WriteResult> results) {
+		RuntimeException failure = null;
+		for(WriteResult result : results) {
+			if(result.isSuccess() == false) {
+				if(failure == null) {
+					failure = new RuntimeException("failed to write images of path '" + path + "'", result.error);
+				} else {
+					failure.addSuppressed(result.error);
+				}
+			}
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Removes a single image. An image of a bundle is removed by rewriting the whole bundle, the numbers of the other
+	 * images do not change.
+	 */
 	public void remove(String path, int image) {
-		fileMapper.delete(NAMESPACE, new String[] { path, Integer.toString(image) + ".png" });
+		if(storage == Storage.BUNDLE) {
+			try {
+				rewriteBundle(path, image, new byte[0]);
+			} catch(IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				if(cache != null) {
+					cache.invalidate(path, image);
+				}
+			}
+			return;
+		}
+		fileMapper.delete(NAMESPACE, toPath(path, image));
+		if(cache != null) {
+			cache.invalidate(path, image);
+		}
+		if(keepsManifests) {
+			updateManifest(path, null, image);
+		}
 	}
 
+	/**
+	 * The images stored under the path. With {@link ImageDaoConfiguration#isManifest() manifests} or bundles this
+	 * takes a single small read, which is cached, otherwise a listing of the path.
+	 */
+	public ImageManifest getManifest(String path) throws IOException {
+		if(storage == Storage.BUNDLE) {
+			return getBundleManifest(path);
+		}
+		if(keepsManifests == false) {
+			return listManifest(path);
+		}
+		try {
+			return manifests.get(path);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} catch (UncheckedExecutionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+		}
+	}
+
+	/**
+	 * Number of images stored under the path, see {@link #getManifest(String)}.
+	 */
+	public int count(String path) throws IOException {
+		return getManifest(path).size();
+	}
+
+	/**
+	 * Whether the image is stored, see {@link #getManifest(String)}.
+	 */
+	public boolean exists(String path, int image) throws IOException {
+		return getManifest(path).contains(image);
+	}
+
+	/**
+	 * Reads the manifest file of the path. A path without one, which was never written or only before manifests were
+	 * kept, is listed instead.
+	 */
+	private ImageManifest readManifest(String path) throws IOException {
+		InputStream in;
+		try {
+			in = fileMapper.read(NAMESPACE, toManifestPath(path));
+		} catch(RuntimeException e) {
+			// paths written without a manifest are listed, any other failure must not hide the manifest
+			if(MissingFiles.isMissing(e) == false) {
+				throw e;
+			}
+			return listManifest(path);
+		}
+		try(InputStream input = in) {
+			return ImageManifest.read(input);
+		}
+	}
+
+	private ImageManifest listManifest(String path) {
+		List<ImageManifest.Entry> entries = new ArrayList<>();
+		Iterator<FileSummary> files = fileMapper.list(NAMESPACE, new String[] { path });
+		while(files.hasNext()) {
+			FileSummary file = files.next();
+			Matcher image = IMAGE.matcher(file.path[file.path.length - 1]);
+			if(file.path.length == 2 && image.matches()) {
+				entries.add(new ImageManifest.Entry(Integer.parseInt(image.group(1)), file.size, file.etag));
+			}
+		}
+		return ImageManifest.of(entries);
+	}
+
+	/**
+	 * Derives the manifest from the bundle's index, an unreadable index only means an empty path if there is no
+	 * bundle. Empty entries are images which were removed.
+	 */
+	private ImageManifest getBundleManifest(String path) throws IOException {
+		Bundle.Index index;
+		try {
+			index = bundleIndices.get(path);
+		} catch (ExecutionException | RuntimeException e) {
+			Iterator<FileSummary> files = fileMapper.list(NAMESPACE, new String[] { path });
+			while(files.hasNext()) {
+				if(Arrays.equals(files.next().path, toBundlePath(path))) {
+					throw new IOException("bundle of path '" + path + "' cannot be read", e.getCause() != null ? e.getCause() : e);
+				}
+			}
+			return ImageManifest.EMPTY;
+		}
+
+		List<ImageManifest.Entry> entries = new ArrayList<>(index.size());
+		for(int i = 0; i < index.size(); i++) {
+			if(index.length(i) > 0) {
+				entries.add(new ImageManifest.Entry(i, index.length(i), null));
+			}
+		}
+		return ImageManifest.of(entries);
+	}
+
+	/**
+	 * Returns the decoded image, possibly from the read cache. Cached images are shared and must not be modified.
+	 */
 	public BufferedImage get(String path, int image) throws IOException {
-		try(InputStream input = fileMapper.read(NAMESPACE, new String[] { path, Integer.toString(image) + ".png" })) {
-			return ImageIO.read(input);
+		long start = gets.start();
+		try {
+			BufferedImage decoded = cache != null ? cache.get(path, image) : read(path, image);
+			gets.stop(start);
+			return decoded;
+		} catch(IOException | RuntimeException e) {
+			gets.fail(start, e);
+			throw e;
 		}
 	}
 
+	/**
+	 * Fetches and decodes the given images of a path concurrently on the read threads and returns them in the given
+	 * order. Fails with the first failed image, the remaining fetches are cancelled.
+	 */
+	public List<BufferedImage> getAll(String path, int ... images) throws IOException {
+		List<Future<BufferedImage>> futures = new ArrayList<>(images.length);
+		for(int image : images) {
+			futures.add(fetch(path, image));
+		}
+
+		List<BufferedImage> decoded = new ArrayList<>(images.length);
+		try {
+			for(Future<BufferedImage> future : futures) {
+				decoded.add(future.get());
+			}
+			return decoded;
+		} catch(InterruptedException e) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch(ExecutionException e) {
+			cancel(futures);
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Iterates over the given images of a path in order, fetching up to the configured prefetch depth ahead of the
+	 * caller. The iterator has to be closed if it is not consumed to the end.
+	 */
+	public PrefetchingIterator iterator(final String path, int ... images) {
+		return new PrefetchingIterator(new PrefetchingIterator.Fetcher() {
+			@Override
+			public Future<BufferedImage> fetch(int image) {
+				return ImageDao.this.fetch(path, image);
+			}
+		}, images.clone(), prefetchDepth);
+	}
+
+	private Future<BufferedImage> fetch(final String path, final int image) {
+		return readers.submit(new Callable<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws IOException {
+				return get(path, image);
+			}
+		});
+	}
+
+	private static void cancel(List<? extends Future<?>> futures) {
+		for(Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Opens the stored bytes of the image without decoding them, for the caller to close. Images are returned in the
+	 * format they were stored in, which is the palette format for some with {@link Format#COMPACT}.
+	 */
+	public InputStream getEncoded(String path, int image) throws IOException {
+		long start = reads.start();
+		try {
+			InputStream opened = open(path, image);
+			reads.stop(start);
+			return opened;
+		} catch(IOException | RuntimeException e) {
+			reads.fail(start, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Hit, miss and eviction statistics of the read cache, empty if the cache is disabled.
+	 */
+	public CacheStats getCacheStats() {
+		return cache != null ? cache.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Latency of {@link #put(String, BufferedImage...)}, {@code putEncoded} and {@link #get(String, int)} and of their phases: {@code encode},
+	 * {@code queueWait} and {@code write} per image or {@code bundleWrite} per bundle, {@code read} (until the stream
+	 * is open) and {@code decode} per uncached image.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	private BufferedImage read(String path, int image) throws IOException {
+		long start = reads.start();
+		InputStream opened;
+		try {
+			opened = open(path, image);
+			reads.stop(start);
+		} catch(IOException | RuntimeException e) {
+			reads.fail(start, e);
+			throw e;
+		}
+
+		start = decodes.start();
+		try(InputStream input = opened) {
+			BufferedImage decoded = codec.decode(input);
+			decodes.stop(start);
+			return decoded;
+		} catch(IOException e) {
+			decodes.fail(start, e);
+			throw new IOException("image " + image + " of path '" + path + "' cannot be decoded", e);
+		} catch(RuntimeException e) {
+			decodes.fail(start, e);
+			throw e;
+		}
+	}
+
+	private InputStream open(String path, int image) throws IOException {
+		if(storage == Storage.BUNDLE) {
+			try {
+				return readBundle(path, image);
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+		return fileMapper.read(NAMESPACE, toPath(path, image));
+	}
+
+	/**
+	 * Reads the image with the cached index of the bundle. If that fails, e.g. since another process rewrote the
+	 * bundle, the index is read again and the image read once more unless the bundle is still the same.
+	 */
+	private InputStream readBundle(String path, int image) throws IOException, ExecutionException {
+		Bundle.Index index = bundleIndices.get(path);
+		try {
+			return readBundleEntry(path, index, image);
+		} catch(IOException | RuntimeException e) {
+			bundleIndices.asMap().remove(path, index);
+			Bundle.Index current = bundleIndices.get(path);
+			if(current.generation() == index.generation()) {
+				throw e;
+			}
+			return readBundleEntry(path, current, image);
+		}
+	}
+
+	private InputStream readBundleEntry(String path, Bundle.Index index, int image) throws IOException {
+		if(image < index.size() && index.length(image) == 0) {
+			throw new FileNotFoundException("image " + image + " of path '" + path + "' was removed from its bundle");
+		}
+		return Bundle.read(fileMapper, NAMESPACE, toBundlePath(path), index, image);
+	}
+
+	/**
+	 * Stops the encoding and upload threads once the images already taken are written, and the read threads once the
+	 * running fetches are done. Does not close the {@link FileMapper}.
+	 */
+	@Override
+	public void close() {
+		pipeline.close();
+		Batches.shutdown(readers, 1, TimeUnit.MINUTES);
+	}
+
+	private static String[] toPath(String path, int image) {
+		return new String[] { path, Integer.toString(image) + ".png" };
+	}
+
+	private static String[] toBundlePath(String path) {
+		return new String[] { path, BUNDLE };
+	}
+
+	private static String[] toManifestPath(String path) {
+		return new String[] { path, MANIFEST };
+	}
+
 }
@@ -0,0 +1,253 @@
+package org.testobject.persistence.dao;
+
+import org.testobject.persistence.file.Batches;
+
+/**
+ * Tuning knobs of {@link ImageDao}.
+ */
+public class ImageDaoConfiguration {
+
+	public enum Storage {
+		/**
+		 * Every image is stored as its own file {@code <path>/<index>.png}.
+		 */
+		FILE_PER_IMAGE,
+
+		/**
+		 * All images of one {@link ImageDao#put} are packed into a single indexed
+		 * {@link org.testobject.persistence.file.bundle.Bundle} {@code <path>/images.bundle}.
+		 */
+		BUNDLE
+	}
+
+	public enum Format {
+		/**
+		 * Every image is stored as PNG.
+		 */
+		PNG,
+
+		/**
+		 * Images of at most 256 colours, such as masks and boxes, are stored in the compact
+		 * {@link org.testobject.persistence.dao.codec.PaletteCodec palette format}, all others as PNG.
+		 */
+		COMPACT
+	}
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+	public static final long DEFAULT_CACHE_SIZE = 0;
+	public static final int DEFAULT_PREFETCH_DEPTH = 16;
+	public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 128 * 1024 * 1024;
+	public static final long DEFAULT_MANIFEST_TTL_MILLIS = 10 * 1000;
+
+	private Storage storage = Storage.FILE_PER_IMAGE;
+	private Format format = Format.PNG;
+	private int encodeThreads = Runtime.getRuntime().availableProcessors();
+	private int ioThreads = Batches.DEFAULT_THREADS;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private int deflateLevel = PngEncoder.DEFAULT_DEFLATE_LEVEL;
+	private long cacheSize = DEFAULT_CACHE_SIZE;
+	private int readThreads = Batches.DEFAULT_THREADS;
+	private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+	private boolean manifest = false;
+	private long manifestTtlMillis = DEFAULT_MANIFEST_TTL_MILLIS;
+	private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+
+	public Storage getStorage() {
+		return storage;
+	}
+
+	public void setStorage(Storage storage) {
+		this.storage = storage;
+	}
+
+	public ImageDaoConfiguration withStorage(Storage storage) {
+		setStorage(storage);
+		return this;
+	}
+
+	/**
+	 * Format of newly written images, images of either format are read regardless of this setting.
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	public void setFormat(Format format) {
+		this.format = format;
+	}
+
+	public ImageDaoConfiguration withFormat(Format format) {
+		setFormat(format);
+		return this;
+	}
+
+	/**
+	 * Parallelism of the fork-join pool which encodes images, defaults to the number of cores.
+	 */
+	public int getEncodeThreads() {
+		return encodeThreads;
+	}
+
+	public void setEncodeThreads(int encodeThreads) {
+		this.encodeThreads = encodeThreads;
+	}
+
+	public ImageDaoConfiguration withEncodeThreads(int encodeThreads) {
+		setEncodeThreads(encodeThreads);
+		return this;
+	}
+
+	/**
+	 * Number of threads writing encoded images, should match the connection pool of the file mapper.
+	 */
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	public void setIoThreads(int ioThreads) {
+		this.ioThreads = ioThreads;
+	}
+
+	public ImageDaoConfiguration withIoThreads(int ioThreads) {
+		setIoThreads(ioThreads);
+		return this;
+	}
+
+	/**
+	 * Number of encoded images which may wait for an I/O thread before encoding blocks.
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public ImageDaoConfiguration withQueueCapacity(int queueCapacity) {
+		setQueueCapacity(queueCapacity);
+		return this;
+	}
+
+	/**
+	 * Deflate level of both formats from 0 (fastest) to 9 (smallest), {@link PngEncoder#DEFAULT_DEFLATE_LEVEL} keeps the
+	 * default. PNG writers without compression settings, as the JDK's before version 9, ignore it with a warning.
+	 */
+	public int getDeflateLevel() {
+		return deflateLevel;
+	}
+
+	public void setDeflateLevel(int deflateLevel) {
+		this.deflateLevel = deflateLevel;
+	}
+
+	public ImageDaoConfiguration withDeflateLevel(int deflateLevel) {
+		setDeflateLevel(deflateLevel);
+		return this;
+	}
+
+	/**
+	 * Estimated bytes of decoded pixels kept by the read cache, 0, the default, disables the cache. Cached images are
+	 * shared between the callers of {@link ImageDao#get}, which must not modify them.
+	 */
+	public long getCacheSize() {
+		return cacheSize;
+	}
+
+	public void setCacheSize(long cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	public ImageDaoConfiguration withCacheSize(long cacheSize) {
+		setCacheSize(cacheSize);
+		return this;
+	}
+
+	/**
+	 * Number of threads fetching and decoding images for {@link ImageDao#getAll} and {@link ImageDao#iterator}.
+	 */
+	public int getReadThreads() {
+		return readThreads;
+	}
+
+	public void setReadThreads(int readThreads) {
+		this.readThreads = readThreads;
+	}
+
+	public ImageDaoConfiguration withReadThreads(int readThreads) {
+		setReadThreads(readThreads);
+		return this;
+	}
+
+	/**
+	 * Number of images an {@link ImageDao#iterator} fetches ahead of the caller, which bounds the decoded images it
+	 * holds to one more than the depth.
+	 */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	public ImageDaoConfiguration withPrefetchDepth(int prefetchDepth) {
+		setPrefetchDepth(prefetchDepth);
+		return this;
+	}
+
+	/**
+	 * Whether puts of {@link Storage#FILE_PER_IMAGE} keep an {@link ImageManifest} per path, so that
+	 * {@link ImageDao#count(String)} and {@link ImageDao#exists(String, int)} take one small read instead of a listing.
+	 * The first put of a path not seen before costs a listing as well. All writers of the namespace have to keep the
+	 * manifest, {@link AsyncImageDao} does not. Every put re-reads the manifest before storing it, so writers of
+	 * different processes which take turns on a path keep each other's images. Puts of the same path which overlap
+	 * across processes are not serialised, the last one to store the manifest wins.
+	 */
+	public boolean isManifest() {
+		return manifest;
+	}
+
+	public void setManifest(boolean manifest) {
+		this.manifest = manifest;
+	}
+
+	public ImageDaoConfiguration withManifest(boolean manifest) {
+		setManifest(manifest);
+		return this;
+	}
+
+	/**
+	 * Ceiling of the decoded and encoded images which puts keep in flight, beyond it the images of a put are taken from
+	 * its iterator only as earlier ones are written. One image larger than the ceiling is let through at a time.
+	 */
+	public long getMaxInFlightBytes() {
+		return maxInFlightBytes;
+	}
+
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	public ImageDaoConfiguration withMaxInFlightBytes(long maxInFlightBytes) {
+		setMaxInFlightBytes(maxInFlightBytes);
+		return this;
+	}
+
+	/**
+	 * How long a manifest read by {@link ImageDao#count(String)} or {@link ImageDao#exists(String, int)} is cached,
+	 * which bounds how long puts of other processes stay unnoticed. 0 reads the manifest on every call.
+	 */
+	public long getManifestTtlMillis() {
+		return manifestTtlMillis;
+	}
+
+	public void setManifestTtlMillis(long manifestTtlMillis) {
+		this.manifestTtlMillis = manifestTtlMillis;
+	}
+
+	public ImageDaoConfiguration withManifestTtlMillis(long manifestTtlMillis) {
+		setManifestTtlMillis(manifestTtlMillis);
+		return this;
+	}
+}
@@ -0,0 +1,126 @@
+package org.testobject.persistence.dao;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.google.common.base.Strings;
+
+/**
+ * Index of the images stored under a path of an {@link ImageDao}: image number, encoded size and tag of every image.
+ * Instances are immutable, updates return a copy.
+ *
+ * <pre>
+ * int magic, int count, (int image, long size, UTF tag)[count]
+ * </pre>
+ */
+public final class ImageManifest {
+
+	private static final int MAGIC = 0x544f4d31; // 'TOM1'
+
+	public static final ImageManifest EMPTY = new ImageManifest(new TreeMap<Integer, Entry>());
+
+	public static class Entry {
+
+		public final int image;
+		public final long size;
+
+		/**
+		 * MD5 of the encoded image, which is the S3 ETag of an image uploaded with a single PUT, {@code null} if
+		 * unknown.
+		 */
+		public final String etag;
+
+		public Entry(int image, long size, String etag) {
+			this.image = image;
+			this.size = size;
+			this.etag = etag;
+		}
+	}
+
+	private final SortedMap<Integer, Entry> entries;
+
+	private ImageManifest(SortedMap<Integer, Entry> entries) {
+		this.entries = Collections.unmodifiableSortedMap(entries);
+	}
+
+	public static ImageManifest of(Collection<Entry> entries) {
+		return EMPTY.with(entries);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public boolean contains(int image) {
+		return entries.containsKey(image);
+	}
+
+	/**
+	 * The entry of the image, {@code null} if it is not stored.
+	 */
+	public Entry get(int image) {
+		return entries.get(image);
+	}
+
+	/**
+	 * All entries ordered by image number.
+	 */
+	public Collection<Entry> entries() {
+		return entries.values();
+	}
+
+	public long getTotalSize() {
+		long total = 0;
+		for (Entry entry : entries.values()) {
+			total += entry.size;
+		}
+		return total;
+	}
+
+	ImageManifest with(Collection<Entry> added) {
+		SortedMap<Integer, Entry> updated = new TreeMap<>(entries);
+		for (Entry entry : added) {
+			updated.put(entry.image, entry);
+		}
+		return new ImageManifest(updated);
+	}
+
+	ImageManifest without(int image) {
+		SortedMap<Integer, Entry> updated = new TreeMap<>(entries);
+		updated.remove(image);
+		return new ImageManifest(updated);
+	}
+
+	void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(entries.size());
+		for (Entry entry : entries.values()) {
+			data.writeInt(entry.image);
+			data.writeLong(entry.size);
+			data.writeUTF(Strings.nullToEmpty(entry.etag));
+		}
+		data.flush();
+	}
+
+	static ImageManifest read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("not an image manifest");
+		}
+		int count = data.readInt();
+		SortedMap<Integer, Entry> entries = new TreeMap<>();
+		for (int i = 0; i < count; i++) {
+			Entry entry = new Entry(data.readInt(), data.readLong(), Strings.emptyToNull(data.readUTF()));
+			entries.put(entry.image, entry);
+		}
+		return new ImageManifest(entries);
+	}
+}
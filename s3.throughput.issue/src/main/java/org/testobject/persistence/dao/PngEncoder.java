@@ -0,0 +1,77 @@
+package org.testobject.persistence.dao;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Encodes PNGs with one reused {@link ImageWriter} per thread. Unlike {@link ImageIO#write} it never goes through the
+ * file-backed image stream cache. A PNG writer which does not support compression settings, as the JDK's before
+ * version 9, ignores the deflate level, which is logged once.
+ */
+public class PngEncoder {
+
+	private static final Log log = LogFactory.getLog(PngEncoder.class);
+
+	public static final int DEFAULT_DEFLATE_LEVEL = -1;
+
+	private final int deflateLevel;
+	private final AtomicBoolean ignoredLevelLogged = new AtomicBoolean();
+
+	private final ThreadLocal<ImageWriter> writers = new ThreadLocal<ImageWriter>() {
+		@Override
+		protected ImageWriter initialValue() {
+			Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+			Preconditions.checkState(writers.hasNext(), "no png image writer available");
+			return writers.next();
+		}
+	};
+
+	/**
+	 * @param deflateLevel 0 (fastest) to 9 (smallest) or {@link #DEFAULT_DEFLATE_LEVEL} for the writer's default
+	 */
+	public PngEncoder(int deflateLevel) {
+		Preconditions.checkArgument(deflateLevel >= DEFAULT_DEFLATE_LEVEL && deflateLevel <= 9, "invalid deflate level " + deflateLevel);
+		this.deflateLevel = deflateLevel;
+	}
+
+	public byte[] encode(BufferedImage image) throws IOException {
+		ImageWriter writer = writers.get();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4 + 1024);
+		try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(image, null, null), toParam(writer));
+		} finally {
+			writer.setOutput(null);
+		}
+		return out.toByteArray();
+	}
+
+	private ImageWriteParam toParam(ImageWriter writer) {
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (deflateLevel == DEFAULT_DEFLATE_LEVEL) {
+			return param;
+		}
+		if (param.canWriteCompressed()) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			// the png writer maps quality q to deflate level 9 - round(9 * q)
+			param.setCompressionQuality((9f - deflateLevel) / 9f);
+		} else if (ignoredLevelLogged.compareAndSet(false, true)) {
+			log.warn("png writer " + writer.getClass().getName() + " cannot set the compression, ignoring deflate level " + deflateLevel);
+		}
+		return param;
+	}
+}
@@ -0,0 +1,84 @@
+package org.testobject.persistence.dao;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over images in the given order while fetching the next {@code depth} of them in the background, so the
+ * caller only waits when it consumes images faster than they arrive. At most {@code depth} fetches are in flight and at
+ * most {@code depth + 1} decoded images are held. Failures surface from {@link #next()} as a {@link RuntimeException}
+ * caused by the {@link IOException}. Closing the iterator cancels the pending fetches, which is required when it is
+ * abandoned before the end.
+ */
+public class PrefetchingIterator implements Iterator<BufferedImage>, Closeable {
+
+	interface Fetcher {
+		Future<BufferedImage> fetch(int image);
+	}
+
+	private final Fetcher fetcher;
+	private final int[] images;
+	private final int depth;
+	private final Deque<Future<BufferedImage>> pending;
+	private int submitted;
+
+	PrefetchingIterator(Fetcher fetcher, int[] images, int depth) {
+		this.fetcher = fetcher;
+		this.images = images;
+		this.depth = depth;
+		this.pending = new ArrayDeque<>(depth);
+		fill();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return pending.isEmpty() == false;
+	}
+
+	@Override
+	public BufferedImage next() {
+		if (hasNext() == false) {
+			throw new NoSuchElementException();
+		}
+
+		Future<BufferedImage> head = pending.poll();
+		try {
+			return head.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			close();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			fill();
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		submitted = images.length;
+		for (Future<BufferedImage> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+	}
+
+	private void fill() {
+		while (pending.size() < depth && submitted < images.length) {
+			pending.add(fetcher.fetch(images[submitted++]));
+		}
+	}
+}
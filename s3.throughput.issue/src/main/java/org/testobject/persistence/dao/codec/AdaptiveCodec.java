@@ -0,0 +1,57 @@
+package org.testobject.persistence.dao.codec;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Picks the codec per image: {@link PaletteCodec} for images of at most {@value PaletteCodec#MAX_COLORS} colours if
+ * enabled, {@link PngCodec} otherwise. The choice is not recorded anywhere but in the content, decoding recognizes the
+ * format by its leading magic bytes, so objects of either format can be read regardless of the configuration.
+ */
+public class AdaptiveCodec implements ImageCodec {
+
+	private final PngCodec png;
+	private final PaletteCodec palette;
+	private final boolean palettes;
+
+	/**
+	 * @param palettes whether images of few colours are stored in the palette format, otherwise all are stored as PNG
+	 */
+	public AdaptiveCodec(int deflateLevel, boolean palettes) {
+		this.png = new PngCodec(deflateLevel);
+		this.palette = new PaletteCodec(deflateLevel);
+		this.palettes = palettes;
+	}
+
+	@Override
+	public byte[] encode(BufferedImage image) throws IOException {
+		if (palettes) {
+			byte[] encoded = palette.tryEncode(image);
+			if (encoded != null) {
+				return encoded;
+			}
+		}
+		return png.encode(image);
+	}
+
+	@Override
+	public BufferedImage decode(InputStream input) throws IOException {
+		InputStream in = input.markSupported() ? input : new BufferedInputStream(input);
+		byte[] magic = new byte[PaletteCodec.MAGIC.length];
+		in.mark(magic.length);
+		int read = 0;
+		while (read < magic.length) {
+			int n = in.read(magic, read, magic.length - read);
+			if (n < 0) {
+				break;
+			}
+			read += n;
+		}
+		in.reset();
+
+		return Arrays.equals(magic, PaletteCodec.MAGIC) ? palette.decode(in) : png.decode(in);
+	}
+}
@@ -0,0 +1,17 @@
+package org.testobject.persistence.dao.codec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Serializes images losslessly: a decoded image returns the same {@link BufferedImage#getRGB(int, int)} for every
+ * pixel as the encoded one.
+ */
+public interface ImageCodec {
+
+	byte[] encode(BufferedImage image) throws IOException;
+
+	BufferedImage decode(InputStream in) throws IOException;
+
+}
@@ -0,0 +1,309 @@
+package org.testobject.persistence.dao.codec;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Compact format for the low-colour mask and box images: a palette of at most {@value #MAX_COLORS} colours and the
+ * pixels as palette indices packed into 1, 2, 4 or 8 bits, rows deflated as one stream so runs and repeated rows
+ * collapse. Unlike a palette PNG it skips the image I/O machinery, which dominates the cost for small images.
+ * <p>
+ * Layout: {@link #MAGIC}, version, flags (bit 0: alpha), width, height, palette size - 1, palette as ARGB or RGB,
+ * bits per index, deflated rows.
+ */
+public class PaletteCodec implements ImageCodec {
+
+	public static final int MAX_COLORS = 256;
+
+	static final byte[] MAGIC = { (byte) 0x8a, 'T', 'O', 'P' };
+
+	private static final int VERSION = 1;
+	private static final int FLAG_ALPHA = 1;
+
+	// zlib streams allocate their native state up front, which costs more than encoding a small mask
+	private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(deflateLevel);
+		}
+	};
+	private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	private final int deflateLevel;
+
+	/**
+	 * @param deflateLevel 0 to 9 or -1 for the deflater's default
+	 */
+	public PaletteCodec(int deflateLevel) {
+		Preconditions.checkArgument(deflateLevel >= Deflater.DEFAULT_COMPRESSION && deflateLevel <= Deflater.BEST_COMPRESSION, "invalid deflate level "
+				+ deflateLevel);
+		this.deflateLevel = deflateLevel;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the image has more than {@value #MAX_COLORS} colours
+	 */
+	@Override
+	public byte[] encode(BufferedImage image) throws IOException {
+		byte[] encoded = tryEncode(image);
+		Preconditions.checkArgument(encoded != null, "image has more than " + MAX_COLORS + " colors");
+		return encoded;
+	}
+
+	/**
+	 * Encodes the image, or returns {@code null} as soon as a colour beyond the palette's capacity shows up.
+	 */
+	byte[] tryEncode(BufferedImage image) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		Rows rows = new Rows(image);
+		Palette palette = new Palette();
+		byte[] indices = new byte[width * height];
+		boolean alpha = false;
+		for (int y = 0; y < height; y++) {
+			int[] row = rows.read(y);
+			for (int x = 0; x < width; x++) {
+				int index = palette.indexOf(row[x]);
+				if (index < 0) {
+					return null;
+				}
+				indices[y * width + x] = (byte) index;
+				alpha |= (row[x] >>> 24) != 0xff;
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + palette.size * 4 + indices.length / 4);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(alpha ? FLAG_ALPHA : 0);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeByte(palette.size - 1);
+		for (int i = 0; i < palette.size; i++) {
+			int color = palette.colors[i];
+			if (alpha) {
+				out.writeInt(color);
+			} else {
+				out.writeByte(color >>> 16);
+				out.writeShort(color);
+			}
+		}
+		int bits = bitsPerIndex(palette.size);
+		out.writeByte(bits);
+		out.flush();
+
+		byte[] packed = pack(indices, width, height, bits);
+		Deflater deflater = deflaters.get();
+		try {
+			deflater.setInput(packed);
+			deflater.finish();
+			byte[] buffer = new byte[Math.max(64, packed.length / 2)];
+			while (deflater.finished() == false) {
+				bytes.write(buffer, 0, deflater.deflate(buffer));
+			}
+		} finally {
+			deflater.reset();
+		}
+
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public BufferedImage decode(InputStream input) throws IOException {
+		byte[] bytes = ByteStreams.toByteArray(input);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (Arrays.equals(magic, MAGIC) == false) {
+			throw new IOException("no palette image");
+		}
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("unsupported palette image version " + version);
+		}
+		boolean alpha = (in.readUnsignedByte() & FLAG_ALPHA) != 0;
+		int width = in.readInt();
+		int height = in.readInt();
+		int[] colors = new int[in.readUnsignedByte() + 1];
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = alpha ? in.readInt() : 0xff000000 | in.readUnsignedByte() << 16 | in.readUnsignedShort();
+		}
+		int bits = in.readUnsignedByte();
+		if (bits != bitsPerIndex(colors.length)) {
+			throw new IOException("corrupt palette image, " + bits + " bits per index for " + colors.length + " colors");
+		}
+
+		int stride = stride(width, bits);
+		byte[] packed = new byte[stride * height];
+		int offset = bytes.length - in.available();
+		Inflater inflater = inflaters.get();
+		try {
+			inflater.setInput(bytes, offset, bytes.length - offset);
+			int inflated = 0;
+			while (inflated < packed.length) {
+				int n = inflater.inflate(packed, inflated, packed.length - inflated);
+				if (n == 0) {
+					throw new IOException("truncated palette image");
+				}
+				inflated += n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("corrupt palette image", e);
+		} finally {
+			inflater.reset();
+		}
+
+		BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		int mask = (1 << bits) - 1;
+		int perByte = 8 / bits;
+		for (int y = 0; y < height; y++) {
+			int row = y * stride;
+			for (int x = 0; x < width; x++) {
+				int shift = 8 - bits * (x % perByte + 1);
+				int index = (packed[row + x / perByte] >>> shift) & mask;
+				if (index >= colors.length) {
+					throw new IOException("corrupt palette image, index " + index + " beyond palette");
+				}
+				pixels[y * width + x] = colors[index];
+			}
+		}
+		return image;
+	}
+
+	private static byte[] pack(byte[] indices, int width, int height, int bits) {
+		if (bits == 8) {
+			return indices;
+		}
+
+		int stride = stride(width, bits);
+		int perByte = 8 / bits;
+		byte[] packed = new byte[stride * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int shift = 8 - bits * (x % perByte + 1);
+				packed[y * stride + x / perByte] |= indices[y * width + x] << shift;
+			}
+		}
+		return packed;
+	}
+
+	private static int stride(int width, int bits) {
+		return (width * bits + 7) / 8;
+	}
+
+	private static int bitsPerIndex(int colors) {
+		return colors <= 2 ? 1 : colors <= 4 ? 2 : colors <= 16 ? 4 : 8;
+	}
+
+	/**
+	 * Reads the ARGB values of {@link BufferedImage#getRGB} one row at a time, straight from the raster for the common
+	 * image types, so an image of too many colours is rejected without converting all its pixels.
+	 */
+	private static class Rows {
+
+		private final BufferedImage image;
+		private final WritableRaster raster;
+		private final int width;
+		private final int[] row;
+		private final byte[] samples;
+
+		Rows(BufferedImage image) {
+			this.image = image;
+			this.raster = image.getRaster();
+			this.width = image.getWidth();
+			this.row = new int[width];
+			this.samples = new byte[width * 4];
+		}
+
+		int[] read(int y) {
+			switch (image.getType()) {
+			case BufferedImage.TYPE_INT_ARGB:
+				raster.getDataElements(0, y, width, 1, row);
+				break;
+			case BufferedImage.TYPE_INT_RGB:
+				raster.getDataElements(0, y, width, 1, row);
+				for (int x = 0; x < width; x++) {
+					row[x] |= 0xff000000;
+				}
+				break;
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				// data elements are ordered as the colour model's components, r g b a
+				raster.getDataElements(0, y, width, 1, samples);
+				for (int x = 0, i = 0; x < width; x++, i += 4) {
+					row[x] = (samples[i + 3] & 0xff) << 24 | (samples[i] & 0xff) << 16 | (samples[i + 1] & 0xff) << 8 | (samples[i + 2] & 0xff);
+				}
+				break;
+			case BufferedImage.TYPE_3BYTE_BGR:
+				raster.getDataElements(0, y, width, 1, samples);
+				for (int x = 0, i = 0; x < width; x++, i += 3) {
+					row[x] = 0xff000000 | (samples[i] & 0xff) << 16 | (samples[i + 1] & 0xff) << 8 | (samples[i + 2] & 0xff);
+				}
+				break;
+			default:
+				image.getRGB(0, y, width, 1, row, 0, width);
+			}
+			return row;
+		}
+	}
+
+	/**
+	 * Open-addressing map from colour to index, avoids boxing in the per-pixel loop.
+	 */
+	private static class Palette {
+
+		private static final int SLOTS = MAX_COLORS * 4;
+
+		final int[] colors = new int[MAX_COLORS];
+		int size;
+
+		private final int[] keys = new int[SLOTS];
+		private final short[] values = new short[SLOTS];
+
+		Palette() {
+			Arrays.fill(values, (short) -1);
+		}
+
+		/**
+		 * Index of the colour, added if new, or -1 if the palette is full.
+		 */
+		int indexOf(int color) {
+			int slot = (color * 0x9e3779b9) >>> 22;
+			while (values[slot] >= 0) {
+				if (keys[slot] == color) {
+					return values[slot];
+				}
+				slot = (slot + 1) & (SLOTS - 1);
+			}
+			if (size == MAX_COLORS) {
+				return -1;
+			}
+			keys[slot] = color;
+			values[slot] = (short) size;
+			colors[size] = color;
+			return size++;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package org.testobject.persistence.dao.codec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.testobject.persistence.dao.PngEncoder;
+
+/**
+ * Standard PNG, readable by any image tool.
+ */
+public class PngCodec implements ImageCodec {
+
+	/**
+	 * Length of the signature and the start of the IHDR chunk, which every PNG begins with.
+	 */
+	public static final int HEADER_SIZE = 16;
+
+	private static final byte[] HEADER = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R' };
+
+	private final PngEncoder encoder;
+
+	public PngCodec(int deflateLevel) {
+		this.encoder = new PngEncoder(deflateLevel);
+	}
+
+	@Override
+	public byte[] encode(BufferedImage image) throws IOException {
+		return encoder.encode(image);
+	}
+
+	@Override
+	public BufferedImage decode(InputStream in) throws IOException {
+		BufferedImage decoded = ImageIO.read(new MemoryCacheImageInputStream(in));
+		if (decoded == null) {
+			throw new IOException("no png image");
+		}
+		return decoded;
+	}
+
+	/**
+	 * Whether the bytes start with the PNG signature followed by the IHDR chunk. Nothing beyond the header is checked.
+	 */
+	public static boolean isPng(byte[] bytes, int length) {
+		return length >= HEADER_SIZE && Arrays.equals(Arrays.copyOf(bytes, HEADER_SIZE), HEADER);
+	}
+}
@@ -0,0 +1,25 @@
+package org.testobject.persistence.file;
+
+import java.io.InputStream;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Non-blocking counterpart of {@link FileMapper}, every call returns immediately with a future of its outcome. The
+ * {@link FileMapper.Writer} of a write is invoked on the calling thread, the transfer itself completes asynchronously.
+ * Implementations on top of a blocking client may run some calls on a bounded pool of their own, which then limits how
+ * many of them are in flight.
+ */
+public interface AsyncFileMapper {
+
+	ListenableFuture<Void> createNamespaceAsync(String namespace);
+
+	ListenableFuture<Void> deleteNamespaceAsync(String namespace);
+
+	ListenableFuture<Void> writeAsync(String namespace, String[] path, FileMapper.Writer writer);
+
+	ListenableFuture<InputStream> readAsync(String namespace, String[] path);
+
+	ListenableFuture<Void> deleteAsync(String namespace, String[] path);
+
+}
@@ -0,0 +1,76 @@
+package org.testobject.persistence.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testobject.persistence.file.FileMapper.WriteRequest;
+import org.testobject.persistence.file.FileMapper.WriteResult;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+public final class Batches {
+
+	public static final int DEFAULT_THREADS = 16;
+
+	private Batches() {
+	}
+
+	public static ExecutorService newPool(String name, int threads) {
+		Preconditions.checkArgument(threads > 0, "pool size must be positive but was " + threads);
+		return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+	}
+
+	/**
+	 * Stops the pool after its queued tasks, interrupts whatever still runs after the timeout.
+	 */
+	public static void shutdown(ExecutorService pool, long timeout, TimeUnit unit) {
+		pool.shutdown();
+		try {
+			if (pool.awaitTermination(timeout, unit) == false) {
+				pool.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public static List<WriteResult> writeAll(ExecutorService executor, final FileMapper mapper, final String namespace, List<WriteRequest> requests) {
+		List<Future<?>> futures = new ArrayList<>(requests.size());
+		for (final WriteRequest request : requests) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					mapper.write(namespace, request.path, request.writer);
+					return null;
+				}
+			}));
+		}
+
+		List<WriteResult> results = new ArrayList<>(requests.size());
+		for (int i = 0; i < requests.size(); i++) {
+			results.add(new WriteResult(requests.get(i).path, await(futures.get(i))));
+		}
+		return results;
+	}
+
+	private static Throwable await(Future<?> future) {
+		try {
+			future.get();
+			return null;
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			return e;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package org.testobject.persistence.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes already materialized content.
+ */
+public class ByteArrayWriter implements FileMapper.Writer {
+
+	private final byte[] bytes;
+
+	public ByteArrayWriter(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	@Override
+	public void write(OutputStream out) throws IOException {
+		out.write(bytes);
+	}
+}
@@ -0,0 +1,38 @@
+package org.testobject.persistence.file;
+
+import java.io.InputStream;
+
+/**
+ * Optional capability of a {@link FileMapper} whose files carry a version tag, e.g. the ETag of an S3 object, which
+ * lets a cache revalidate its copy without transferring the content again.
+ */
+public interface ConditionalFileMapper {
+
+	class ConditionalRead {
+
+		/**
+		 * Version of the file, {@code null} if the mapper could not tell.
+		 */
+		public final String etag;
+
+		/**
+		 * Content of the file, {@code null} if it still matches the given tag.
+		 */
+		public final InputStream content;
+
+		public ConditionalRead(String etag, InputStream content) {
+			this.etag = etag;
+			this.content = content;
+		}
+
+		public boolean isModified() {
+			return content != null;
+		}
+	}
+
+	/**
+	 * Reads the file unless its version still equals {@code etag}, a {@code null} tag reads unconditionally.
+	 */
+	ConditionalRead readIfNoneMatch(String namespace, String[] path, String etag);
+
+}
@@ -3,22 +3,102 @@ package org.testobject.persistence.file;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
 
 
 public interface FileMapper {
-	
+
 	interface Writer {
 		void write(OutputStream out) throws IOException;
 	}
-	
+
+	class WriteRequest {
+
+		public final String[] path;
+		public final Writer writer;
+
+		public WriteRequest(String[] path, Writer writer) {
+			this.path = path;
+			this.writer = writer;
+		}
+	}
+
+	class WriteResult {
+
+		public final String[] path;
+		public final Throwable error;
+
+		public WriteResult(String[] path, Throwable error) {
+			this.path = path;
+			this.error = error;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+	}
+
+	class FileSummary {
+
+		public static final long UNKNOWN_SIZE = -1;
+
+		public final String[] path;
+		public final long size;
+
+		/**
+		 * Version tag of the content, e.g. the S3 ETag, {@code null} if the mapper keeps none.
+		 */
+		public final String etag;
+
+		public FileSummary(String[] path, long size, String etag) {
+			this.path = path;
+			this.size = size;
+			this.etag = etag;
+		}
+
+		/**
+		 * Whether the path starts with the segments of the prefix and is longer than it.
+		 */
+		public boolean isBelow(String[] prefix) {
+			if (path.length <= prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (path[i].equals(prefix[i]) == false) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 	void createNamespace(String namespace);
-	
+
 	void deleteNamespace(String namespace);
-	
+
 	void write(String namespace, String[] path, Writer writer);
 
+	/**
+	 * Writes all requests concurrently on the mapper's bounded worker pool and blocks until every request has completed.
+	 * Failures do not abort the batch, they are reported per request in the returned list (same order as the requests).
+	 */
+	List<WriteResult> writeAll(String namespace, List<WriteRequest> requests);
+
 	InputStream read(String namespace, String[] path);
 
+	/**
+	 * Reads at most {@code length} bytes starting at {@code offset}, fewer if the file ends before.
+	 */
+	InputStream read(String namespace, String[] path, long offset, long length);
+
 	void delete(String namespace, String[] path);
 
+	/**
+	 * Lists the files whose path starts with the segments of the prefix, an empty prefix lists the whole namespace. The
+	 * order is unspecified. Entries are fetched page by page as the iterator advances, so a listing of any size is
+	 * streamed and may be abandoned at any point. Files written or deleted while the listing runs may or may not show.
+	 */
+	Iterator<FileSummary> list(String namespace, String[] prefix);
+
 }
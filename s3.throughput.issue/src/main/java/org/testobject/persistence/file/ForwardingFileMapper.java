@@ -0,0 +1,57 @@
+package org.testobject.persistence.file;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link FileMapper} which forwards all calls to another mapper, decorators override the calls they intercept.
+ */
+public abstract class ForwardingFileMapper implements FileMapper {
+
+	protected final FileMapper delegate;
+
+	protected ForwardingFileMapper(FileMapper delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void createNamespace(String namespace) {
+		delegate.createNamespace(namespace);
+	}
+
+	@Override
+	public void deleteNamespace(String namespace) {
+		delegate.deleteNamespace(namespace);
+	}
+
+	@Override
+	public void write(String namespace, String[] path, Writer writer) {
+		delegate.write(namespace, path, writer);
+	}
+
+	@Override
+	public List<WriteResult> writeAll(String namespace, List<WriteRequest> requests) {
+		return delegate.writeAll(namespace, requests);
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path) {
+		return delegate.read(namespace, path);
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path, long offset, long length) {
+		return delegate.read(namespace, path, offset, length);
+	}
+
+	@Override
+	public void delete(String namespace, String[] path) {
+		delegate.delete(namespace, path);
+	}
+
+	@Override
+	public Iterator<FileSummary> list(String namespace, String[] prefix) {
+		return delegate.list(namespace, prefix);
+	}
+}
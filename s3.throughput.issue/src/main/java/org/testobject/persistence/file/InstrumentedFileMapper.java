@@ -0,0 +1,263 @@
+package org.testobject.persistence.file;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.commons.metrics.Timer;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Records latency, in-flight calls and failures by exception class of every {@link FileMapper} operation, plus the
+ * bytes written and read. Read latency is the time until the stream is returned, bytes are counted as the caller
+ * consumes it. A listing is timed until its iterator is exhausted, abandoned listings are not recorded. Wrap the
+ * mapper the application uses, its internal phases are reported by the mapper itself (e.g.
+ * {@code S3FileSystemMapper#getMetrics()}).
+ * <p>
+ * Counting bytes takes a small wrapper per write and per read. A writer may be invoked again on a retry, or
+ * concurrently by hedged requests, so its counting stream cannot be shared. Writes count into a plain field of their
+ * stream and add to the shared counter once, reads add once per chunk, which keeps the overhead far below the I/O.
+ */
+public class InstrumentedFileMapper extends ForwardingFileMapper {
+
+	private final Metrics metrics;
+	private final Timer createNamespace;
+	private final Timer deleteNamespace;
+	private final Timer write;
+	private final Timer writeAll;
+	private final Timer read;
+	private final Timer readRange;
+	private final Timer delete;
+	private final Timer list;
+	private final AtomicLong bytesWritten;
+	private final AtomicLong bytesRead;
+	private final AtomicLong filesListed;
+
+	public InstrumentedFileMapper(FileMapper delegate) {
+		this(delegate, new Metrics());
+	}
+
+	public InstrumentedFileMapper(FileMapper delegate, Metrics metrics) {
+		super(delegate);
+		this.metrics = metrics;
+		this.createNamespace = metrics.timer("createNamespace");
+		this.deleteNamespace = metrics.timer("deleteNamespace");
+		this.write = metrics.timer("write");
+		this.writeAll = metrics.timer("writeAll");
+		this.read = metrics.timer("read");
+		this.readRange = metrics.timer("readRange");
+		this.delete = metrics.timer("delete");
+		this.list = metrics.timer("list");
+		this.bytesWritten = metrics.counter("bytesWritten");
+		this.bytesRead = metrics.counter("bytesRead");
+		this.filesListed = metrics.counter("filesListed");
+	}
+
+	@Override
+	public void createNamespace(String namespace) {
+		long start = createNamespace.start();
+		try {
+			super.createNamespace(namespace);
+			createNamespace.stop(start);
+		} catch (RuntimeException e) {
+			createNamespace.fail(start, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void deleteNamespace(String namespace) {
+		long start = deleteNamespace.start();
+		try {
+			super.deleteNamespace(namespace);
+			deleteNamespace.stop(start);
+		} catch (RuntimeException e) {
+			deleteNamespace.fail(start, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(String namespace, String[] path, Writer writer) {
+		long start = write.start();
+		try {
+			super.write(namespace, path, new CountingWriter(writer));
+			write.stop(start);
+		} catch (RuntimeException e) {
+			write.fail(start, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Times the whole batch, failed requests of a completed batch are counted as errors of {@code writeAll}.
+	 */
+	@Override
+	public List<WriteResult> writeAll(String namespace, List<WriteRequest> requests) {
+		List<WriteRequest> counted = new ArrayList<>(requests.size());
+		for (WriteRequest request : requests) {
+			counted.add(new WriteRequest(request.path, new CountingWriter(request.writer)));
+		}
+
+		long start = writeAll.start();
+		List<WriteResult> results;
+		try {
+			results = super.writeAll(namespace, counted);
+			writeAll.stop(start);
+		} catch (RuntimeException e) {
+			writeAll.fail(start, e);
+			throw e;
+		}
+
+		for (WriteResult result : results) {
+			if (result.isSuccess() == false) {
+				writeAll.error(result.error);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path) {
+		long start = read.start();
+		try {
+			InputStream in = super.read(namespace, path);
+			read.stop(start);
+			return new CountingInputStream(in);
+		} catch (RuntimeException e) {
+			read.fail(start, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path, long offset, long length) {
+		long start = readRange.start();
+		try {
+			InputStream in = super.read(namespace, path, offset, length);
+			readRange.stop(start);
+			return new CountingInputStream(in);
+		} catch (RuntimeException e) {
+			readRange.fail(start, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void delete(String namespace, String[] path) {
+		long start = delete.start();
+		try {
+			super.delete(namespace, path);
+			delete.stop(start);
+		} catch (RuntimeException e) {
+			delete.fail(start, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public Iterator<FileSummary> list(String namespace, String[] prefix) {
+		final long start = list.start();
+		final Iterator<FileSummary> files;
+		try {
+			files = super.list(namespace, prefix);
+		} catch (RuntimeException e) {
+			list.fail(start, e);
+			throw e;
+		}
+
+		return new AbstractIterator<FileSummary>() {
+			@Override
+			protected FileSummary computeNext() {
+				try {
+					if (files.hasNext()) {
+						filesListed.incrementAndGet();
+						return files.next();
+					}
+				} catch (RuntimeException e) {
+					list.fail(start, e);
+					throw e;
+				}
+				list.stop(start);
+				return endOfData();
+			}
+		};
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	private class CountingWriter implements Writer {
+
+		private final Writer writer;
+
+		CountingWriter(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(OutputStream out) throws IOException {
+			CountingOutputStream counting = new CountingOutputStream(out);
+			try {
+				writer.write(counting);
+			} finally {
+				bytesWritten.addAndGet(counting.count);
+			}
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	private class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				bytesRead.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				bytesRead.addAndGet(read);
+			}
+			return read;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.testobject.persistence.file;
+
+import java.io.FileNotFoundException;
+import java.nio.file.NoSuchFileException;
+
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * Tells a read of a file which does not exist apart from other failures of a {@link FileMapper}, whose
+ * implementations report both as unchecked exceptions.
+ */
+public final class MissingFiles {
+
+	private MissingFiles() {
+	}
+
+	/**
+	 * Whether the exception or one of its causes reports a missing file, a local one or a 404 of S3.
+	 */
+	public static boolean isMissing(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof NoSuchFileException || cause instanceof FileNotFoundException) {
+				return true;
+			}
+			if (cause instanceof AmazonServiceException && ((AmazonServiceException) cause).getStatusCode() == 404) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
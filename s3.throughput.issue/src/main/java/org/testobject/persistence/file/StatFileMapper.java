@@ -0,0 +1,16 @@
+package org.testobject.persistence.file;
+
+import org.testobject.persistence.file.FileMapper.FileSummary;
+
+/**
+ * Optional capability of a {@link FileMapper} which can look up a single file without transferring its content, e.g.
+ * by a HEAD request to S3.
+ */
+public interface StatFileMapper {
+
+	/**
+	 * Size and version tag of the file, {@code null} if it does not exist.
+	 */
+	FileSummary stat(String namespace, String[] path);
+
+}
@@ -0,0 +1,113 @@
+package org.testobject.persistence.file.aws;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * AIMD limit of concurrent requests. While requests succeed with a latency close to the smoothed latency and the
+ * limit is actually used, it grows by about one per round trip of a full window. A throttled request shrinks it by
+ * {@value #BACKOFF_RATIO}, throttles of requests which started before the last decrease are ignored so that one
+ * burst of rejections counts as a single congestion signal.
+ */
+public class AdaptiveLimiter {
+
+	private static final double BACKOFF_RATIO = 0.7;
+	private static final double LATENCY_SMOOTHING = 0.05;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double latencyTolerance;
+
+	private double limit;
+	private int inFlight;
+	private double smoothedLatency;
+	private long lastDecrease = System.nanoTime();
+
+	private long successCount;
+	private long throttleCount;
+	private long failureCount;
+
+	public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+		Preconditions.checkArgument(minLimit > 0 && minLimit <= initialLimit && initialLimit <= maxLimit, "limits must satisfy 0 < min <= initial <= max");
+		Preconditions.checkArgument(latencyTolerance >= 1, "latency tolerance must be at least 1");
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyTolerance = latencyTolerance;
+		this.limit = initialLimit;
+	}
+
+	/**
+	 * Blocks until a request may be sent, the returned start time has to be handed to exactly one of the completion
+	 * callbacks.
+	 */
+	public synchronized long acquire() throws InterruptedException {
+		while (inFlight >= (int) limit) {
+			wait();
+		}
+		inFlight++;
+		return System.nanoTime();
+	}
+
+	public synchronized void onSuccess(long start) {
+		onResponse(start);
+		release();
+	}
+
+	/**
+	 * Accounts a successful request like {@link #onSuccess(long)} but keeps its slot, for a response whose content is
+	 * still to be read. The slot has to be given back with {@link #release()} once the content is consumed.
+	 */
+	public synchronized void onResponse(long start) {
+		long latency = System.nanoTime() - start;
+		boolean saturated = inFlight >= limit / 2;
+		successCount++;
+
+		boolean healthy = smoothedLatency == 0 || latency <= smoothedLatency * latencyTolerance;
+		smoothedLatency = smoothedLatency == 0 ? latency : smoothedLatency + LATENCY_SMOOTHING * (latency - smoothedLatency);
+		if (healthy && saturated) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	public synchronized void onThrottle(long start) {
+		release();
+		throttleCount++;
+		if (start - lastDecrease > 0) {
+			limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+			lastDecrease = System.nanoTime();
+		}
+	}
+
+	public synchronized void onFailure(long start) {
+		release();
+		failureCount++;
+	}
+
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized long getSmoothedLatencyMillis() {
+		return (long) (smoothedLatency / 1000000);
+	}
+
+	public synchronized long getSuccessCount() {
+		return successCount;
+	}
+
+	public synchronized long getThrottleCount() {
+		return throttleCount;
+	}
+
+	public synchronized long getFailureCount() {
+		return failureCount;
+	}
+}
@@ -0,0 +1,89 @@
+package org.testobject.persistence.file.aws;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Prepends a few hex digits of a hash of the leading {@code hashedSegments} path elements, e.g.
+ * {@code 3fa1/images/0.png}. Keys of different leading elements are scattered over {@code 16^prefixLength}
+ * prefixes, so S3 can split them across index partitions instead of serving all writes of a namespace from a single
+ * one, the files below one such element share a prefix. The prefix is derived from the path alone, reads and deletes
+ * find the object without a lookup, and listing a path prefix of at least {@code hashedSegments} elements takes a
+ * single key prefix. Shorter path prefixes have to cover all hash prefixes, they list the 16 prefixes of the first
+ * hex digit concurrently.
+ */
+public class HashedKeyLayout implements KeyLayout {
+
+	public static final int DEFAULT_PREFIX_LENGTH = 4;
+	public static final int DEFAULT_HASHED_SEGMENTS = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final HashFunction hash = Hashing.murmur3_32();
+
+	private final int prefixLength;
+	private final int hashedSegments;
+
+	public HashedKeyLayout() {
+		this(DEFAULT_PREFIX_LENGTH);
+	}
+
+	public HashedKeyLayout(int prefixLength) {
+		this(prefixLength, DEFAULT_HASHED_SEGMENTS);
+	}
+
+	/**
+	 * @param hashedSegments leading path elements the hash covers, paths of the same leading elements share a prefix
+	 */
+	public HashedKeyLayout(int prefixLength, int hashedSegments) {
+		Preconditions.checkArgument(prefixLength > 0 && prefixLength <= 8, "prefix length must be between 1 and 8 hex digits");
+		Preconditions.checkArgument(hashedSegments > 0, "at least one path element has to be hashed");
+		this.prefixLength = prefixLength;
+		this.hashedSegments = hashedSegments;
+	}
+
+	@Override
+	public String toKey(String[] path) {
+		return hashPrefix(path) + FLAT.toKey(path);
+	}
+
+	private String hashPrefix(String[] path) {
+		String hashed = FLAT.toKey(path.length > hashedSegments ? Arrays.copyOf(path, hashedSegments) : path);
+		return hash.hashString(hashed, UTF_8).toString().substring(0, prefixLength);
+	}
+
+	@Override
+	public String[] toPath(String key) {
+		if (key.length() <= prefixLength) {
+			return null;
+		}
+		String[] path = FLAT.toPath(key.substring(prefixLength));
+		return path != null && toKey(path).equals(key) ? path : null;
+	}
+
+	@Override
+	public List<String> toKeyPrefixes(String[] prefix) {
+		if (prefix.length >= hashedSegments) {
+			return Collections.singletonList(hashPrefix(prefix) + FLAT.toKey(prefix) + "/");
+		}
+		List<String> prefixes = new ArrayList<>(16);
+		for (int digit = 0; digit < 16; digit++) {
+			prefixes.add(Integer.toHexString(digit));
+		}
+		return prefixes;
+	}
+
+	public int getPrefixLength() {
+		return prefixLength;
+	}
+
+	public int getHashedSegments() {
+		return hashedSegments;
+	}
+}
@@ -0,0 +1,226 @@
+package org.testobject.persistence.file.aws;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.commons.metrics.Timer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Sends a duplicate of a request which has not completed after the given percentile of the observed attempt latencies,
+ * returns whichever attempt succeeds first and discards the other one's result once it arrives. A failed attempt only
+ * fails the call if the other one fails as well. Duplicates are paid from a budget which every request tops up by the
+ * budget share, so that a slow backend is not hit with twice the load.
+ * <p>
+ * An attempt which already runs cannot be interrupted, the SDK blocks in socket I/O. For requests with side effects
+ * the losing attempt is tracked by key until it completed, see {@link #awaitStraggler(String)}.
+ * <p>
+ * Reported as {@code <name>.requests}, {@code .hedged}, {@code .wins} (the duplicate finished first),
+ * {@code .budgetExhausted}, the {@code .attempt} timer and the {@code .delayMillis} gauge.
+ */
+class HedgedRequests {
+
+	interface Discard<T> {
+		void discard(T result);
+	}
+
+	private static final int MIN_SAMPLES = 20;
+	private static final int DELAY_REFRESH_INTERVAL = 64;
+	private static final long TOKEN = 1000;
+	private static final long MAX_TOKENS = 10 * TOKEN;
+
+	private final ListeningExecutorService executor;
+	private final double percentile;
+	private final long minDelayNanos;
+	private final long tokensPerRequest;
+
+	private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+	private volatile long delayNanos = -1;
+	private final ConcurrentMap<String, ListenableFuture<?>> stragglers = new ConcurrentHashMap<>();
+
+	private final Timer attempts;
+	private final AtomicLong requests;
+	private final AtomicLong hedged;
+	private final AtomicLong wins;
+	private final AtomicLong budgetExhausted;
+
+	HedgedRequests(String name, ListeningExecutorService executor, double percentile, long minDelayMillis, double budget, Metrics metrics) {
+		Preconditions.checkArgument(percentile > 0 && percentile < 1, "hedge percentile must be between 0 and 1");
+		Preconditions.checkArgument(budget >= 0 && budget <= 1, "hedge budget must be between 0 and 1");
+		this.executor = executor;
+		this.percentile = percentile;
+		this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+		this.tokensPerRequest = (long) (budget * TOKEN);
+		this.attempts = metrics.timer(name + ".attempt");
+		this.requests = metrics.counter(name + ".requests");
+		this.hedged = metrics.counter(name + ".hedged");
+		this.wins = metrics.counter(name + ".wins");
+		this.budgetExhausted = metrics.counter(name + ".budgetExhausted");
+
+		metrics.gauge(name + ".delayMillis", new Supplier<Double>() {
+			@Override
+			public Double get() {
+				return delayNanos / 1e6;
+			}
+		});
+	}
+
+	/**
+	 * Executes the request, hedged once the delay elapsed. The result of the losing attempt, if it succeeds too, is passed
+	 * to {@code discard}. With a key, the losing attempt is tracked until it completed.
+	 */
+	<T> T execute(String key, Callable<T> request, Discard<T> discard) {
+		long delay = delay(requests.incrementAndGet());
+		deposit();
+
+		SettableFuture<T> winner = SettableFuture.create();
+		AtomicInteger pending = new AtomicInteger(1);
+		ListenableFuture<T> primary = submit(request, winner, pending, discard, false);
+		ListenableFuture<T> hedge = null;
+		try {
+			if (delay < 0) {
+				return winner.get();
+			}
+			try {
+				return winner.get(delay, TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				if (winner.isDone() == false) {
+					if (withdraw()) {
+						// a primary failing right now fails the call, the duplicate's result is then discarded
+						pending.incrementAndGet();
+						hedged.incrementAndGet();
+						hedge = submit(request, winner, pending, discard, true);
+					} else {
+						budgetExhausted.incrementAndGet();
+					}
+				}
+				return winner.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+		} finally {
+			if (key != null) {
+				track(key, primary);
+				if (hedge != null) {
+					track(key, hedge);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Blocks until the losing attempt of an earlier request of the key completed, so that it cannot overtake a later
+	 * request of the same key.
+	 */
+	void awaitStraggler(String key) {
+		ListenableFuture<?> straggler = stragglers.get(key);
+		if (straggler == null) {
+			return;
+		}
+		try {
+			straggler.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			// the winning attempt reported the outcome
+		}
+	}
+
+	private <T> ListenableFuture<T> submit(final Callable<T> request, final SettableFuture<T> winner, final AtomicInteger pending, final Discard<T> discard,
+			final boolean isHedge) {
+		final long start = attempts.start();
+		ListenableFuture<T> attempt = executor.submit(request);
+		Futures.addCallback(attempt, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(T result) {
+				attempts.stop(start);
+				if (winner.set(result)) {
+					if (isHedge) {
+						wins.incrementAndGet();
+					}
+				} else if (discard != null) {
+					discard.discard(result);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				attempts.fail(start, t);
+				if (pending.decrementAndGet() == 0) {
+					winner.setException(t);
+				}
+			}
+		});
+		return attempt;
+	}
+
+	private void track(final String key, final ListenableFuture<?> attempt) {
+		if (attempt.isDone()) {
+			return;
+		}
+		stragglers.put(key, attempt);
+		Futures.addCallback(attempt, new FutureCallback<Object>() {
+			@Override
+			public void onSuccess(Object result) {
+				stragglers.remove(key, attempt);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				stragglers.remove(key, attempt);
+			}
+		});
+	}
+
+	/**
+	 * The hedge delay, refreshed from the latency histogram every few requests, -1 while too few attempts were seen.
+	 */
+	private long delay(long request) {
+		if (request % DELAY_REFRESH_INTERVAL == 1 || delayNanos < 0) {
+			if (attempts.getLatencies().getCount() >= MIN_SAMPLES) {
+				delayNanos = Math.max(minDelayNanos, attempts.getLatencies().snapshot().getValue(percentile));
+			}
+		}
+		return delayNanos;
+	}
+
+	private void deposit() {
+		while (true) {
+			long current = tokens.get();
+			long next = Math.min(MAX_TOKENS, current + tokensPerRequest);
+			if (next == current || tokens.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	private boolean withdraw() {
+		while (true) {
+			long current = tokens.get();
+			if (current < TOKEN) {
+				return false;
+			}
+			if (tokens.compareAndSet(current, current - TOKEN)) {
+				return true;
+			}
+		}
+	}
+}
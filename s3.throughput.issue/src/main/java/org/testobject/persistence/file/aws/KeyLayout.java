@@ -0,0 +1,51 @@
+package org.testobject.persistence.file.aws;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maps the logical path of a file to the key of its S3 object.
+ */
+public interface KeyLayout {
+
+	/**
+	 * Joins the path segments as {@code /a/b}, the layout of all objects written before key layouts were introduced.
+	 */
+	KeyLayout FLAT = new KeyLayout() {
+		@Override
+		public String toKey(String[] path) {
+			StringBuilder sb = new StringBuilder();
+			for (String string : path) {
+				sb.append("/").append(string);
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public String[] toPath(String key) {
+			if (key.length() < 2 || key.charAt(0) != '/') {
+				return null;
+			}
+			return key.substring(1).split("/", -1);
+		}
+
+		@Override
+		public List<String> toKeyPrefixes(String[] prefix) {
+			return Collections.singletonList(toKey(prefix) + "/");
+		}
+	};
+
+	String toKey(String[] path);
+
+	/**
+	 * The path of the object with the given key, {@code null} if the key was not written by this layout.
+	 */
+	String[] toPath(String key);
+
+	/**
+	 * Key prefixes which together cover the keys of all paths starting with the given segments, they are listed
+	 * concurrently. The keys under them may include other paths as well.
+	 */
+	List<String> toKeyPrefixes(String[] prefix);
+
+}
@@ -0,0 +1,156 @@
+package org.testobject.persistence.file.aws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.testobject.commons.metrics.Timer;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Empties a bucket by walking all pages of its listing and removing the listed keys with multi-object delete requests
+ * of up to {@value #MAX_KEYS} keys, several of which are in flight while the next page is listed.
+ */
+public class S3BulkDeleter {
+
+	private static final Log log = LogFactory.getLog(S3BulkDeleter.class);
+
+	public static final int MAX_KEYS = 1000;
+
+	private static final int PROGRESS_INTERVAL = 10;
+
+	public static class Progress {
+
+		public final long keys;
+		public final long batches;
+		public final long elapsedMillis;
+
+		Progress(long keys, long batches, long elapsedMillis) {
+			this.keys = keys;
+			this.batches = batches;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public double getKeysPerSecond() {
+			return elapsedMillis == 0 ? keys : keys * 1000.0 / elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return keys + " keys in " + batches + " batches within " + elapsedMillis + " ms (" + Math.round(getKeysPerSecond()) + " keys/s)";
+		}
+	}
+
+	private final AmazonS3Client client;
+	private final S3Requests requests;
+	private final ExecutorService executor;
+	private final int batchesInFlight;
+	private final Timer lists;
+	private final Timer deletes;
+
+	public S3BulkDeleter(AmazonS3Client client, S3Requests requests, ExecutorService executor, int batchesInFlight) {
+		this.client = client;
+		this.requests = requests;
+		this.executor = executor;
+		this.batchesInFlight = batchesInFlight;
+		this.lists = requests.timer("s3.listObjects");
+		this.deletes = requests.timer("s3.deleteObjects");
+	}
+
+	public Progress deleteAll(final String bucket) {
+		final long begin = System.currentTimeMillis();
+		final AtomicLong deleted = new AtomicLong();
+		final AtomicLong batches = new AtomicLong();
+		final Semaphore inFlight = new Semaphore(batchesInFlight);
+
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			ObjectListing listing = requests.execute(lists, new Callable<ObjectListing>() {
+				@Override
+				public ObjectListing call() {
+					return client.listObjects(new ListObjectsRequest().withBucketName(bucket).withMaxKeys(MAX_KEYS));
+				}
+			});
+			while (true) {
+				final List<KeyVersion> keys = new ArrayList<>(listing.getObjectSummaries().size());
+				for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+					keys.add(new KeyVersion(summary.getKey()));
+				}
+
+				if (keys.isEmpty() == false) {
+					inFlight.acquire();
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							try {
+								requests.execute(deletes, new Callable<Void>() {
+									@Override
+									public Void call() {
+										client.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(keys).withQuiet(true));
+										return null;
+									}
+								});
+							} finally {
+								inFlight.release();
+							}
+
+							long total = deleted.addAndGet(keys.size());
+							if (batches.incrementAndGet() % PROGRESS_INTERVAL == 0) {
+								log.info("deleting bucket '" + bucket + "': " + new Progress(total, batches.get(), System.currentTimeMillis() - begin));
+							}
+							return null;
+						}
+					}));
+				}
+
+				if (listing.isTruncated() == false) {
+					break;
+				}
+				final ObjectListing previous = listing;
+				listing = requests.execute(lists, new Callable<ObjectListing>() {
+					@Override
+					public ObjectListing call() {
+						return client.listNextBatchOfObjects(previous);
+					}
+				});
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			throw new RuntimeException("failed to delete objects of bucket '" + bucket + "'", e.getCause());
+		} catch (RuntimeException e) {
+			cancel(futures);
+			throw e;
+		}
+
+		Progress progress = new Progress(deleted.get(), batches.get(), System.currentTimeMillis() - begin);
+		log.info("deleted all objects of bucket '" + bucket + "': " + progress);
+		return progress;
+	}
+
+	private static void cancel(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+}
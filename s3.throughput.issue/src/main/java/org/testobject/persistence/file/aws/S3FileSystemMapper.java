@@ -3,172 +3,656 @@ package org.testobject.persistence.file.aws;
 import static org.testobject.commons.file.Constants.dynamodb_client_access_key;
 import static org.testobject.commons.file.Constants.dynamodb_client_secret_key;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.testobject.commons.file.Constants;
+import org.testobject.commons.io.BufferPool;
+import org.testobject.commons.io.SpoolingOutputStream;
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.commons.metrics.Timer;
+import org.testobject.persistence.file.AsyncFileMapper;
+import org.testobject.persistence.file.Batches;
+import org.testobject.persistence.file.ConditionalFileMapper;
 import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.StatFileMapper;
 
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
-import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.Bucket;
 import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
-import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
-import com.amazonaws.services.s3.model.ObjectListing;
-import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.Region;
 import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.services.s3.model.S3ObjectSummary;
-import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-public class S3FileSystemMapper implements FileMapper {
+public class S3FileSystemMapper implements FileMapper, AsyncFileMapper, ConditionalFileMapper, StatFileMapper, Closeable {
+
+	private static final long WHOLE_OBJECT = -1;
+	private static final String ANY_VERSION = null;
+	private static final HedgedRequests.Discard<S3Object> ABORT = new HedgedRequests.Discard<S3Object>() {
+		@Override
+		public void discard(S3Object s3Object) {
+			// null is a 304, there is no connection to give back
+			if (s3Object != null) {
+				S3ObjectInputStream content = s3Object.getObjectContent();
+				try {
+					content.abort();
+				} catch (IOException e) {
+					// the content is thrown away anyway
+				}
+			}
+		}
+	};
 	
 	private final String prefix;
+	private final SharedS3Client shared;
 	private final AmazonS3Client client;
 
 	private final Region region;
     private final File workFolder;
+    private final ListeningExecutorService executor;
+    private final ListeningExecutorService blockingCalls;
+    private final ExecutorService partPool;
+    private final ExecutorService deletePool;
+    private final ExecutorService listPool;
+    private final ExecutorService hedgePool;
+    private final boolean ownsClient;
+    private final S3Uploader uploader;
+    private final BufferPool bufferPool;
+    private final long spoolThreshold;
+    private final S3BulkDeleter deleter;
+    private final S3Lister lister;
+    private final S3Requests requests;
+    private final KeyLayout keyLayout;
+    private final boolean legacyKeyFallback;
+    private final Timer bucketRequests;
+    private final Timer gets;
+    private final Timer heads;
+    private final Timer deletes;
+    private final Timer captures;
+    private final Timer uploads;
+    private final Timer warmUps;
+    private final int warmUpConnections;
+    private final long createdAt = System.nanoTime();
+    private final AtomicLong timeToFirstUpload = new AtomicLong(-1);
+    private final HedgedRequests readHedging;
+    private final HedgedRequests writeHedging;
+    private final long hedgeMaxWriteSize;
 
     @Inject
 	public S3FileSystemMapper(@Named(Constants.application_work_folder) String workFolder, @Named(Constants.system_name) String prefix, @Named(Constants.s3_region) String region, @Named(dynamodb_client_access_key) String accessKey, @Named(dynamodb_client_secret_key) String secretKey) {
+		this(workFolder, prefix, region, accessKey, secretKey, new S3TransferConfiguration());
+	}
+
+	public S3FileSystemMapper(String workFolder, String prefix, String region, String accessKey, String secretKey, int threads) {
+		this(workFolder, prefix, region, accessKey, secretKey, new S3TransferConfiguration().withThreads(threads));
+	}
+
+	public S3FileSystemMapper(String workFolder, String prefix, String region, String accessKey, String secretKey, S3TransferConfiguration configuration) {
 		this.prefix = prefix;
 		this.region = Region.fromValue(region);
-		this.client = new AmazonS3Client(new BasicAWSCredentials(accessKey, secretKey));
+		this.shared = configuration.isSharedClient() ? SharedS3Client.get(accessKey, secretKey, configuration.getClientConfiguration())
+				: SharedS3Client.create(accessKey, secretKey, configuration.getClientConfiguration());
+		this.client = shared.getClient();
+		this.requests = newRequests(configuration);
         this.workFolder = new File(workFolder, "org.testobject.runtime.persistence.tmp");
+        this.ownsClient = configuration.isSharedClient() == false;
+        this.executor = MoreExecutors.listeningDecorator(Batches.newPool("s3-file-mapper", configuration.getThreads()));
+        this.blockingCalls = MoreExecutors.listeningDecorator(Batches.newPool("s3-blocking-call", configuration.getBlockingCallThreads()));
+        this.partPool = Batches.newPool("s3-part-uploader", configuration.getPartParallelism());
+        this.deletePool = Batches.newPool("s3-bulk-delete", configuration.getDeleteParallelism());
+        this.listPool = Batches.newPool("s3-list", configuration.getListParallelism());
+        this.uploader = new S3Uploader(client, requests, configuration, partPool);
+        this.bufferPool = new BufferPool(configuration.getBufferSize(), configuration.getBufferPoolSize(), configuration.isDirectBuffers());
+        this.spoolThreshold = configuration.getSpoolThreshold();
+        this.keyLayout = configuration.getKeyLayout();
+        this.legacyKeyFallback = configuration.isLegacyKeyFallback();
+        this.deleter = new S3BulkDeleter(client, requests, deletePool, configuration.getDeleteParallelism());
+        this.lister = new S3Lister(client, requests, listPool);
+        this.bucketRequests = requests.timer("s3.bucket");
+        this.gets = requests.timer("s3.getObject");
+        this.heads = requests.timer("s3.headObject");
+        this.deletes = requests.timer("s3.deleteObject");
+        this.captures = requests.timer("capture");
+        this.uploads = requests.timer("upload");
+        this.warmUps = requests.timer("s3.warmUp");
+        this.warmUpConnections = configuration.getWarmUpConnections();
+        this.hedgeMaxWriteSize = Math.min(configuration.getHedgeMaxWriteSize(), configuration.getMultipartThreshold() - 1);
+
+        ListeningExecutorService hedgeExecutor = configuration.isHedgeReads() || configuration.isHedgeWrites() ? newHedgeExecutor() : null;
+        this.hedgePool = hedgeExecutor;
+        this.readHedging = configuration.isHedgeReads() ? new HedgedRequests("hedge.read", hedgeExecutor, configuration.getHedgePercentile(),
+        		configuration.getHedgeMinDelay(), configuration.getHedgeBudget(), requests.getMetrics()) : null;
+        this.writeHedging = configuration.isHedgeWrites() ? new HedgedRequests("hedge.write", hedgeExecutor, configuration.getHedgePercentile(),
+        		configuration.getHedgeMinDelay(), configuration.getHedgeBudget(), requests.getMetrics()) : null;
+
+        requests.getMetrics().gauge("bufferPool.outstandingBytes", new Supplier<Long>() {
+			@Override
+			public Long get() {
+				return bufferPool.getOutstandingBytes();
+			}
+		});
+        requests.getMetrics().gauge("timeToFirstUploadMillis", new Supplier<Double>() {
+			@Override
+			public Double get() {
+				return getTimeToFirstUploadMillis();
+			}
+		});
+	}
+
+	private static S3Requests newRequests(S3TransferConfiguration configuration) {
+		int maxConcurrency = Math.min(configuration.getMaxConcurrency(), configuration.getClientConfiguration().getMaxConnections());
+		int minConcurrency = Math.min(configuration.getMinConcurrency(), maxConcurrency);
+		int initialConcurrency = Math.max(minConcurrency, Math.min(configuration.getInitialConcurrency(), maxConcurrency));
+		AdaptiveLimiter limiter = new AdaptiveLimiter(initialConcurrency, minConcurrency, maxConcurrency, configuration.getLatencyTolerance());
+
+		return new S3Requests(limiter, configuration.getMaxRetries(), configuration.getRetryBackoff(), configuration.getMaxRetryBackoff());
 	}
 
+	/**
+	 * Hedged attempts run here rather than on the caller's thread so that the caller can give up waiting for them, the
+	 * number of requests in flight is still bounded by the limiter.
+	 */
+	private static ListeningExecutorService newHedgeExecutor() {
+		return MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("s3-hedge-%d").setDaemon(true).build()));
+	}
+
+	/**
+	 * Shuts the mapper's thread pools down once their running work is done, and the client unless it is shared.
+	 * Spooled content of uploads still running at the timeout is released by their failure.
+	 */
 	@Override
-	public void createNamespace(String namespace) {
-		try {
-			client.getBucketLocation(getBucketName(namespace));
-            new File(workFolder, namespace).mkdirs();
-		} catch(AmazonServiceException e) {
-			client.createBucket(getBucketName(namespace), region);
+	public void close() {
+		for (ExecutorService pool : Arrays.asList(blockingCalls, executor, partPool, deletePool, listPool, hedgePool)) {
+			if (pool != null) {
+				Batches.shutdown(pool, 1, TimeUnit.MINUTES);
+			}
 		}
+		if (ownsClient) {
+			client.shutdown();
+		}
+	}
+
+	/**
+	 * Probes the bucket unless any mapper of the shared client saw it before, creates it if missing and starts the
+	 * configured connection warm-up.
+	 */
+	@Override
+	public void createNamespace(final String namespace) {
+		final String bucket = getBucketName(namespace);
+		if (shared.getBucketLocation(bucket) != null) {
+			new File(workFolder, namespace).mkdirs();
+		} else {
+			try {
+				String location = requests.execute(bucketRequests, new Callable<String>() {
+					@Override
+					public String call() {
+						return client.getBucketLocation(bucket);
+					}
+				});
+				shared.putBucketLocation(bucket, Strings.nullToEmpty(location));
+				new File(workFolder, namespace).mkdirs();
+			} catch(AmazonServiceException e) {
+				requests.execute(bucketRequests, new Callable<Bucket>() {
+					@Override
+					public Bucket call() {
+						return client.createBucket(bucket, region);
+					}
+				});
+				shared.putBucketLocation(bucket, Strings.nullToEmpty(region.toString()));
+			}
+		}
+
+		if (warmUpConnections > 0) {
+			warmUp(namespace, warmUpConnections);
+		}
+	}
+
+	/**
+	 * Opens up to the given number of pooled connections to the namespace's bucket in the background, by issuing that
+	 * many bucket location requests at once. Only the first warm-up of a bucket per shared client does anything. The
+	 * future yields the number of requests which succeeded.
+	 */
+	public ListenableFuture<Integer> warmUp(String namespace, final int connections) {
+		final String bucket = getBucketName(namespace);
+		if (connections <= 0 || shared.claimWarmUp(bucket) == false) {
+			return Futures.immediateFuture(0);
+		}
+
+		// the requests have to overlap, a request issued after another completed reuses its connection
+		final CountDownLatch start = new CountDownLatch(connections);
+		ListeningExecutorService warmUpPool = MoreExecutors.listeningDecorator(Batches.newPool("s3-warm-up", connections));
+		List<ListenableFuture<String>> probes = new ArrayList<>(connections);
+		for (int i = 0; i < connections; i++) {
+			probes.add(warmUpPool.submit(new Callable<String>() {
+				@Override
+				public String call() throws InterruptedException {
+					start.countDown();
+					start.await(1, TimeUnit.SECONDS);
+					return requests.execute(warmUps, new Callable<String>() {
+						@Override
+						public String call() {
+							return client.getBucketLocation(bucket);
+						}
+					});
+				}
+			}));
+		}
+		warmUpPool.shutdown();
+
+		return Futures.transform(Futures.successfulAsList(probes), new Function<List<String>, Integer>() {
+			@Override
+			public Integer apply(List<String> locations) {
+				int succeeded = 0;
+				for (String location : locations) {
+					succeeded += location != null ? 1 : 0;
+				}
+				return succeeded;
+			}
+		});
 	}
 
 	@Override
 	public void deleteNamespace(String namespace) {
-		String bucket = getBucketName(namespace);
-		if(client.doesBucketExist(bucket)) {
-			ObjectListing listObjects = client.listObjects(bucket);
-			for(S3ObjectSummary summary : listObjects.getObjectSummaries()) {
-				client.deleteObject(bucket, summary.getKey());
+		final String bucket = getBucketName(namespace);
+		boolean exists = requests.execute(bucketRequests, new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return client.doesBucketExist(bucket);
 			}
-			client.deleteBucket(bucket);
+		});
+
+		if(exists) {
+			deleter.deleteAll(bucket);
+			requests.execute(bucketRequests, new Callable<Void>() {
+				@Override
+				public Void call() {
+					client.deleteBucket(bucket);
+					return null;
+				}
+			});
 		}
+		shared.forgetBucket(bucket);
 	}
 	
 	@Override
 	public InputStream read(String namespace, String[] path) {
-		String key = toKey(path);
-		
-		S3Object s3Object = client.getObject(new GetObjectRequest(getBucketName(namespace), key));
-		Preconditions.checkNotNull(s3Object, "given key '" + key + "' doesn't exist in bucket '" + getBucketName(namespace) + "'");
+		return getObject(namespace, path, 0, WHOLE_OBJECT, ANY_VERSION).getObjectContent();
+	}
 
-		return s3Object.getObjectContent();
+	@Override
+	public InputStream read(String namespace, String[] path, long offset, long length) {
+		Preconditions.checkArgument(offset >= 0 && length > 0, "invalid range");
+		return getObject(namespace, path, offset, length, ANY_VERSION).getObjectContent();
+	}
+
+	/**
+	 * Sends the tag as {@code If-None-Match}, a matching object is answered with 304 and no content.
+	 */
+	@Override
+	public ConditionalRead readIfNoneMatch(String namespace, String[] path, String etag) {
+		S3Object s3Object = getObject(namespace, path, 0, WHOLE_OBJECT, etag);
+		if (s3Object == null) {
+			return new ConditionalRead(etag, null);
+		}
+		return new ConditionalRead(s3Object.getObjectMetadata().getETag(), s3Object.getObjectContent());
 	}
 	
+	/**
+	 * Takes a HEAD request, in compatibility mode a second one for the flat key if the object is missing.
+	 */
+	@Override
+	public FileSummary stat(String namespace, String[] path) {
+		String bucket = getBucketName(namespace);
+		ObjectMetadata metadata = headObject(bucket, keyLayout.toKey(path));
+		if (metadata == null && readsLegacyKeys()) {
+			metadata = headObject(bucket, KeyLayout.FLAT.toKey(path));
+		}
+		return metadata == null ? null : new FileSummary(path, metadata.getContentLength(), metadata.getETag());
+	}
+
+	private ObjectMetadata headObject(final String bucket, final String key) {
+		try {
+			return requests.execute(heads, new Callable<ObjectMetadata>() {
+				@Override
+				public ObjectMetadata call() {
+					return client.getObjectMetadata(bucket, key);
+				}
+			});
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() != 404) {
+				throw e;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * With write hedging, content of up to the configured size is uploaded by hedged single PUTs.
+	 */
 	@Override
 	public void write(String namespace, String[] path, Writer writer) {
 		
-		String key = toKey(path);
+		String bucket = getBucketName(namespace);
+		String key = keyLayout.toKey(path);
+		awaitStraggler(bucket, key);
 		
-        UUID tmp = UUID.randomUUID();
-        File tmpFolder = new File(workFolder, namespace);
-        File tmpFile = new File(tmpFolder, tmp.toString());
+		SpoolingOutputStream content = capture(namespace, writer);
+		long start = uploads.start();
+		try {
+			if (writeHedging != null && content.size() <= hedgeMaxWriteSize) {
+				putHedged(bucket, key, content);
+			} else {
+				uploader.upload(bucket, key, content);
+			}
+			uploads.stop(start);
+			uploaded();
+		} catch (RuntimeException e) {
+			uploads.fail(start, e);
+			throw e;
+		} finally {
+			content.release();
+		}
+	}
 
-        try {
-            tmpFile.createNewFile();
-            writer.write(new FileOutputStream(tmpFile));
+	/**
+	 * The losing PUT may still be sending when the buffers are released, so it sends a copy.
+	 */
+	private void putHedged(final String bucket, final String key, SpoolingOutputStream content) {
+		final byte[] bytes;
+		try (InputStream in = content.openStream()) {
+			bytes = ByteStreams.toByteArray(in);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		writeHedging.execute(bucket + "/" + key, new Callable<Void>() {
+			@Override
+			public Void call() {
+				uploader.put(bucket, key, bytes);
+				return null;
+			}
+		}, null);
+	}
 
-            upload(namespace, key, tmpFile);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            if(tmpFile.exists()){
-                tmpFile.delete();
-            }
-        }
+	/**
+	 * Waits for the losing PUT of an earlier hedged write of the key, which would otherwise overwrite what follows.
+	 */
+	private void awaitStraggler(String bucket, String key) {
+		if (writeHedging != null) {
+			writeHedging.awaitStraggler(bucket + "/" + key);
+		}
+	}
+
+	private void uploaded() {
+		if (timeToFirstUpload.get() < 0) {
+			timeToFirstUpload.compareAndSet(-1, System.nanoTime() - createdAt);
+		}
+	}
+
+	/**
+	 * Runs the writer into pooled buffers, spilling to a spool file beyond the spool threshold.
+	 */
+	private SpoolingOutputStream capture(String namespace, Writer writer) {
+		SpoolingOutputStream content = new SpoolingOutputStream(bufferPool, spoolThreshold, new File(workFolder, namespace));
+		long start = captures.start();
+		try {
+			try (SpoolingOutputStream out = content) {
+				writer.write(out);
+			}
+			captures.stop(start);
+			return content;
+		} catch (IOException | RuntimeException e) {
+			captures.fail(start, e);
+			content.release();
+			throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public List<WriteResult> writeAll(String namespace, List<WriteRequest> requests) {
+		return Batches.writeAll(executor, this, namespace, requests);
+	}
+
+	/**
+	 * Fetches the object of the given path, in compatibility mode an object missing under the configured layout is
+	 * looked up under its flat key. Returns {@code null} only if a tag was given and the object still matches it.
+	 */
+	private S3Object getObject(String namespace, String[] path, long offset, long length, String etag) {
+		String bucket = getBucketName(namespace);
+		String key = keyLayout.toKey(path);
+		S3Object s3Object;
+		try {
+			s3Object = getObject(toRequest(bucket, key, offset, length, etag));
+		} catch (AmazonServiceException e) {
+			if (readsLegacyKeys() == false || e.getStatusCode() != 404) {
+				throw e;
+			}
+			key = KeyLayout.FLAT.toKey(path);
+			s3Object = getObject(toRequest(bucket, key, offset, length, etag));
+		}
+		if (etag == ANY_VERSION) {
+			Preconditions.checkNotNull(s3Object, "given key '" + key + "' doesn't exist in bucket '" + bucket + "'");
+		}
+
+		return s3Object;
+	}
+
+	private static GetObjectRequest toRequest(String bucket, String key, long offset, long length, String etag) {
+		GetObjectRequest request = new GetObjectRequest(bucket, key);
+		if (etag != ANY_VERSION) {
+			request.withNonmatchingETagConstraint(etag);
+		}
+		return length == WHOLE_OBJECT ? request : request.withRange(offset, offset + length - 1);
+	}
+
+	private S3Object getObject(final GetObjectRequest request) {
+		final Callable<S3Object> get = new Callable<S3Object>() {
+			@Override
+			public S3Object call() {
+				return client.getObject(request);
+			}
+		};
+		if (readHedging == null) {
+			return requests.execute(gets, get);
+		}
+
+		return readHedging.execute(null, new Callable<S3Object>() {
+			@Override
+			public S3Object call() {
+				return requests.execute(gets, get);
+			}
+		}, ABORT);
 	}
 
 	@Override
 	public void delete(String namespace, String[] path) {
-		client.deleteObject(namespace, toKey(path));
-	}
-
-    private void upload(String existingBucketName, String keyName, File file) {
-    	
-    	// ### TODO do not use multi-part upload for files smaller than 1 mb? ###
-    	
-        // Create a list of UploadPartResponse objects. You get one of these for each part upload.
-        List<PartETag> partETags = new ArrayList<>();
-
-        // Step 1: Initialize.
-        InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(getBucketName(existingBucketName), keyName);
-        InitiateMultipartUploadResult initResponse = client.initiateMultipartUpload(initRequest);
-
-        long contentLength = file.length();
-        long partSize = 5 * 1024 * 1024; // Set part size to 5 MB.
-
-        try {
-            // Step 2: Upload parts.
-            long filePosition = 0;
-            for (int i = 1; filePosition < contentLength; i++) {
-                // Last part can be less than 5 MB. Adjust part size.
-                partSize = Math.min(partSize, (contentLength - filePosition));
-
-                // Create request to upload a part.
-                UploadPartRequest uploadRequest = new UploadPartRequest()
-                        .withBucketName(getBucketName(existingBucketName)).withKey(keyName)
-                        .withUploadId(initResponse.getUploadId()).withPartNumber(i)
-                        .withFileOffset(filePosition)
-                        .withFile(file)
-                        .withPartSize(partSize);
-
-                // Upload part and add response to our list.
-                partETags.add(client.uploadPart(uploadRequest).getPartETag());
-
-                filePosition += partSize;
-            }
-
-            // Step 3: complete.
-            CompleteMultipartUploadRequest compRequest = new
-                    CompleteMultipartUploadRequest(getBucketName(existingBucketName),
-                    keyName,
-                    initResponse.getUploadId(),
-                    partETags);
-
-            client.completeMultipartUpload(compRequest);
-        } catch (Exception e) {
-            client.abortMultipartUpload(new AbortMultipartUploadRequest(
-                    getBucketName(existingBucketName), keyName, initResponse.getUploadId()));
-
-            throw new RuntimeException(e);
-        }
-    }
-	
+		deleteObject(getBucketName(namespace), keyLayout.toKey(path));
+		if (readsLegacyKeys()) {
+			deleteObject(getBucketName(namespace), KeyLayout.FLAT.toKey(path));
+		}
+	}
+
+	private void deleteObject(final String bucket, final String key) {
+		awaitStraggler(bucket, key);
+		requests.execute(deletes, new Callable<Void>() {
+			@Override
+			public Void call() {
+				client.deleteObject(bucket, key);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Pages through the key prefixes of the layout which cover the path prefix, in compatibility mode the flat keys
+	 * as well. Sizes and ETags come with the listing.
+	 */
+	@Override
+	public Iterator<FileSummary> list(String namespace, String[] prefix) {
+		List<KeyLayout> layouts = readsLegacyKeys() ? Arrays.asList(keyLayout, KeyLayout.FLAT) : Collections.singletonList(keyLayout);
+		return lister.list(getBucketName(namespace), prefix, layouts);
+	}
+
+	/**
+	 * The SDK has no non-blocking calls, this and {@link #deleteNamespaceAsync}, {@link #readAsync} and
+	 * {@link #deleteAsync} block one thread of the bounded blocking call pool each. Only {@link #writeAsync} hands its
+	 * transfer to the upload stages without blocking a thread per call.
+	 */
+	@Override
+	public ListenableFuture<Void> createNamespaceAsync(final String namespace) {
+		return blockingCalls.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				createNamespace(namespace);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public ListenableFuture<Void> deleteNamespaceAsync(final String namespace) {
+		return blockingCalls.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				deleteNamespace(namespace);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Captures the writer's output on the calling thread and uploads it in the background, the buffers are released once
+	 * the upload completed. Cancelling the returned future does not stop the upload.
+	 */
+	@Override
+	public ListenableFuture<Void> writeAsync(String namespace, String[] path, Writer writer) {
+		final SpoolingOutputStream content;
+		try {
+			awaitStraggler(getBucketName(namespace), keyLayout.toKey(path));
+			content = capture(namespace, writer);
+		} catch (RuntimeException e) {
+			return Futures.immediateFailedFuture(e.getCause() instanceof IOException ? e.getCause() : e);
+		}
+
+		final long start = uploads.start();
+		ListenableFuture<S3Uploader.Strategy> upload;
+		try {
+			upload = uploader.uploadAsync(getBucketName(namespace), keyLayout.toKey(path), content);
+		} catch (RejectedExecutionException e) {
+			uploads.fail(start, e);
+			content.release();
+			return Futures.immediateFailedFuture(e);
+		}
+
+		// a separate future, cancelling the caller's must not release the buffers while parts still read them
+		final SettableFuture<Void> written = SettableFuture.create();
+		Futures.addCallback(upload, new FutureCallback<S3Uploader.Strategy>() {
+			@Override
+			public void onSuccess(S3Uploader.Strategy strategy) {
+				uploads.stop(start);
+				uploaded();
+				content.release();
+				written.set(null);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				uploads.fail(start, t);
+				content.release();
+				written.setException(t);
+			}
+		});
+
+		return written;
+	}
+
+	@Override
+	public ListenableFuture<InputStream> readAsync(final String namespace, final String[] path) {
+		return blockingCalls.submit(new Callable<InputStream>() {
+			@Override
+			public InputStream call() {
+				return read(namespace, path);
+			}
+		});
+	}
+
+	@Override
+	public ListenableFuture<Void> deleteAsync(final String namespace, final String[] path) {
+		return blockingCalls.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				delete(namespace, path);
+				return null;
+			}
+		});
+	}
+
+	public S3Uploader getUploader() {
+		return uploader;
+	}
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public AdaptiveLimiter getLimiter() {
+		return requests.getLimiter();
+	}
+
+	/**
+	 * Time from the construction of the mapper until its first upload completed, -1 before. Covers the client setup,
+	 * the namespace's bucket probe and the first request's handshakes, which a shared client and the warm-up avoid.
+	 */
+	public double getTimeToFirstUploadMillis() {
+		long nanos = timeToFirstUpload.get();
+		return nanos < 0 ? -1 : nanos / 1e6;
+	}
+
+	/**
+	 * Per-request timers ({@code s3.*}), retries, throttles and the limiter's state, plus the {@code capture} phase
+	 * which runs the writer, the {@code upload} phase which sends the captured content and the gauge
+	 * {@code timeToFirstUploadMillis}. With hedging, {@code hedge.read.*} and {@code hedge.write.*} report how often
+	 * requests were duplicated and how often the duplicate won.
+	 */
+	public Metrics getMetrics() {
+		return requests.getMetrics();
+	}
+
 	private String getBucketName(String entityName){
 		return prefix + "-" + entityName;
 	}
-	
-	private static String toKey(String ... path) {
-		StringBuilder sb = new StringBuilder();
-		for (String string : path) {
-			sb.append("/").append(string);
-		}
-		return sb.toString();
+
+	private boolean readsLegacyKeys() {
+		return legacyKeyFallback && keyLayout != KeyLayout.FLAT;
 	}
 }
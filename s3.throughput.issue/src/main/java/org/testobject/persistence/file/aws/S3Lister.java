@@ -0,0 +1,160 @@
+package org.testobject.persistence.file.aws;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.testobject.commons.metrics.Timer;
+import org.testobject.persistence.file.FileMapper.FileSummary;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Streams the objects below a path prefix page by page. Each key layout names the key prefixes which cover the path
+ * prefix. While several of them have pages left, their next pages are fetched concurrently, so a listing spread over
+ * the hash prefixes of a {@link HashedKeyLayout} takes about as many round trips as its largest prefix has pages. At
+ * most one page per key prefix is buffered, nothing runs in the background between calls of the iterator.
+ */
+public class S3Lister {
+
+	public static final int MAX_KEYS = 1000;
+
+	private final AmazonS3Client client;
+	private final S3Requests requests;
+	private final ExecutorService executor;
+	private final Timer lists;
+
+	public S3Lister(AmazonS3Client client, S3Requests requests, ExecutorService executor) {
+		this.client = client;
+		this.requests = requests;
+		this.executor = executor;
+		this.lists = requests.timer("s3.listObjects");
+	}
+
+	/**
+	 * Lists the objects of the given layouts below the path prefix. Layouts are listed one after the other, a path
+	 * stored under several of them is reported once with the object of the first, which costs a set of all listed
+	 * paths.
+	 */
+	public Iterator<FileSummary> list(final String bucket, final String[] prefix, List<KeyLayout> layouts) {
+		final List<Partition> partitions = new ArrayList<>();
+		for (KeyLayout layout : layouts) {
+			for (String keyPrefix : layout.toKeyPrefixes(prefix)) {
+				partitions.add(new Partition(bucket, keyPrefix, layout));
+			}
+		}
+		final Set<List<String>> seen = layouts.size() > 1 ? new HashSet<List<String>>() : null;
+
+		return new AbstractIterator<FileSummary>() {
+
+			private final Deque<FileSummary> buffer = new ArrayDeque<>();
+
+			@Override
+			protected FileSummary computeNext() {
+				while (buffer.isEmpty()) {
+					if (partitions.isEmpty()) {
+						return endOfData();
+					}
+					for (Partition partition : fetch(partitions)) {
+						for (S3ObjectSummary summary : partition.listing.getObjectSummaries()) {
+							String[] path = partition.layout.toPath(summary.getKey());
+							if (path == null) {
+								continue;
+							}
+							FileSummary file = new FileSummary(path, summary.getSize(), summary.getETag());
+							if (file.isBelow(prefix) && (seen == null || seen.add(Arrays.asList(path)))) {
+								buffer.add(file);
+							}
+						}
+						if (partition.listing.isTruncated() == false) {
+							partitions.remove(partition);
+						}
+					}
+				}
+				return buffer.poll();
+			}
+		};
+	}
+
+	/**
+	 * Fetches the next page of every partition of the first layout left, on the calling thread if there is only one.
+	 */
+	private List<Partition> fetch(List<Partition> partitions) {
+		List<Partition> fetched = new ArrayList<>(partitions.size());
+		for (Partition partition : partitions) {
+			if (partition.layout == partitions.get(0).layout) {
+				fetched.add(partition);
+			}
+		}
+		if (fetched.size() == 1) {
+			fetched.get(0).call();
+			return fetched;
+		}
+
+		List<Future<Partition>> futures = new ArrayList<>(fetched.size());
+		for (Partition partition : fetched) {
+			futures.add(executor.submit(partition));
+		}
+		try {
+			for (Future<Partition> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+		}
+		return fetched;
+	}
+
+	private static void cancel(List<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	private class Partition implements Callable<Partition> {
+
+		final String bucket;
+		final String keyPrefix;
+		final KeyLayout layout;
+		volatile ObjectListing listing;
+
+		Partition(String bucket, String keyPrefix, KeyLayout layout) {
+			this.bucket = bucket;
+			this.keyPrefix = keyPrefix;
+			this.layout = layout;
+		}
+
+		@Override
+		public Partition call() {
+			final ObjectListing previous = listing;
+			listing = requests.execute(lists, new Callable<ObjectListing>() {
+				@Override
+				public ObjectListing call() {
+					if (previous == null) {
+						return client.listObjects(new ListObjectsRequest().withBucketName(bucket).withPrefix(keyPrefix).withMaxKeys(MAX_KEYS));
+					}
+					return client.listNextBatchOfObjects(previous);
+				}
+			});
+			return this;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package org.testobject.persistence.file.aws;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.commons.metrics.Timer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.base.Supplier;
+
+/**
+ * Sends all requests of a mapper through one {@link AdaptiveLimiter}. Throttled requests, server errors and I/O
+ * failures are retried after a full jitter backoff, so the request has to be built inside the callable to be replayed
+ * with fresh content streams. The client itself should not retry, otherwise throttling is hidden from the limiter.
+ * <p>
+ * Each call is timed by the phase timer of its caller, retries included, while {@code s3.attempt} times every single
+ * attempt. Retries, throttled attempts and the limiter's state are reported as {@code s3.*} figures of
+ * {@link #getMetrics()}.
+ * <p>
+ * The connection of a GET is busy until its content is read, so an {@link S3Object} keeps its slot of the limiter
+ * until the content stream is closed or aborted, while the latency seen by the limiter ends with the response headers.
+ * Callers have to close every content stream they get, otherwise the slot is lost along with the connection.
+ */
+public class S3Requests {
+
+	private static final Log log = LogFactory.getLog(S3Requests.class);
+
+	private final AdaptiveLimiter limiter;
+	private final int maxRetries;
+	private final long backoffMillis;
+	private final long maxBackoffMillis;
+
+	private final Metrics metrics = new Metrics();
+	private final Timer attempts = metrics.timer("s3.attempt");
+	private final AtomicLong retries = metrics.counter("s3.retries");
+	private final AtomicLong throttles = metrics.counter("s3.throttles");
+
+	public S3Requests(final AdaptiveLimiter limiter, int maxRetries, long backoffMillis, long maxBackoffMillis) {
+		this.limiter = limiter;
+		this.maxRetries = maxRetries;
+		this.backoffMillis = backoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+
+		metrics.gauge("s3.limit", new Supplier<Integer>() {
+			@Override
+			public Integer get() {
+				return limiter.getLimit();
+			}
+		});
+		metrics.gauge("s3.inFlight", new Supplier<Integer>() {
+			@Override
+			public Integer get() {
+				return limiter.getInFlight();
+			}
+		});
+	}
+
+	/**
+	 * Executes the request, the phase timer (see {@link #timer(String)}) covers all attempts and the backoff between them.
+	 */
+	public <T> T execute(Timer phase, Callable<T> request) {
+		long begin = phase.start();
+		try {
+			T result = execute(request);
+			phase.stop(begin);
+			return result;
+		} catch (RuntimeException e) {
+			phase.fail(begin, e);
+			throw e;
+		}
+	}
+
+	private <T> T execute(Callable<T> request) {
+		for (int attempt = 0;; attempt++) {
+			long start = acquire();
+			long timed = attempts.start();
+			try {
+				T result = request.call();
+				attempts.stop(timed);
+				return succeeded(start, result);
+			} catch (AmazonClientException e) {
+				attempts.fail(timed, e);
+				if (isThrottling(e)) {
+					limiter.onThrottle(start);
+					throttles.incrementAndGet();
+				} else {
+					limiter.onFailure(start);
+				}
+
+				if (attempt >= maxRetries || isRetryable(e) == false) {
+					throw e;
+				}
+				retries.incrementAndGet();
+				backoff(attempt, e);
+			} catch (RuntimeException e) {
+				attempts.fail(timed, e);
+				limiter.onFailure(start);
+				throw e;
+			} catch (Exception e) {
+				attempts.fail(timed, e);
+				limiter.onFailure(start);
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T succeeded(long start, T result) {
+		if (result instanceof S3Object && ((S3Object) result).getObjectContent() != null) {
+			S3Object s3Object = (S3Object) result;
+			limiter.onResponse(start);
+			s3Object.setObjectContent(new ReleasingContent(s3Object.getObjectContent()));
+			return (T) s3Object;
+		}
+
+		limiter.onSuccess(start);
+		return result;
+	}
+
+	/**
+	 * Timer of a request type or phase, callers look it up once and pass it to {@link #execute(Timer, Callable)}.
+	 */
+	public Timer timer(String name) {
+		return metrics.timer(name);
+	}
+
+	public AdaptiveLimiter getLimiter() {
+		return limiter;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	private long acquire() {
+		try {
+			return limiter.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void backoff(int attempt, AmazonClientException cause) {
+		long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt, 20));
+		long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+		if (log.isDebugEnabled()) {
+			log.debug("request failed (" + cause.getMessage() + "), limit is now " + limiter.getLimit() + ", retrying in " + delay + " ms");
+		}
+
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Gives the slot of its request back to the limiter once, on the first close or abort.
+	 */
+	private class ReleasingContent extends S3ObjectInputStream {
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		ReleasingContent(S3ObjectInputStream content) {
+			super(content, content.getHttpRequest());
+		}
+
+		@Override
+		public void abort() throws IOException {
+			try {
+				super.abort();
+			} finally {
+				release();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				release();
+			}
+		}
+
+		private void release() {
+			if (released.compareAndSet(false, true)) {
+				limiter.release();
+			}
+		}
+	}
+
+	static boolean isThrottling(AmazonClientException e) {
+		if (e instanceof AmazonServiceException) {
+			AmazonServiceException service = (AmazonServiceException) e;
+			String code = service.getErrorCode();
+			return service.getStatusCode() == 503 || "SlowDown".equals(code) || "Throttling".equals(code) || "RequestLimitExceeded".equals(code);
+		}
+
+		// the client's own connection pool is exhausted, which calls for fewer concurrent requests just the same
+		return e.getCause() instanceof ConnectionPoolTimeoutException;
+	}
+
+	static boolean isRetryable(AmazonClientException e) {
+		if (e instanceof AmazonServiceException) {
+			return ((AmazonServiceException) e).getStatusCode() >= 500 || isThrottling(e);
+		}
+
+		return e.getCause() instanceof IOException;
+	}
+}
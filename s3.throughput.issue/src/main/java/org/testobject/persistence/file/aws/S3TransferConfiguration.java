@@ -0,0 +1,542 @@
+package org.testobject.persistence.file.aws;
+
+import org.testobject.persistence.file.Batches;
+
+import com.amazonaws.ClientConfiguration;
+
+/**
+ * Tuning knobs of {@link S3FileSystemMapper}, modelled after {@link com.amazonaws.ClientConfiguration}.
+ */
+public class S3TransferConfiguration {
+
+	public static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	public static final long DEFAULT_MULTIPART_THRESHOLD = 16 * 1024 * 1024;
+	public static final long DEFAULT_PART_SIZE = MIN_PART_SIZE;
+	public static final int DEFAULT_PART_PARALLELISM = 8;
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	public static final long DEFAULT_BUFFER_POOL_SIZE = 64 * 1024 * 1024;
+	public static final long DEFAULT_SPOOL_THRESHOLD = 32 * 1024 * 1024;
+	public static final int DEFAULT_DELETE_PARALLELISM = 4;
+	public static final int DEFAULT_LIST_PARALLELISM = 16;
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 64;
+	public static final int DEFAULT_CONNECTION_TIMEOUT = 10 * 1000;
+	public static final int DEFAULT_INITIAL_CONCURRENCY = 16;
+	public static final int DEFAULT_MIN_CONCURRENCY = 1;
+	public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+	public static final int DEFAULT_MAX_RETRIES = 5;
+	public static final long DEFAULT_RETRY_BACKOFF = 100;
+	public static final long DEFAULT_MAX_RETRY_BACKOFF = 10 * 1000;
+	public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+	public static final double DEFAULT_HEDGE_BUDGET = 0.05;
+	public static final long DEFAULT_HEDGE_MIN_DELAY = 10;
+	public static final int DEFAULT_HEDGE_MAX_WRITE_SIZE = 256 * 1024;
+
+	private int threads = Batches.DEFAULT_THREADS;
+	private int blockingCallThreads = Batches.DEFAULT_THREADS;
+	private long multipartThreshold = DEFAULT_MULTIPART_THRESHOLD;
+	private long partSize = DEFAULT_PART_SIZE;
+	private int partParallelism = DEFAULT_PART_PARALLELISM;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private long bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+	private boolean directBuffers = false;
+	private long spoolThreshold = DEFAULT_SPOOL_THRESHOLD;
+	private int deleteParallelism = DEFAULT_DELETE_PARALLELISM;
+	private int listParallelism = DEFAULT_LIST_PARALLELISM;
+	private ClientConfiguration clientConfiguration = new ClientConfiguration()
+			.withMaxConnections(DEFAULT_MAX_CONNECTIONS)
+			.withConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT)
+			.withMaxErrorRetry(0);
+	private int initialConcurrency = DEFAULT_INITIAL_CONCURRENCY;
+	private int minConcurrency = DEFAULT_MIN_CONCURRENCY;
+	private int maxConcurrency = DEFAULT_MAX_CONNECTIONS;
+	private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private long retryBackoff = DEFAULT_RETRY_BACKOFF;
+	private long maxRetryBackoff = DEFAULT_MAX_RETRY_BACKOFF;
+	private KeyLayout keyLayout = KeyLayout.FLAT;
+	private boolean legacyKeyFallback = false;
+	private boolean sharedClient = true;
+	private int warmUpConnections = 0;
+	private boolean hedgeReads = false;
+	private boolean hedgeWrites = false;
+	private double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+	private double hedgeBudget = DEFAULT_HEDGE_BUDGET;
+	private long hedgeMinDelay = DEFAULT_HEDGE_MIN_DELAY;
+	private int hedgeMaxWriteSize = DEFAULT_HEDGE_MAX_WRITE_SIZE;
+
+	/**
+	 * Size of the worker pool used by {@link S3FileSystemMapper#writeAll}.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public S3TransferConfiguration withThreads(int threads) {
+		setThreads(threads);
+		return this;
+	}
+
+	/**
+	 * Size of the pool which runs the calls of {@link org.testobject.persistence.file.AsyncFileMapper} the SDK can only
+	 * make blocking: reads, deletes and namespace calls. At most this many of them block a thread at once, further
+	 * calls queue.
+	 */
+	public int getBlockingCallThreads() {
+		return blockingCallThreads;
+	}
+
+	public void setBlockingCallThreads(int blockingCallThreads) {
+		this.blockingCallThreads = blockingCallThreads;
+	}
+
+	public S3TransferConfiguration withBlockingCallThreads(int blockingCallThreads) {
+		setBlockingCallThreads(blockingCallThreads);
+		return this;
+	}
+
+	/**
+	 * Objects smaller than this many bytes are sent with a single PUT, larger ones as a multipart upload.
+	 */
+	public long getMultipartThreshold() {
+		return multipartThreshold;
+	}
+
+	public void setMultipartThreshold(long multipartThreshold) {
+		this.multipartThreshold = multipartThreshold;
+	}
+
+	public S3TransferConfiguration withMultipartThreshold(long multipartThreshold) {
+		setMultipartThreshold(multipartThreshold);
+		return this;
+	}
+
+	/**
+	 * Size of a single multipart part, S3 requires at least {@link #MIN_PART_SIZE} for all but the last part.
+	 */
+	public long getPartSize() {
+		return partSize;
+	}
+
+	public void setPartSize(long partSize) {
+		this.partSize = partSize;
+	}
+
+	public S3TransferConfiguration withPartSize(long partSize) {
+		setPartSize(partSize);
+		return this;
+	}
+
+	/**
+	 * Number of parts which are uploaded concurrently, shared by all multipart uploads of a mapper.
+	 */
+	public int getPartParallelism() {
+		return partParallelism;
+	}
+
+	public void setPartParallelism(int partParallelism) {
+		this.partParallelism = partParallelism;
+	}
+
+	public S3TransferConfiguration withPartParallelism(int partParallelism) {
+		setPartParallelism(partParallelism);
+		return this;
+	}
+
+	/**
+	 * Size of a single pooled buffer which captures the output of a {@link org.testobject.persistence.file.FileMapper.Writer}.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public S3TransferConfiguration withBufferSize(int bufferSize) {
+		setBufferSize(bufferSize);
+		return this;
+	}
+
+	/**
+	 * Upper bound of bytes kept by idle buffers in the pool.
+	 */
+	public long getBufferPoolSize() {
+		return bufferPoolSize;
+	}
+
+	public void setBufferPoolSize(long bufferPoolSize) {
+		this.bufferPoolSize = bufferPoolSize;
+	}
+
+	public S3TransferConfiguration withBufferPoolSize(long bufferPoolSize) {
+		setBufferPoolSize(bufferPoolSize);
+		return this;
+	}
+
+	/**
+	 * Whether pooled buffers are allocated outside of the java heap.
+	 */
+	public boolean isDirectBuffers() {
+		return directBuffers;
+	}
+
+	public void setDirectBuffers(boolean directBuffers) {
+		this.directBuffers = directBuffers;
+	}
+
+	public S3TransferConfiguration withDirectBuffers(boolean directBuffers) {
+		setDirectBuffers(directBuffers);
+		return this;
+	}
+
+	/**
+	 * Objects larger than this many bytes are spooled to a file in the work folder instead of being held in memory.
+	 */
+	public long getSpoolThreshold() {
+		return spoolThreshold;
+	}
+
+	public void setSpoolThreshold(long spoolThreshold) {
+		this.spoolThreshold = spoolThreshold;
+	}
+
+	public S3TransferConfiguration withSpoolThreshold(long spoolThreshold) {
+		setSpoolThreshold(spoolThreshold);
+		return this;
+	}
+
+	/**
+	 * Number of multi-object delete requests which are in flight while a namespace is emptied.
+	 */
+	public int getDeleteParallelism() {
+		return deleteParallelism;
+	}
+
+	public void setDeleteParallelism(int deleteParallelism) {
+		this.deleteParallelism = deleteParallelism;
+	}
+
+	public S3TransferConfiguration withDeleteParallelism(int deleteParallelism) {
+		setDeleteParallelism(deleteParallelism);
+		return this;
+	}
+
+	/**
+	 * Number of list requests in flight while a listing covers several key prefixes.
+	 */
+	public int getListParallelism() {
+		return listParallelism;
+	}
+
+	public void setListParallelism(int listParallelism) {
+		this.listParallelism = listParallelism;
+	}
+
+	public S3TransferConfiguration withListParallelism(int listParallelism) {
+		setListParallelism(listParallelism);
+		return this;
+	}
+
+	/**
+	 * Connection pool, timeouts and protocol of the underlying client. Its own retries are disabled by default
+	 * since {@link S3Requests} retries with jitter and needs to see throttling to adapt the concurrency.
+	 */
+	public ClientConfiguration getClientConfiguration() {
+		return clientConfiguration;
+	}
+
+	public void setClientConfiguration(ClientConfiguration clientConfiguration) {
+		this.clientConfiguration = clientConfiguration;
+	}
+
+	public S3TransferConfiguration withClientConfiguration(ClientConfiguration clientConfiguration) {
+		setClientConfiguration(clientConfiguration);
+		return this;
+	}
+
+	/**
+	 * Number of requests allowed in flight before the limiter adapted to the observed latency and throttling.
+	 */
+	public int getInitialConcurrency() {
+		return initialConcurrency;
+	}
+
+	public void setInitialConcurrency(int initialConcurrency) {
+		this.initialConcurrency = initialConcurrency;
+	}
+
+	public S3TransferConfiguration withInitialConcurrency(int initialConcurrency) {
+		setInitialConcurrency(initialConcurrency);
+		return this;
+	}
+
+	/**
+	 * Lower bound the limiter never backs off below.
+	 */
+	public int getMinConcurrency() {
+		return minConcurrency;
+	}
+
+	public void setMinConcurrency(int minConcurrency) {
+		this.minConcurrency = minConcurrency;
+	}
+
+	public S3TransferConfiguration withMinConcurrency(int minConcurrency) {
+		setMinConcurrency(minConcurrency);
+		return this;
+	}
+
+	/**
+	 * Upper bound the limiter never grows beyond, capped by the connections of the {@link #getClientConfiguration()
+	 * client configuration}.
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	public S3TransferConfiguration withMaxConcurrency(int maxConcurrency) {
+		setMaxConcurrency(maxConcurrency);
+		return this;
+	}
+
+	/**
+	 * Requests slower than this multiple of the smoothed latency do not raise the limit.
+	 */
+	public double getLatencyTolerance() {
+		return latencyTolerance;
+	}
+
+	public void setLatencyTolerance(double latencyTolerance) {
+		this.latencyTolerance = latencyTolerance;
+	}
+
+	public S3TransferConfiguration withLatencyTolerance(double latencyTolerance) {
+		setLatencyTolerance(latencyTolerance);
+		return this;
+	}
+
+	/**
+	 * Number of retries of a throttled or failed request before the error is propagated.
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public S3TransferConfiguration withMaxRetries(int maxRetries) {
+		setMaxRetries(maxRetries);
+		return this;
+	}
+
+	/**
+	 * Base of the exponential backoff between retries in milliseconds, the actual delay is drawn at random below it.
+	 */
+	public long getRetryBackoff() {
+		return retryBackoff;
+	}
+
+	public void setRetryBackoff(long retryBackoff) {
+		this.retryBackoff = retryBackoff;
+	}
+
+	public S3TransferConfiguration withRetryBackoff(long retryBackoff) {
+		setRetryBackoff(retryBackoff);
+		return this;
+	}
+
+	/**
+	 * Upper bound of the backoff between retries in milliseconds.
+	 */
+	public long getMaxRetryBackoff() {
+		return maxRetryBackoff;
+	}
+
+	public void setMaxRetryBackoff(long maxRetryBackoff) {
+		this.maxRetryBackoff = maxRetryBackoff;
+	}
+
+	public S3TransferConfiguration withMaxRetryBackoff(long maxRetryBackoff) {
+		setMaxRetryBackoff(maxRetryBackoff);
+		return this;
+	}
+
+	/**
+	 * Maps logical paths to object keys, {@link KeyLayout#FLAT} keeps the layout of existing buckets.
+	 */
+	public KeyLayout getKeyLayout() {
+		return keyLayout;
+	}
+
+	public void setKeyLayout(KeyLayout keyLayout) {
+		this.keyLayout = keyLayout;
+	}
+
+	public S3TransferConfiguration withKeyLayout(KeyLayout keyLayout) {
+		setKeyLayout(keyLayout);
+		return this;
+	}
+
+	/**
+	 * Compatibility mode for buckets written with the flat layout: reads fall back to the flat key if the object is
+	 * missing under the configured layout, deletes remove both keys.
+	 */
+	public boolean isLegacyKeyFallback() {
+		return legacyKeyFallback;
+	}
+
+	public void setLegacyKeyFallback(boolean legacyKeyFallback) {
+		this.legacyKeyFallback = legacyKeyFallback;
+	}
+
+	public S3TransferConfiguration withLegacyKeyFallback(boolean legacyKeyFallback) {
+		setLegacyKeyFallback(legacyKeyFallback);
+		return this;
+	}
+
+	/**
+	 * Whether the mapper uses the process-wide client of its credentials and client configuration, see
+	 * {@link SharedS3Client}, rather than a client of its own.
+	 */
+	public boolean isSharedClient() {
+		return sharedClient;
+	}
+
+	public void setSharedClient(boolean sharedClient) {
+		this.sharedClient = sharedClient;
+	}
+
+	public S3TransferConfiguration withSharedClient(boolean sharedClient) {
+		setSharedClient(sharedClient);
+		return this;
+	}
+
+	/**
+	 * Number of connections opened in the background when a namespace is created, so that the first uploads do not
+	 * pay the handshakes. 0 disables the warm-up.
+	 */
+	public int getWarmUpConnections() {
+		return warmUpConnections;
+	}
+
+	public void setWarmUpConnections(int warmUpConnections) {
+		this.warmUpConnections = warmUpConnections;
+	}
+
+	public S3TransferConfiguration withWarmUpConnections(int warmUpConnections) {
+		setWarmUpConnections(warmUpConnections);
+		return this;
+	}
+
+	/**
+	 * Whether object GETs which take longer than the {@link #getHedgePercentile() hedge percentile} are sent a second
+	 * time, the first response wins.
+	 */
+	public boolean isHedgeReads() {
+		return hedgeReads;
+	}
+
+	public void setHedgeReads(boolean hedgeReads) {
+		this.hedgeReads = hedgeReads;
+	}
+
+	public S3TransferConfiguration withHedgeReads(boolean hedgeReads) {
+		setHedgeReads(hedgeReads);
+		return this;
+	}
+
+	/**
+	 * Like {@link #isHedgeReads()} for PUTs of up to {@link #getHedgeMaxWriteSize()} bytes. A later write or delete of
+	 * the same path waits for the losing PUT of an earlier hedged write, so that it cannot overwrite newer content.
+	 */
+	public boolean isHedgeWrites() {
+		return hedgeWrites;
+	}
+
+	public void setHedgeWrites(boolean hedgeWrites) {
+		this.hedgeWrites = hedgeWrites;
+	}
+
+	public S3TransferConfiguration withHedgeWrites(boolean hedgeWrites) {
+		setHedgeWrites(hedgeWrites);
+		return this;
+	}
+
+	/**
+	 * Percentile of the observed latencies after which a request is hedged.
+	 */
+	public double getHedgePercentile() {
+		return hedgePercentile;
+	}
+
+	public void setHedgePercentile(double hedgePercentile) {
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	public S3TransferConfiguration withHedgePercentile(double hedgePercentile) {
+		setHedgePercentile(hedgePercentile);
+		return this;
+	}
+
+	/**
+	 * Share of requests which may be duplicated, on top of a burst of 10.
+	 */
+	public double getHedgeBudget() {
+		return hedgeBudget;
+	}
+
+	public void setHedgeBudget(double hedgeBudget) {
+		this.hedgeBudget = hedgeBudget;
+	}
+
+	public S3TransferConfiguration withHedgeBudget(double hedgeBudget) {
+		setHedgeBudget(hedgeBudget);
+		return this;
+	}
+
+	/**
+	 * Lower bound of the hedge delay in milliseconds, keeps fast backends from being hedged on noise.
+	 */
+	public long getHedgeMinDelay() {
+		return hedgeMinDelay;
+	}
+
+	public void setHedgeMinDelay(long hedgeMinDelay) {
+		this.hedgeMinDelay = hedgeMinDelay;
+	}
+
+	public S3TransferConfiguration withHedgeMinDelay(long hedgeMinDelay) {
+		setHedgeMinDelay(hedgeMinDelay);
+		return this;
+	}
+
+	/**
+	 * Largest write which is hedged, the content is copied for the duplicate.
+	 */
+	public int getHedgeMaxWriteSize() {
+		return hedgeMaxWriteSize;
+	}
+
+	public void setHedgeMaxWriteSize(int hedgeMaxWriteSize) {
+		this.hedgeMaxWriteSize = hedgeMaxWriteSize;
+	}
+
+	public S3TransferConfiguration withHedgeMaxWriteSize(int hedgeMaxWriteSize) {
+		setHedgeMaxWriteSize(hedgeMaxWriteSize);
+		return this;
+	}
+}
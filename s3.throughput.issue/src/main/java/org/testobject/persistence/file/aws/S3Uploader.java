@@ -0,0 +1,314 @@
+package org.testobject.persistence.file.aws;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.testobject.commons.io.SpoolingOutputStream;
+import org.testobject.commons.metrics.Timer;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Picks the upload strategy by content length: a single PUT below the multipart threshold, otherwise a multipart
+ * upload whose parts are sent concurrently.
+ */
+public class S3Uploader {
+
+	private static final Log log = LogFactory.getLog(S3Uploader.class);
+
+	public enum Strategy {
+		SINGLE_PUT, MULTIPART
+	}
+
+	private final AmazonS3Client client;
+	private final S3Requests requests;
+	private final S3TransferConfiguration configuration;
+	private final ListeningExecutorService partExecutor;
+
+	private final Timer puts;
+	private final Timer initiates;
+	private final Timer partUploads;
+	private final Timer completes;
+	private final Timer aborts;
+
+	private final AtomicLong singlePuts = new AtomicLong();
+	private final AtomicLong multipartUploads = new AtomicLong();
+	private final AtomicLong parts = new AtomicLong();
+
+	public S3Uploader(AmazonS3Client client, S3Requests requests, S3TransferConfiguration configuration, ExecutorService partExecutor) {
+		Preconditions.checkArgument(configuration.getPartSize() >= S3TransferConfiguration.MIN_PART_SIZE, "part size must be at least "
+				+ S3TransferConfiguration.MIN_PART_SIZE + " bytes");
+		this.client = client;
+		this.requests = requests;
+		this.configuration = configuration;
+		this.partExecutor = MoreExecutors.listeningDecorator(partExecutor);
+		this.puts = requests.timer("s3.put");
+		this.initiates = requests.timer("s3.initiateMultipart");
+		this.partUploads = requests.timer("s3.uploadPart");
+		this.completes = requests.timer("s3.completeMultipart");
+		this.aborts = requests.timer("s3.abortMultipart");
+	}
+
+	/**
+	 * Uploads the captured content straight from memory, or from its spool file if it grew beyond the spool threshold.
+	 */
+	public Strategy upload(String bucket, String key, SpoolingOutputStream content) {
+		long contentLength = content.size();
+		Strategy strategy = contentLength < configuration.getMultipartThreshold() ? Strategy.SINGLE_PUT : Strategy.MULTIPART;
+
+		if (strategy == Strategy.SINGLE_PUT) {
+			putObject(bucket, key, content);
+			singlePuts.incrementAndGet();
+		} else {
+			uploadMultipart(bucket, key, content, contentLength);
+			multipartUploads.incrementAndGet();
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("uploaded '" + key + "' (" + contentLength + " bytes) to bucket '" + bucket + "' using " + strategy);
+		}
+
+		return strategy;
+	}
+
+	private void putObject(final String bucket, final String key, final SpoolingOutputStream content) {
+		requests.execute(puts, new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				if (content.isSpooled()) {
+					client.putObject(new PutObjectRequest(bucket, key, content.getSpoolFile()));
+					return null;
+				}
+
+				ObjectMetadata metadata = new ObjectMetadata();
+				metadata.setContentLength(content.size());
+				try (InputStream in = content.openStream()) {
+					client.putObject(new PutObjectRequest(bucket, key, in, metadata));
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Uploads content which was copied off the pooled buffers with a single PUT, for callers which may still be sending
+	 * it after the buffers were released.
+	 */
+	public void put(final String bucket, final String key, final byte[] content) {
+		requests.execute(puts, new Callable<Void>() {
+			@Override
+			public Void call() {
+				ObjectMetadata metadata = new ObjectMetadata();
+				metadata.setContentLength(content.length);
+				client.putObject(new PutObjectRequest(bucket, key, new ByteArrayInputStream(content), metadata));
+				return null;
+			}
+		});
+		singlePuts.incrementAndGet();
+	}
+
+	private UploadPartRequest toPartRequest(SpoolingOutputStream content, long position, long partSize) throws IOException {
+		UploadPartRequest request = new UploadPartRequest().withPartSize(partSize);
+		if (content.isSpooled()) {
+			return request.withFile(content.getSpoolFile()).withFileOffset(position);
+		} else {
+			return request.withInputStream(content.openStream(position, partSize));
+		}
+	}
+
+	/**
+	 * Uploads without blocking the calling thread, multipart stages are chained on the part executor so that no thread
+	 * waits for the parts of an upload. The content must not be released before the returned future completed.
+	 */
+	public ListenableFuture<Strategy> uploadAsync(final String bucket, final String key, final SpoolingOutputStream content) {
+		if (content.size() < configuration.getMultipartThreshold()) {
+			return partExecutor.submit(new Callable<Strategy>() {
+				@Override
+				public Strategy call() {
+					putObject(bucket, key, content);
+					singlePuts.incrementAndGet();
+					return Strategy.SINGLE_PUT;
+				}
+			});
+		}
+
+		return Futures.transform(uploadMultipartAsync(bucket, key, content, content.size()), new Function<Void, Strategy>() {
+			@Override
+			public Strategy apply(Void input) {
+				multipartUploads.incrementAndGet();
+				return Strategy.MULTIPART;
+			}
+		});
+	}
+
+	private void uploadMultipart(String bucket, String key, SpoolingOutputStream content, long contentLength) {
+		Futures.getUnchecked(uploadMultipartAsync(bucket, key, content, contentLength));
+	}
+
+	/**
+	 * The returned future completes once no part task reads the content anymore. A failed part stops the parts which did
+	 * not start yet, the upload is aborted and failed only after the running parts returned.
+	 */
+	private ListenableFuture<Void> uploadMultipartAsync(final String bucket, final String key, final SpoolingOutputStream content, final long contentLength) {
+		final SettableFuture<Void> completed = SettableFuture.create();
+		ListenableFuture<String> uploadId = partExecutor.submit(new Callable<String>() {
+			@Override
+			public String call() {
+				return requests.execute(initiates, new Callable<String>() {
+					@Override
+					public String call() {
+						return client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+					}
+				});
+			}
+		});
+
+		Futures.addCallback(uploadId, new FutureCallback<String>() {
+			@Override
+			public void onSuccess(String uploadId) {
+				uploadParts(bucket, key, uploadId, content, contentLength, completed);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				completed.setException(t);
+			}
+		});
+
+		return completed;
+	}
+
+	private void uploadParts(final String bucket, final String key, final String uploadId, final SpoolingOutputStream content, long contentLength,
+			final SettableFuture<Void> completed) {
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<ListenableFuture<PartETag>> futures = new ArrayList<>();
+		long position = 0;
+		for (int i = 1; position < contentLength; i++) {
+			// last part can be smaller than the configured part size
+			final long partSize = Math.min(configuration.getPartSize(), contentLength - position);
+			final long partPosition = position;
+			final int partNumber = i;
+
+			// completed by the part task itself, so that a done part no longer reads the content
+			final SettableFuture<PartETag> part = SettableFuture.create();
+			futures.add(part);
+			try {
+				partExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (failure.get() != null) {
+							part.cancel(false);
+							return;
+						}
+						try {
+							part.set(requests.execute(partUploads, new Callable<PartETag>() {
+								@Override
+								public PartETag call() throws IOException {
+									UploadPartRequest request = toPartRequest(content, partPosition, partSize)
+											.withBucketName(bucket).withKey(key)
+											.withUploadId(uploadId).withPartNumber(partNumber);
+									return client.uploadPart(request).getPartETag();
+								}
+							}));
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+							part.setException(t);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				failure.compareAndSet(null, e);
+				part.setException(e);
+				break;
+			}
+
+			position += partSize;
+		}
+
+		Futures.addCallback(Futures.successfulAsList(futures), new FutureCallback<List<PartETag>>() {
+			@Override
+			public void onSuccess(List<PartETag> partETags) {
+				Throwable t = failure.get();
+				if (t == null) {
+					try {
+						complete(bucket, key, uploadId, partETags);
+						parts.addAndGet(partETags.size());
+						completed.set(null);
+						return;
+					} catch (RuntimeException e) {
+						t = e;
+					}
+				}
+				abort(bucket, key, uploadId);
+				completed.setException(t);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				abort(bucket, key, uploadId);
+				completed.setException(t);
+			}
+		});
+	}
+
+	private void complete(final String bucket, final String key, final String uploadId, final List<PartETag> partETags) {
+		requests.execute(completes, new Callable<Void>() {
+			@Override
+			public Void call() {
+				client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags));
+				return null;
+			}
+		});
+	}
+
+	private void abort(final String bucket, final String key, final String uploadId) {
+		try {
+			requests.execute(aborts, new Callable<Void>() {
+				@Override
+				public Void call() {
+					client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+					return null;
+				}
+			});
+		} catch (RuntimeException e) {
+			log.warn("cannot abort multipart upload of '" + key + "' in bucket '" + bucket + "'", e);
+		}
+	}
+
+	public long getSinglePutCount() {
+		return singlePuts.get();
+	}
+
+	public long getMultipartUploadCount() {
+		return multipartUploads.get();
+	}
+
+	public long getPartCount() {
+		return parts.get();
+	}
+}
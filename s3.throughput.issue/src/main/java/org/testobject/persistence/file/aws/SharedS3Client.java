@@ -0,0 +1,86 @@
+package org.testobject.persistence.file.aws;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+
+/**
+ * An {@link AmazonS3Client} together with what is known about its buckets, shared process-wide by all mappers of the
+ * same credentials and client configuration. Short-lived workers thereby reuse the client's pooled connections and
+ * skip the bucket probe of {@code createNamespace} once any mapper of the process saw the bucket. The client is not
+ * bound to a region, the region only matters when a bucket is created.
+ * <p>
+ * Known buckets are assumed to exist until they are deleted through a mapper of the process.
+ */
+public class SharedS3Client {
+
+	private static final Map<List<Object>, SharedS3Client> clients = new HashMap<>();
+
+	private final AmazonS3Client client;
+	private final ConcurrentMap<String, String> bucketLocations = new ConcurrentHashMap<>();
+	private final Set<String> warmBuckets = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private SharedS3Client(String accessKey, String secretKey, ClientConfiguration configuration) {
+		this.client = new AmazonS3Client(new BasicAWSCredentials(accessKey, secretKey), configuration);
+	}
+
+	/**
+	 * The client of the given credentials and configuration, created on first use. Configurations are compared by
+	 * value since every {@link S3TransferConfiguration} carries its own instance.
+	 */
+	public static synchronized SharedS3Client get(String accessKey, String secretKey, ClientConfiguration configuration) {
+		List<Object> key = Arrays.<Object> asList(accessKey, secretKey, configuration.getProtocol(), configuration.getMaxConnections(),
+				configuration.getUserAgent(), configuration.getProxyHost(), configuration.getProxyPort(), configuration.getProxyUsername(),
+				configuration.getProxyPassword(), configuration.getProxyDomain(), configuration.getProxyWorkstation(), configuration.getMaxErrorRetry(),
+				configuration.getSocketTimeout(), configuration.getConnectionTimeout(), Arrays.toString(configuration.getSocketBufferSizeHints()));
+		SharedS3Client shared = clients.get(key);
+		if (shared == null) {
+			shared = new SharedS3Client(accessKey, secretKey, configuration);
+			clients.put(key, shared);
+		}
+		return shared;
+	}
+
+	/**
+	 * A client of its own which is not registered for sharing.
+	 */
+	public static SharedS3Client create(String accessKey, String secretKey, ClientConfiguration configuration) {
+		return new SharedS3Client(accessKey, secretKey, configuration);
+	}
+
+	public AmazonS3Client getClient() {
+		return client;
+	}
+
+	/**
+	 * Location of a bucket known to exist, {@code null} if it was not seen yet.
+	 */
+	public String getBucketLocation(String bucket) {
+		return bucketLocations.get(bucket);
+	}
+
+	void putBucketLocation(String bucket, String location) {
+		bucketLocations.put(bucket, location);
+	}
+
+	void forgetBucket(String bucket) {
+		bucketLocations.remove(bucket);
+		warmBuckets.remove(bucket);
+	}
+
+	/**
+	 * Claims the warm-up of the bucket's connections, true for the first caller only.
+	 */
+	boolean claimWarmUp(String bucket) {
+		return warmBuckets.add(bucket);
+	}
+}
@@ -0,0 +1,170 @@
+package org.testobject.persistence.file.bundle;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.testobject.persistence.file.FileMapper;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Packs many small entries into a single object of the underlying {@link FileMapper}. The object starts with an index
+ * of entry lengths followed by the concatenated entries, so a single entry can be fetched with two ranged reads (one
+ * for the index, which callers should cache, and one for the entry itself).
+ *
+ * Every write draws a random generation which precedes each entry as well. A ranged read checks it against the
+ * generation of the index, so an index cached before another process rewrote the bundle fails with
+ * {@link StaleIndexException} instead of returning bytes at stale offsets.
+ *
+ * <pre>
+ * int magic, long generation, int count, int[count] lengths, (long generation, byte[] entry)[count]
+ * </pre>
+ */
+public final class Bundle {
+
+	private static final int MAGIC = 0x544f4232; // 'TOB2'
+	private static final int HEADER_SIZE = 16;
+	private static final int STAMP_SIZE = 8;
+
+	/**
+	 * Index lengths of bundles up to this many entries are fetched with the first ranged read.
+	 */
+	private static final int PREFETCH_ENTRIES = 1020;
+
+	private Bundle() {
+	}
+
+	/**
+	 * Thrown by {@link Bundle#read(FileMapper, String, String[], Index, int)} if the bundle was rewritten since its
+	 * index was read.
+	 */
+	public static class StaleIndexException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		StaleIndexException(String message) {
+			super(message);
+		}
+	}
+
+	public static class Index {
+
+		private final long generation;
+		private final long[] offsets;
+		private final int[] lengths;
+
+		Index(long generation, int[] lengths) {
+			this.generation = generation;
+			this.lengths = lengths;
+			this.offsets = new long[lengths.length];
+			long offset = headerSize(lengths.length);
+			for (int i = 0; i < lengths.length; i++) {
+				offsets[i] = offset + STAMP_SIZE;
+				offset += STAMP_SIZE + lengths[i];
+			}
+		}
+
+		public long generation() {
+			return generation;
+		}
+
+		public int size() {
+			return lengths.length;
+		}
+
+		public long offset(int entry) {
+			return offsets[entry];
+		}
+
+		public int length(int entry) {
+			return lengths[entry];
+		}
+	}
+
+	public static void write(FileMapper mapper, String namespace, String[] path, final List<byte[]> entries) {
+		final long generation = ThreadLocalRandom.current().nextLong();
+		mapper.write(namespace, path, new FileMapper.Writer() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				DataOutputStream data = new DataOutputStream(out);
+				data.writeInt(MAGIC);
+				data.writeLong(generation);
+				data.writeInt(entries.size());
+				for (byte[] entry : entries) {
+					data.writeInt(entry.length);
+				}
+				for (byte[] entry : entries) {
+					data.writeLong(generation);
+					data.write(entry);
+				}
+				data.flush();
+			}
+		});
+	}
+
+	public static Index readIndex(FileMapper mapper, String namespace, String[] path) throws IOException {
+		try (DataInputStream in = new DataInputStream(mapper.read(namespace, path, 0, headerSize(PREFETCH_ENTRIES)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("object at '" + toString(path) + "' is not a bundle");
+			}
+
+			long generation = in.readLong();
+			int[] lengths = new int[in.readInt()];
+			int prefetched = Math.min(lengths.length, PREFETCH_ENTRIES);
+			for (int i = 0; i < prefetched; i++) {
+				lengths[i] = in.readInt();
+			}
+
+			if (prefetched < lengths.length) {
+				long offset = headerSize(prefetched);
+				try (DataInputStream rest = new DataInputStream(mapper.read(namespace, path, offset, headerSize(lengths.length) - offset))) {
+					for (int i = prefetched; i < lengths.length; i++) {
+						lengths[i] = rest.readInt();
+					}
+				}
+			}
+
+			return new Index(generation, lengths);
+		} catch (EOFException e) {
+			throw new IOException("bundle at '" + toString(path) + "' is truncated", e);
+		}
+	}
+
+	/**
+	 * Reads the entry together with the generation preceding it, so even an empty entry takes a non-empty range.
+	 */
+	public static InputStream read(FileMapper mapper, String namespace, String[] path, Index index, int entry) throws IOException {
+		Preconditions.checkElementIndex(entry, index.size(), "entry");
+		DataInputStream in = new DataInputStream(mapper.read(namespace, path, index.offset(entry) - STAMP_SIZE, STAMP_SIZE + index.length(entry)));
+		try {
+			if (in.readLong() != index.generation()) {
+				throw new StaleIndexException("bundle at '" + toString(path) + "' was rewritten since its index was read");
+			}
+			return in;
+		} catch (EOFException e) {
+			in.close();
+			throw new StaleIndexException("bundle at '" + toString(path) + "' is shorter than its index");
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	private static long headerSize(int entries) {
+		return HEADER_SIZE + 4L * entries;
+	}
+
+	private static String toString(String[] path) {
+		StringBuilder sb = new StringBuilder();
+		for (String string : path) {
+			sb.append("/").append(string);
+		}
+		return sb.toString();
+	}
+}
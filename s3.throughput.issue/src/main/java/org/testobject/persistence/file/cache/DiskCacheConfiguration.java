@@ -0,0 +1,76 @@
+package org.testobject.persistence.file.cache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning knobs of {@link DiskCachingFileMapper}.
+ */
+public class DiskCacheConfiguration {
+
+	public enum Eviction {
+		/**
+		 * Evicts the entries read least recently.
+		 */
+		LRU,
+
+		/**
+		 * Evicts the entries read least often, ties go to the least recently read. Read counts are halved on every
+		 * eviction so that formerly popular entries eventually age out.
+		 */
+		LFU
+	}
+
+	public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+	public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private Eviction eviction = Eviction.LRU;
+	private long ttlMillis = DEFAULT_TTL_MILLIS;
+
+	/**
+	 * Size cap of the cached content, once exceeded entries are evicted until a tenth of it is free again.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public DiskCacheConfiguration withMaxBytes(long maxBytes) {
+		setMaxBytes(maxBytes);
+		return this;
+	}
+
+	public Eviction getEviction() {
+		return eviction;
+	}
+
+	public void setEviction(Eviction eviction) {
+		this.eviction = eviction;
+	}
+
+	public DiskCacheConfiguration withEviction(Eviction eviction) {
+		setEviction(eviction);
+		return this;
+	}
+
+	/**
+	 * How long an entry is served without asking the wrapped mapper. An older entry is revalidated by tag if the mapper
+	 * is a {@link org.testobject.persistence.file.ConditionalFileMapper} and downloaded again otherwise. 0 revalidates
+	 * on every read, {@link Long#MAX_VALUE} trusts entries until they are evicted or overwritten through the cache.
+	 */
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public void setTtlMillis(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	public DiskCacheConfiguration withTtlMillis(long ttlMillis) {
+		setTtlMillis(ttlMillis);
+		return this;
+	}
+}
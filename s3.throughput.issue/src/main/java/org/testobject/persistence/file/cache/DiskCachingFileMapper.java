@@ -0,0 +1,540 @@
+package org.testobject.persistence.file.cache;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testobject.commons.file.FileUtil;
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.persistence.file.ConditionalFileMapper;
+import org.testobject.persistence.file.ConditionalFileMapper.ConditionalRead;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.ForwardingFileMapper;
+import org.testobject.persistence.file.cache.DiskCacheConfiguration.Eviction;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.io.LimitInputStream;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Read-through {@link FileMapper} decorator which keeps whole files on local disk in
+ * {@code <application.work.folder>/org.testobject.runtime.persistence.cache}, in front of a remote mapper such as
+ * {@code S3FileSystemMapper}. Entries are served without asking the wrapped mapper for the configured time to live, then
+ * revalidated by tag if the mapper is a {@link ConditionalFileMapper} and downloaded again otherwise. Concurrent reads
+ * of a missing or expired file share one download. Writes and deletes go through to the wrapped mapper and drop the
+ * cached copy, which assumes that files are only changed through this decorator or that the time to live bounds the
+ * staleness.
+ * <p>
+ * Range reads are served from a cached file but do not populate the cache. The index lives in memory, the folder is
+ * cleared on construction and must not be shared with another instance.
+ */
+public class DiskCachingFileMapper extends ForwardingFileMapper {
+
+	public static final String CACHE_FOLDER = "org.testobject.runtime.persistence.cache";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long WHOLE_FILE = -1;
+
+	private static final Comparator<Entry> BY_READS = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			return Integer.compare(a.reads, b.reads);
+		}
+	};
+
+	private static class Entry {
+
+		final String key;
+		final File file;
+		final long size;
+		final String etag;
+		volatile long validatedAt;
+		// guarded by the cache's lock
+		int reads;
+
+		Entry(String key, File file, long size, String etag) {
+			this.key = key;
+			this.file = file;
+			this.size = size;
+			this.etag = etag;
+			this.validatedAt = System.nanoTime();
+		}
+	}
+
+	private final File folder;
+	private final long maxBytes;
+	private final Eviction eviction;
+	private final long ttlNanos;
+
+	private final Object lock = new Object();
+	// in access order, the head is the least recently read entry
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, SettableFuture<Entry>> loading = new HashMap<>();
+	private long bytes;
+	private final AtomicLong files = new AtomicLong();
+
+	private final Metrics metrics = new Metrics();
+	private final AtomicLong reads = metrics.counter("cache.reads");
+	private final AtomicLong hits = metrics.counter("cache.hits");
+	private final AtomicLong misses = metrics.counter("cache.misses");
+	private final AtomicLong coalesced = metrics.counter("cache.coalesced");
+	private final AtomicLong revalidations = metrics.counter("cache.revalidations");
+	private final AtomicLong notModified = metrics.counter("cache.notModified");
+	private final AtomicLong evictions = metrics.counter("cache.evictions");
+	private final AtomicLong bytesServed = metrics.counter("cache.bytesServed");
+	private final AtomicLong bytesFetched = metrics.counter("cache.bytesFetched");
+
+	public DiskCachingFileMapper(FileMapper delegate, String workFolder) {
+		this(delegate, workFolder, new DiskCacheConfiguration());
+	}
+
+	public DiskCachingFileMapper(FileMapper delegate, String workFolder, DiskCacheConfiguration configuration) {
+		super(delegate);
+		Preconditions.checkArgument(configuration.getMaxBytes() > 0 && configuration.getTtlMillis() >= 0, "invalid cache configuration");
+		this.folder = new File(workFolder, CACHE_FOLDER);
+		this.maxBytes = configuration.getMaxBytes();
+		this.eviction = configuration.getEviction();
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getTtlMillis());
+
+		FileUtil.removeDir(folder);
+		folder.mkdirs();
+
+		metrics.gauge("cache.bytes", new Supplier<Long>() {
+			@Override
+			public Long get() {
+				return getCachedBytes();
+			}
+		});
+		metrics.gauge("cache.entries", new Supplier<Integer>() {
+			@Override
+			public Integer get() {
+				return getCachedEntries();
+			}
+		});
+		metrics.gauge("cache.hitRatio", new Supplier<Double>() {
+			@Override
+			public Double get() {
+				return getHitRatio();
+			}
+		});
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path) {
+		String key = toKey(namespace, path);
+		reads.incrementAndGet();
+		while (true) {
+			Entry cached;
+			SettableFuture<Entry> running = null;
+			SettableFuture<Entry> future = null;
+			synchronized (lock) {
+				cached = entries.get(key);
+				if (cached != null) {
+					cached.reads++;
+				}
+				if (cached == null || isFresh(cached) == false) {
+					running = loading.get(key);
+					if (running == null) {
+						future = SettableFuture.create();
+						loading.put(key, future);
+					}
+				}
+			}
+
+			if (future != null) {
+				return load(namespace, path, key, cached, future);
+			}
+
+			Entry entry = cached;
+			if (running != null) {
+				coalesced.incrementAndGet();
+				entry = await(running);
+				if (entry == null) {
+					// the download was superseded by a write or is too large to be cached
+					misses.incrementAndGet();
+					return delegate.read(namespace, path);
+				}
+			}
+
+			InputStream in = open(entry.file, 0, WHOLE_FILE);
+			if (in != null) {
+				hits.incrementAndGet();
+				bytesServed.addAndGet(entry.size);
+				return in;
+			}
+			// evicted between the lookup and the open
+			drop(entry);
+		}
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path, long offset, long length) {
+		String key = toKey(namespace, path);
+		reads.incrementAndGet();
+		Entry cached;
+		synchronized (lock) {
+			cached = entries.get(key);
+			if (cached != null) {
+				cached.reads++;
+			}
+		}
+
+		if (cached != null && isFresh(cached)) {
+			InputStream in = open(cached.file, offset, length);
+			if (in != null) {
+				hits.incrementAndGet();
+				bytesServed.addAndGet(Math.max(0, Math.min(length, cached.size - offset)));
+				return in;
+			}
+		}
+		misses.incrementAndGet();
+		return delegate.read(namespace, path, offset, length);
+	}
+
+	@Override
+	public void write(String namespace, String[] path, Writer writer) {
+		try {
+			super.write(namespace, path, writer);
+		} finally {
+			invalidate(toKey(namespace, path));
+		}
+	}
+
+	@Override
+	public List<WriteResult> writeAll(String namespace, List<WriteRequest> requests) {
+		try {
+			return super.writeAll(namespace, requests);
+		} finally {
+			for (WriteRequest request : requests) {
+				invalidate(toKey(namespace, request.path));
+			}
+		}
+	}
+
+	@Override
+	public void delete(String namespace, String[] path) {
+		try {
+			super.delete(namespace, path);
+		} finally {
+			invalidate(toKey(namespace, path));
+		}
+	}
+
+	@Override
+	public void deleteNamespace(String namespace) {
+		try {
+			super.deleteNamespace(namespace);
+		} finally {
+			String prefix = namespace + ":";
+			List<Entry> removed = new ArrayList<>();
+			synchronized (lock) {
+				Iterator<String> loads = loading.keySet().iterator();
+				while (loads.hasNext()) {
+					if (loads.next().startsWith(prefix)) {
+						loads.remove();
+					}
+				}
+				Iterator<Entry> cached = entries.values().iterator();
+				while (cached.hasNext()) {
+					Entry entry = cached.next();
+					if (entry.key.startsWith(prefix)) {
+						cached.remove();
+						bytes -= entry.size;
+						removed.add(entry);
+					}
+				}
+			}
+			deleteFiles(removed);
+		}
+	}
+
+	/**
+	 * Downloads or revalidates the file on behalf of all concurrent readers and hands the caller its content.
+	 */
+	private InputStream load(String namespace, String[] path, String key, Entry stale, SettableFuture<Entry> future) {
+		File temporary = null;
+		Entry loaded;
+		boolean modified;
+		try {
+			ConditionalRead response = fetch(namespace, path, stale);
+			modified = response.isModified();
+			if (modified) {
+				temporary = new File(folder, files.incrementAndGet() + ".tmp");
+				long size = download(response.content, temporary);
+				bytesFetched.addAndGet(size);
+				loaded = install(key, future, temporary, size, response.etag);
+			} else {
+				notModified.incrementAndGet();
+				loaded = revalidated(key, future, stale);
+			}
+		} catch (IOException | RuntimeException e) {
+			synchronized (lock) {
+				if (loading.get(key) == future) {
+					loading.remove(key);
+				}
+			}
+			if (temporary != null) {
+				temporary.delete();
+			}
+			future.setException(e);
+			throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+		}
+		future.set(loaded);
+
+		InputStream in = loaded != null ? open(loaded.file, 0, WHOLE_FILE) : null;
+		if (in != null) {
+			if (modified) {
+				misses.incrementAndGet();
+			} else {
+				hits.incrementAndGet();
+				bytesServed.addAndGet(loaded.size);
+			}
+			return in;
+		}
+
+		misses.incrementAndGet();
+		if (loaded == null && temporary != null) {
+			// not cached, the open stream keeps the content readable once the file is deleted
+			in = open(temporary, 0, WHOLE_FILE);
+			temporary.delete();
+			if (in != null) {
+				return in;
+			}
+		}
+		return delegate.read(namespace, path);
+	}
+
+	private ConditionalRead fetch(String namespace, String[] path, Entry stale) {
+		if (delegate instanceof ConditionalFileMapper) {
+			String etag = stale != null ? stale.etag : null;
+			if (etag != null) {
+				revalidations.incrementAndGet();
+			}
+			return ((ConditionalFileMapper) delegate).readIfNoneMatch(namespace, path, etag);
+		}
+		return new ConditionalRead(null, delegate.read(namespace, path));
+	}
+
+	private static long download(InputStream content, File temporary) throws IOException {
+		try (InputStream in = content; OutputStream out = Files.newOutputStream(temporary.toPath(), StandardOpenOption.CREATE_NEW)) {
+			return FileUtil.transfer(in, out);
+		}
+	}
+
+	/**
+	 * Moves the downloaded file into the cache unless a write invalidated the download meanwhile, returns {@code null}
+	 * if it was not cached.
+	 */
+	private Entry install(String key, SettableFuture<Entry> future, File temporary, long size, String etag) throws IOException {
+		Entry entry;
+		List<Entry> removed = new ArrayList<>();
+		synchronized (lock) {
+			if (loading.get(key) != future) {
+				return null;
+			}
+			loading.remove(key);
+			if (size > maxBytes) {
+				return null;
+			}
+
+			entry = new Entry(key, new File(folder, files.incrementAndGet() + ".entry"), size, etag);
+			Files.move(temporary.toPath(), entry.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			Entry previous = entries.put(key, entry);
+			bytes += size;
+			entry.reads = 1;
+			if (previous != null) {
+				bytes -= previous.size;
+				entry.reads += previous.reads;
+				removed.add(previous);
+			}
+			removed.addAll(evict(entry));
+		}
+		deleteFiles(removed);
+		return entry;
+	}
+
+	private Entry revalidated(String key, SettableFuture<Entry> future, Entry stale) {
+		synchronized (lock) {
+			if (loading.get(key) != future) {
+				return null;
+			}
+			loading.remove(key);
+			if (entries.get(key) != stale) {
+				return null;
+			}
+			stale.validatedAt = System.nanoTime();
+			return stale;
+		}
+	}
+
+	/**
+	 * Removes entries once the cache exceeds its cap until a tenth of the cap is free, so that the candidates are
+	 * ranked once per batch of evictions rather than per download. Called with the lock held.
+	 */
+	private List<Entry> evict(Entry keep) {
+		if (bytes <= maxBytes) {
+			return Collections.emptyList();
+		}
+
+		List<Entry> candidates = new ArrayList<>(entries.values());
+		if (eviction == Eviction.LFU) {
+			// the sort is stable, entries read equally often stay in least recently read order
+			Collections.sort(candidates, BY_READS);
+		}
+
+		long target = maxBytes - maxBytes / 10;
+		List<Entry> victims = new ArrayList<>();
+		for (Entry candidate : candidates) {
+			if (bytes <= target) {
+				break;
+			}
+			if (candidate != keep) {
+				entries.remove(candidate.key);
+				bytes -= candidate.size;
+				victims.add(candidate);
+			}
+		}
+
+		if (eviction == Eviction.LFU) {
+			for (Entry entry : entries.values()) {
+				entry.reads /= 2;
+			}
+		}
+		evictions.addAndGet(victims.size());
+		return victims;
+	}
+
+	private void invalidate(String key) {
+		Entry removed;
+		synchronized (lock) {
+			loading.remove(key);
+			removed = entries.remove(key);
+			if (removed != null) {
+				bytes -= removed.size;
+			}
+		}
+		if (removed != null) {
+			removed.file.delete();
+		}
+	}
+
+	private void drop(Entry entry) {
+		synchronized (lock) {
+			if (entries.get(entry.key) == entry) {
+				entries.remove(entry.key);
+				bytes -= entry.size;
+			}
+		}
+	}
+
+	private boolean isFresh(Entry entry) {
+		return System.nanoTime() - entry.validatedAt < ttlNanos;
+	}
+
+	private static Entry await(SettableFuture<Entry> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Opens the file at the offset, or returns {@code null} if it no longer exists.
+	 */
+	private static InputStream open(File file, long offset, long length) {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		try {
+			long remaining = Math.max(0, channel.size() - offset);
+			if (length != WHOLE_FILE) {
+				remaining = Math.min(remaining, length);
+			}
+			channel.position(offset);
+			InputStream in = new BufferedInputStream(Channels.newInputStream(channel), (int) Math.max(1, Math.min(BUFFER_SIZE, remaining)));
+			return length == WHOLE_FILE ? in : new LimitInputStream(in, length);
+		} catch (IOException e) {
+			try {
+				channel.close();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void deleteFiles(List<Entry> entries) {
+		for (Entry entry : entries) {
+			entry.file.delete();
+		}
+	}
+
+	private static String toKey(String namespace, String[] path) {
+		StringBuilder sb = new StringBuilder(namespace).append(':');
+		for (String string : path) {
+			sb.append('/').append(string);
+		}
+		return sb.toString();
+	}
+
+	public long getCachedBytes() {
+		synchronized (lock) {
+			return bytes;
+		}
+	}
+
+	public int getCachedEntries() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Share of reads served from local disk, including revalidated entries and reads which waited for another reader's
+	 * download.
+	 */
+	public double getHitRatio() {
+		long served = hits.get();
+		long total = served + misses.get();
+		return total == 0 ? 0 : (double) served / total;
+	}
+
+	/**
+	 * Counters {@code cache.reads}, {@code .hits}, {@code .misses}, {@code .coalesced}, {@code .revalidations},
+	 * {@code .notModified}, {@code .evictions}, {@code .bytesServed} (from local disk) and {@code .bytesFetched}, gauges
+	 * {@code cache.bytes}, {@code .entries} and {@code .hitRatio}.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,250 @@
+package org.testobject.persistence.file.cas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testobject.persistence.file.Batches;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.ForwardingFileMapper;
+import org.testobject.persistence.file.StatFileMapper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Deduplicating {@link FileMapper} decorator. The content of every write is hashed and stored once under its digest in
+ * {@code .cas/<xx>/<digest>}, the written path itself only holds a small reference record pointing to that digest.
+ *
+ * Digests which were already stored by this process are remembered in a bounded cache. Any other digest is looked up
+ * in the wrapped mapper first if it is a {@link StatFileMapper}, so blobs stored by other processes or before a restart
+ * are not uploaded again; other mappers get every blob this process has not seen written. Writing a duplicate only
+ * costs the reference record, or nothing at all if the path already refers to the same digest. Concurrent writers of
+ * the same new content may both upload it, which is harmless since the content is the same. References are cached as
+ * well, which assumes that a path is only rewritten through this mapper.
+ *
+ * New content costs two writes, the blob and the reference, plus the lookup, and a read of a path whose reference is
+ * not cached costs two reads. The mapper pays off for large content which is written many times, not for small unique
+ * files.
+ *
+ * Blobs are shared between paths and are never collected: neither {@link #delete(String, String[])} nor overwriting a
+ * path removes the blob it referred to, only {@link #deleteNamespace(String)} does.
+ */
+public class ContentAddressedFileMapper extends ForwardingFileMapper implements Closeable {
+
+	public static final long DEFAULT_CACHE_SIZE = 100000;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static final String BLOBS = ".cas";
+	private static final String REFERENCE_PREFIX = "sha256:";
+
+	private final ExecutorService executor;
+	private final Cache<String, Boolean> knownDigests;
+	private final Cache<String, String> references;
+
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong bytesStored = new AtomicLong();
+
+	public ContentAddressedFileMapper(FileMapper delegate) {
+		this(delegate, Batches.DEFAULT_THREADS, DEFAULT_CACHE_SIZE);
+	}
+
+	public ContentAddressedFileMapper(FileMapper delegate, int threads, long cacheSize) {
+		super(delegate);
+		this.executor = Batches.newPool("cas-file-mapper", threads);
+		this.knownDigests = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+		this.references = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+	}
+
+	/**
+	 * Stops the batch threads once the running writes are done. Does not close the wrapped mapper.
+	 */
+	@Override
+	public void close() {
+		Batches.shutdown(executor, 1, TimeUnit.MINUTES);
+	}
+
+	@Override
+	public void deleteNamespace(String namespace) {
+		knownDigests.invalidateAll();
+		references.invalidateAll();
+		super.deleteNamespace(namespace);
+	}
+
+	@Override
+	public void write(String namespace, String[] path, Writer writer) {
+		byte[] content = capture(writer);
+		String digest = Hashing.sha256().hashBytes(content).toString();
+
+		writes.incrementAndGet();
+		bytesWritten.addAndGet(content.length);
+
+		String blobKey = namespace + ":" + digest;
+		if (knownDigests.getIfPresent(blobKey) != null || isStored(namespace, digest, content.length)) {
+			duplicates.incrementAndGet();
+		} else {
+			delegate.write(namespace, toBlobPath(digest), new ByteArrayWriter(content));
+			bytesStored.addAndGet(content.length);
+		}
+		knownDigests.put(blobKey, Boolean.TRUE);
+
+		String referenceKey = toReferenceKey(namespace, path);
+		if (digest.equals(references.getIfPresent(referenceKey)) == false) {
+			delegate.write(namespace, path, new ByteArrayWriter((REFERENCE_PREFIX + digest).getBytes(ASCII)));
+			references.put(referenceKey, digest);
+		}
+	}
+
+	@Override
+	public List<WriteResult> writeAll(String namespace, List<WriteRequest> requests) {
+		return Batches.writeAll(executor, this, namespace, requests);
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path) {
+		return delegate.read(namespace, toBlobPath(resolve(namespace, path)));
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path, long offset, long length) {
+		return delegate.read(namespace, toBlobPath(resolve(namespace, path)), offset, length);
+	}
+
+	@Override
+	public void delete(String namespace, String[] path) {
+		references.invalidate(toReferenceKey(namespace, path));
+		delegate.delete(namespace, path);
+	}
+
+	/**
+	 * Lists the written paths, not the blobs. The size of a path is unknown since only its reference record is
+	 * listed, the tag changes whenever the path refers to other content.
+	 */
+	@Override
+	public Iterator<FileSummary> list(String namespace, String[] prefix) {
+		final Iterator<FileSummary> files = delegate.list(namespace, prefix);
+		return new AbstractIterator<FileSummary>() {
+			@Override
+			protected FileSummary computeNext() {
+				while (files.hasNext()) {
+					FileSummary file = files.next();
+					if (file.path[0].equals(BLOBS) == false) {
+						return new FileSummary(file.path, FileSummary.UNKNOWN_SIZE, file.etag);
+					}
+				}
+				return endOfData();
+			}
+		};
+	}
+
+	/**
+	 * Whether the wrapped mapper already holds the complete blob, a blob of another size is a leftover of a failed
+	 * write and is replaced.
+	 */
+	private boolean isStored(String namespace, String digest, long size) {
+		if (delegate instanceof StatFileMapper == false) {
+			return false;
+		}
+		lookups.incrementAndGet();
+		FileSummary blob = ((StatFileMapper) delegate).stat(namespace, toBlobPath(digest));
+		return blob != null && blob.size == size;
+	}
+
+	private String resolve(String namespace, String[] path) {
+		String referenceKey = toReferenceKey(namespace, path);
+		String digest = references.getIfPresent(referenceKey);
+		if (digest != null) {
+			return digest;
+		}
+
+		try (InputStream in = delegate.read(namespace, path)) {
+			String reference = new String(ByteStreams.toByteArray(in), ASCII);
+			Preconditions.checkState(reference.startsWith(REFERENCE_PREFIX), "'" + referenceKey + "' is not a content reference");
+			digest = reference.substring(REFERENCE_PREFIX.length());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		references.put(referenceKey, digest);
+		return digest;
+	}
+
+	private static byte[] capture(Writer writer) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writer.write(out);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return out.toByteArray();
+	}
+
+	private static String[] toBlobPath(String digest) {
+		return new String[] { BLOBS, digest.substring(0, 2), digest };
+	}
+
+	private static String toReferenceKey(String namespace, String[] path) {
+		StringBuilder sb = new StringBuilder(namespace).append(':');
+		for (String string : path) {
+			sb.append('/').append(string);
+		}
+		return sb.toString();
+	}
+
+	public long getWriteCount() {
+		return writes.get();
+	}
+
+	public long getDuplicateCount() {
+		return duplicates.get();
+	}
+
+	/**
+	 * Blobs looked up in the wrapped mapper because this process had not stored them before.
+	 */
+	public long getLookupCount() {
+		return lookups.get();
+	}
+
+	/**
+	 * Bytes handed to this mapper by writers.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	/**
+	 * Bytes actually stored as blobs in the underlying mapper.
+	 */
+	public long getBytesStored() {
+		return bytesStored.get();
+	}
+
+	public long getBytesSaved() {
+		return getBytesWritten() - getBytesStored();
+	}
+
+	/**
+	 * Ratio of written to stored bytes, 2.0 means every blob was written twice on average.
+	 */
+	public double getDedupRatio() {
+		long stored = getBytesStored();
+		return stored == 0 ? 1.0 : (double) getBytesWritten() / stored;
+	}
+}
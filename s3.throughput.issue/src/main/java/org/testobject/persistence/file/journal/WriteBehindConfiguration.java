@@ -0,0 +1,136 @@
+package org.testobject.persistence.file.journal;
+
+import org.testobject.persistence.file.local.LocalFileSystemConfiguration;
+
+/**
+ * Tuning knobs of {@link WriteBehindFileMapper}.
+ */
+public class WriteBehindConfiguration {
+
+	public static final int DEFAULT_FLUSHERS = 4;
+	public static final int DEFAULT_BATCH_SIZE = 64;
+	public static final long DEFAULT_MAX_PENDING_BYTES = 64 * 1024 * 1024;
+	public static final int DEFAULT_MAX_ATTEMPTS = 10;
+	public static final long DEFAULT_RETRY_BACKOFF_MILLIS = 100;
+
+	private int flushers = DEFAULT_FLUSHERS;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private long retryBackoffMillis = DEFAULT_RETRY_BACKOFF_MILLIS;
+	private long commitWindowMicros = LocalFileSystemConfiguration.DEFAULT_COMMIT_WINDOW_MICROS;
+	private String journalFolder;
+
+	/**
+	 * Threads draining the journal into the wrapped mapper.
+	 */
+	public int getFlushers() {
+		return flushers;
+	}
+
+	public void setFlushers(int flushers) {
+		this.flushers = flushers;
+	}
+
+	public WriteBehindConfiguration withFlushers(int flushers) {
+		setFlushers(flushers);
+		return this;
+	}
+
+	/**
+	 * Entries a flusher hands to the wrapped mapper's {@code writeAll} at once.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public WriteBehindConfiguration withBatchSize(int batchSize) {
+		setBatchSize(batchSize);
+		return this;
+	}
+
+	/**
+	 * Bytes of unflushed entries beyond which writers block.
+	 */
+	public long getMaxPendingBytes() {
+		return maxPendingBytes;
+	}
+
+	public void setMaxPendingBytes(long maxPendingBytes) {
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	public WriteBehindConfiguration withMaxPendingBytes(long maxPendingBytes) {
+		setMaxPendingBytes(maxPendingBytes);
+		return this;
+	}
+
+	/**
+	 * Flush attempts of an entry before it is given up and moved to the {@code failed} folder of the journal.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public WriteBehindConfiguration withMaxAttempts(int maxAttempts) {
+		setMaxAttempts(maxAttempts);
+		return this;
+	}
+
+	/**
+	 * Backoff before the first retry of an entry, doubled on every further attempt up to 30 seconds.
+	 */
+	public long getRetryBackoffMillis() {
+		return retryBackoffMillis;
+	}
+
+	public void setRetryBackoffMillis(long retryBackoffMillis) {
+		this.retryBackoffMillis = retryBackoffMillis;
+	}
+
+	public WriteBehindConfiguration withRetryBackoffMillis(long retryBackoffMillis) {
+		setRetryBackoffMillis(retryBackoffMillis);
+		return this;
+	}
+
+	/**
+	 * How long the first append of a group waits for others to share the sync of the journal directory.
+	 */
+	public long getCommitWindowMicros() {
+		return commitWindowMicros;
+	}
+
+	public void setCommitWindowMicros(long commitWindowMicros) {
+		this.commitWindowMicros = commitWindowMicros;
+	}
+
+	public WriteBehindConfiguration withCommitWindowMicros(long commitWindowMicros) {
+		setCommitWindowMicros(commitWindowMicros);
+		return this;
+	}
+
+	/**
+	 * Folder of the journal, {@code <workFolder>/}{@value WriteBehindFileMapper#JOURNAL_FOLDER} if not set. Only one
+	 * mapper at a time may use a journal folder.
+	 */
+	public String getJournalFolder() {
+		return journalFolder;
+	}
+
+	public void setJournalFolder(String journalFolder) {
+		this.journalFolder = journalFolder;
+	}
+
+	public WriteBehindConfiguration withJournalFolder(String journalFolder) {
+		setJournalFolder(journalFolder);
+		return this;
+	}
+}
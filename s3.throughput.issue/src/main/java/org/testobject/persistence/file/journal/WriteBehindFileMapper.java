@@ -0,0 +1,751 @@
+package org.testobject.persistence.file.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.ForwardingFileMapper;
+import org.testobject.persistence.file.local.GroupCommit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Write-behind {@link FileMapper} decorator. A write is acknowledged as soon as it is durably appended to a journal in
+ * {@code <application.work.folder>/org.testobject.runtime.persistence.journal}, background flushers drain the journal
+ * into the wrapped mapper in batches and retry failed entries with exponential backoff.
+ *
+ * Every journal entry is a file of its own, named by a monotonic sequence number, which is removed once the entry was
+ * flushed. Entries left over by a crashed or closed mapper are replayed on construction, a lock file keeps a second
+ * mapper from using the same journal meanwhile. Reads of paths with unflushed entries are served from the journal,
+ * later entries for the same path supersede earlier ones without being flushed. Writers block once more than
+ * {@code maxPendingBytes} are waiting to be flushed.
+ *
+ * An entry which still fails after {@code maxAttempts} is given up: it is moved to the {@code failed} folder of the
+ * journal for inspection, counted as {@code failed} and no longer holds back writers or {@link #flush()}.
+ */
+public class WriteBehindFileMapper extends ForwardingFileMapper implements Closeable {
+
+	private static final Log log = LogFactory.getLog(WriteBehindFileMapper.class);
+
+	public static final String JOURNAL_FOLDER = "org.testobject.runtime.persistence.journal";
+
+	public static final String FAILED_FOLDER = "failed";
+
+	public static final int DEFAULT_FLUSHERS = WriteBehindConfiguration.DEFAULT_FLUSHERS;
+	public static final int DEFAULT_BATCH_SIZE = WriteBehindConfiguration.DEFAULT_BATCH_SIZE;
+	public static final long DEFAULT_MAX_PENDING_BYTES = WriteBehindConfiguration.DEFAULT_MAX_PENDING_BYTES;
+
+	private static final String SUFFIX = ".entry";
+	private static final String LOCK = "journal.lock";
+	private static final long MAX_BACKOFF_MILLIS = 30 * 1000;
+
+	private enum Operation {
+		WRITE, DELETE
+	}
+
+	private static class Entry {
+
+		final long sequence;
+		final Operation operation;
+		final String namespace;
+		final String[] path;
+		final byte[] content;
+		final File file;
+		int attempts;
+
+		Entry(long sequence, Operation operation, String namespace, String[] path, byte[] content, File file) {
+			this.sequence = sequence;
+			this.operation = operation;
+			this.namespace = namespace;
+			this.path = path;
+			this.content = content;
+			this.file = file;
+		}
+
+		String key() {
+			return toKey(namespace, path);
+		}
+	}
+
+	private final File journal;
+	private final File failed;
+	private final int batchSize;
+	private final long maxPendingBytes;
+	private final int maxAttempts;
+	private final long retryBackoffMillis;
+	private final GroupCommit groupCommit;
+	private final FileChannel lockChannel;
+	private final FileLock journalLock;
+	private final ScheduledExecutorService retryScheduler;
+	private final List<Thread> flushers = new ArrayList<>();
+
+	private final Object lock = new Object();
+	private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+	private final Map<String, Entry> latest = new HashMap<>();
+	private final Set<String> inFlight = new HashSet<>();
+	// entries taken while their path was claimed by another flusher or a pending retry, re-queued once it is released
+	private final Map<String, List<Entry>> parked = new HashMap<>();
+	private long pendingBytes;
+	private int pendingEntries;
+	private volatile boolean closed;
+
+	private final AtomicLong sequence = new AtomicLong();
+	private final Metrics metrics = new Metrics();
+	private final AtomicLong flushed = metrics.counter("flushed");
+	private final AtomicLong superseded = metrics.counter("superseded");
+	private final AtomicLong retries = metrics.counter("retries");
+	private final AtomicLong failures = metrics.counter("failed");
+
+	public WriteBehindFileMapper(FileMapper delegate, String workFolder) {
+		this(delegate, workFolder, new WriteBehindConfiguration());
+	}
+
+	public WriteBehindFileMapper(FileMapper delegate, String workFolder, int flushers, int batchSize, long maxPendingBytes) {
+		this(delegate, workFolder, new WriteBehindConfiguration().withFlushers(flushers).withBatchSize(batchSize).withMaxPendingBytes(maxPendingBytes));
+	}
+
+	public WriteBehindFileMapper(FileMapper delegate, String workFolder, WriteBehindConfiguration configuration) {
+		super(delegate);
+		Preconditions.checkArgument(configuration.getFlushers() > 0 && configuration.getBatchSize() > 0 && configuration.getMaxPendingBytes() > 0
+				&& configuration.getMaxAttempts() > 0 && configuration.getRetryBackoffMillis() > 0, "invalid write-behind configuration");
+		this.journal = configuration.getJournalFolder() != null ? new File(configuration.getJournalFolder()) : new File(workFolder, JOURNAL_FOLDER);
+		this.failed = new File(journal, FAILED_FOLDER);
+		this.batchSize = configuration.getBatchSize();
+		this.maxPendingBytes = configuration.getMaxPendingBytes();
+		this.maxAttempts = configuration.getMaxAttempts();
+		this.retryBackoffMillis = configuration.getRetryBackoffMillis();
+		this.groupCommit = new GroupCommit(configuration.getCommitWindowMicros());
+
+		journal.mkdirs();
+		try {
+			this.lockChannel = FileChannel.open(new File(journal, LOCK).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		this.journalLock = tryLock(lockChannel);
+		if (journalLock == null) {
+			closeQuietly(lockChannel);
+			throw new IllegalStateException("journal '" + journal + "' is used by another mapper");
+		}
+
+		this.retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("write-behind-retry-%d").setDaemon(true).build());
+		replay();
+
+		metrics.gauge("pendingBytes", new Supplier<Long>() {
+			@Override
+			public Long get() {
+				return getPendingBytes();
+			}
+		});
+		metrics.gauge("pendingEntries", new Supplier<Integer>() {
+			@Override
+			public Integer get() {
+				return getPendingEntries();
+			}
+		});
+
+		ThreadFactoryBuilder threads = new ThreadFactoryBuilder().setNameFormat("write-behind-flusher-%d").setDaemon(true);
+		for (int i = 0; i < configuration.getFlushers(); i++) {
+			Thread flusher = threads.build().newThread(new Flusher());
+			flushers.add(flusher);
+			flusher.start();
+		}
+	}
+
+	private static FileLock tryLock(FileChannel channel) {
+		try {
+			return channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// held by another mapper of this process
+			return null;
+		} catch (IOException e) {
+			closeQuietly(channel);
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.warn("cannot close '" + closeable + "'", e);
+		}
+	}
+
+	/**
+	 * Stops the flushers and releases the journal, entries not flushed yet stay in it and are replayed by the next
+	 * mapper on the journal. Does not close the wrapped mapper.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			lock.notifyAll();
+		}
+		for (Thread flusher : flushers) {
+			flusher.interrupt();
+		}
+		boolean interrupted = false;
+		for (Thread flusher : flushers) {
+			while (flusher.isAlive()) {
+				try {
+					flusher.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		retryScheduler.shutdownNow();
+		try {
+			journalLock.release();
+		} catch (IOException e) {
+			log.warn("cannot release lock of journal '" + journal + "'", e);
+		}
+		closeQuietly(lockChannel);
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void write(String namespace, String[] path, Writer writer) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writer.write(out);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		append(Operation.WRITE, namespace, path, out.toByteArray());
+	}
+
+	@Override
+	public List<WriteResult> writeAll(String namespace, List<WriteRequest> requests) {
+		// appending to the journal is local and cheap, there is nothing to gain from parallelism
+		List<WriteResult> results = new ArrayList<>(requests.size());
+		for (WriteRequest request : requests) {
+			try {
+				write(namespace, request.path, request.writer);
+				results.add(new WriteResult(request.path, null));
+			} catch (RuntimeException e) {
+				results.add(new WriteResult(request.path, e));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path) {
+		Entry pending = getPending(namespace, path);
+		return pending != null ? new ByteArrayInputStream(pending.content) : delegate.read(namespace, path);
+	}
+
+	@Override
+	public InputStream read(String namespace, String[] path, long offset, long length) {
+		Entry pending = getPending(namespace, path);
+		if (pending == null) {
+			return delegate.read(namespace, path, offset, length);
+		}
+		int from = (int) Math.min(offset, pending.content.length);
+		int to = (int) Math.min(offset + length, pending.content.length);
+		return new ByteArrayInputStream(pending.content, from, to - from);
+	}
+
+	@Override
+	public void delete(String namespace, String[] path) {
+		append(Operation.DELETE, namespace, path, new byte[0]);
+	}
+
+	/**
+	 * Lists unflushed writes first, then the wrapped mapper's files which have no unflushed entry. Paths with an
+	 * unflushed delete are left out.
+	 */
+	@Override
+	public Iterator<FileSummary> list(final String namespace, String[] prefix) {
+		final List<FileSummary> pendingWrites = new ArrayList<>();
+		final Set<String> overridden = new HashSet<>();
+		synchronized (lock) {
+			for (Entry entry : latest.values()) {
+				if (entry.namespace.equals(namespace)) {
+					FileSummary file = new FileSummary(entry.path, entry.content.length, null);
+					if (file.isBelow(prefix)) {
+						overridden.add(entry.key());
+						if (entry.operation == Operation.WRITE) {
+							pendingWrites.add(file);
+						}
+					}
+				}
+			}
+		}
+
+		final Iterator<FileSummary> flushed = delegate.list(namespace, prefix);
+		return new AbstractIterator<FileSummary>() {
+
+			private final Iterator<FileSummary> pending = pendingWrites.iterator();
+
+			@Override
+			protected FileSummary computeNext() {
+				if (pending.hasNext()) {
+					return pending.next();
+				}
+				while (flushed.hasNext()) {
+					FileSummary file = flushed.next();
+					if (overridden.contains(toKey(namespace, file.path)) == false) {
+						return file;
+					}
+				}
+				return endOfData();
+			}
+		};
+	}
+
+	/**
+	 * Drains pending writes of the namespace before deleting it, so that no flusher recreates objects afterwards.
+	 */
+	@Override
+	public void deleteNamespace(String namespace) {
+		flush();
+		super.deleteNamespace(namespace);
+	}
+
+	/**
+	 * Blocks until the journal is empty, that is until every acknowledged write was flushed to the wrapped mapper or
+	 * given up, see {@link #getFailedCount()}.
+	 * 
+	 * @throws IllegalStateException if the mapper is closed before
+	 */
+	public void flush() {
+		synchronized (lock) {
+			while (pendingEntries > 0) {
+				checkOpen();
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until the journal is empty, returns false if the timeout elapsed before.
+	 */
+	public boolean awaitFlushed(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			while (pendingEntries > 0) {
+				checkOpen();
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					return false;
+				}
+				lock.wait(remaining);
+			}
+			return true;
+		}
+	}
+
+	private void append(Operation operation, String namespace, String[] path, byte[] content) {
+		synchronized (lock) {
+			checkOpen();
+			// a single oversized entry is admitted once everything else was flushed
+			while (pendingEntries > 0 && pendingBytes + content.length > maxPendingBytes) {
+				checkOpen();
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+			}
+			pendingBytes += content.length;
+			pendingEntries++;
+		}
+
+		long next = sequence.incrementAndGet();
+		File file = new File(journal, String.format("%019d", next) + SUFFIX);
+		Entry entry = new Entry(next, operation, namespace, path, content, file);
+		try {
+			persist(entry);
+		} catch (IOException e) {
+			release(entry);
+			throw new RuntimeException(e);
+		}
+		enqueue(entry);
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("write-behind mapper on '" + journal + "' is closed");
+		}
+	}
+
+	private void enqueue(Entry entry) {
+		synchronized (lock) {
+			Entry previous = latest.get(entry.key());
+			if (previous == null || previous.sequence < entry.sequence) {
+				latest.put(entry.key(), entry);
+			}
+		}
+		queue.add(entry);
+	}
+
+	private Entry getPending(String namespace, String[] path) {
+		Entry pending;
+		synchronized (lock) {
+			pending = latest.get(toKey(namespace, path));
+		}
+		if (pending != null && pending.operation == Operation.DELETE) {
+			throw new RuntimeException(new NoSuchFileException("'" + toKey(namespace, path) + "' was deleted"));
+		}
+		return pending;
+	}
+
+	private void persist(Entry entry) throws IOException {
+		File tmp = new File(journal, entry.file.getName() + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(tmp); DataOutputStream out = new DataOutputStream(file)) {
+			out.writeUTF(entry.operation.name());
+			out.writeUTF(entry.namespace);
+			out.writeInt(entry.path.length);
+			for (String element : entry.path) {
+				out.writeUTF(element);
+			}
+			out.writeInt(entry.content.length);
+			out.write(entry.content);
+			out.flush();
+			file.getFD().sync();
+		}
+		if (tmp.renameTo(entry.file) == false) {
+			tmp.delete();
+			throw new IOException("cannot move journal entry to '" + entry.file + "'");
+		}
+		// the entry is only acknowledged once its name is durable as well
+		groupCommit.commit(journal.toPath());
+	}
+
+	private void replay() {
+		// entries which were not completely written are not acknowledged yet and can be dropped
+		for (File tmp : journal.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SUFFIX + ".tmp");
+			}
+		})) {
+			tmp.delete();
+		}
+
+		File[] files = journal.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+
+		for (File file : files) {
+			long entrySequence = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+			try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+				Operation operation = Operation.valueOf(in.readUTF());
+				String namespace = in.readUTF();
+				String[] path = new String[in.readInt()];
+				for (int i = 0; i < path.length; i++) {
+					path[i] = in.readUTF();
+				}
+				byte[] content = new byte[in.readInt()];
+				in.readFully(content);
+
+				synchronized (lock) {
+					pendingBytes += content.length;
+					pendingEntries++;
+				}
+				sequence.set(Math.max(sequence.get(), entrySequence));
+				enqueue(new Entry(entrySequence, operation, namespace, path, content, file));
+			} catch (IOException | RuntimeException e) {
+				log.warn("skipping unreadable journal entry '" + file + "'", e);
+			}
+		}
+
+		if (files.length > 0) {
+			log.info("replaying " + files.length + " unflushed journal entries from '" + journal + "'");
+		}
+	}
+
+	private void release(Entry entry) {
+		entry.file.delete();
+		forget(entry);
+	}
+
+	/**
+	 * Moves the entry to the failed folder, where it is neither replayed nor flushed anymore.
+	 */
+	private void giveUp(Entry entry, Throwable error) {
+		failures.incrementAndGet();
+		log.error("giving up flushing '" + entry.key() + "' after " + entry.attempts + " attempts, moving it to '" + failed + "'", error);
+		failed.mkdirs();
+		try {
+			Files.move(entry.file.toPath(), new File(failed, entry.file.getName()).toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// it stays in the journal and is retried by the next mapper on it
+			log.error("cannot move journal entry '" + entry.file + "' to '" + failed + "'", e);
+		}
+		forget(entry);
+	}
+
+	private void forget(Entry entry) {
+		synchronized (lock) {
+			if (latest.get(entry.key()) == entry) {
+				latest.remove(entry.key());
+			}
+			pendingBytes -= entry.content.length;
+			pendingEntries--;
+			lock.notifyAll();
+		}
+	}
+
+	private class Flusher implements Runnable {
+
+		@Override
+		public void run() {
+			List<Entry> batch = new ArrayList<>(batchSize);
+			while (closed == false) {
+				try {
+					// polls, a wrapped mapper might swallow the interrupt of close
+					Entry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (entry == null) {
+						continue;
+					}
+					batch.add(entry);
+				} catch (InterruptedException e) {
+					return;
+				}
+				queue.drainTo(batch, batchSize - 1);
+
+				List<Entry> writes = claim(batch);
+				flush(writes);
+				batch.clear();
+			}
+		}
+
+		/**
+		 * Drops superseded entries and parks entries whose path is currently flushed or awaiting a retry until it is
+		 * released.
+		 */
+		private List<Entry> claim(List<Entry> batch) {
+			List<Entry> claimed = new ArrayList<>(batch.size());
+			List<Entry> dropped = new ArrayList<>();
+			synchronized (lock) {
+				for (Entry entry : batch) {
+					if (latest.get(entry.key()) != entry) {
+						dropped.add(entry);
+					} else if (inFlight.add(entry.key())) {
+						claimed.add(entry);
+					} else {
+						List<Entry> waiting = parked.get(entry.key());
+						if (waiting == null) {
+							parked.put(entry.key(), waiting = new ArrayList<>(1));
+						}
+						waiting.add(entry);
+					}
+				}
+			}
+			for (Entry entry : dropped) {
+				superseded.incrementAndGet();
+				release(entry);
+			}
+			return claimed;
+		}
+
+		private void flush(List<Entry> entries) {
+			List<WriteRequest> requests = new ArrayList<>();
+			List<Entry> writes = new ArrayList<>();
+			for (Entry entry : entries) {
+				if (entry.operation == Operation.WRITE) {
+					requests.add(new WriteRequest(entry.path, new ByteArrayWriter(entry.content)));
+					writes.add(entry);
+				} else {
+					try {
+						delegate.delete(entry.namespace, entry.path);
+						done(entry);
+					} catch (RuntimeException e) {
+						retry(entry, e);
+					}
+				}
+			}
+
+			// write requests of a batch may span several namespaces
+			Map<String, List<Integer>> byNamespace = new HashMap<>();
+			for (int i = 0; i < writes.size(); i++) {
+				List<Integer> indices = byNamespace.get(writes.get(i).namespace);
+				if (indices == null) {
+					byNamespace.put(writes.get(i).namespace, indices = new ArrayList<>());
+				}
+				indices.add(i);
+			}
+
+			for (Map.Entry<String, List<Integer>> namespace : byNamespace.entrySet()) {
+				List<WriteRequest> namespaceRequests = new ArrayList<>(namespace.getValue().size());
+				for (int i : namespace.getValue()) {
+					namespaceRequests.add(requests.get(i));
+				}
+
+				List<WriteResult> results;
+				try {
+					results = delegate.writeAll(namespace.getKey(), namespaceRequests);
+				} catch (RuntimeException e) {
+					for (int i : namespace.getValue()) {
+						retry(writes.get(i), e);
+					}
+					continue;
+				}
+
+				for (int j = 0; j < results.size(); j++) {
+					Entry entry = writes.get(namespace.getValue().get(j));
+					if (results.get(j).isSuccess()) {
+						done(entry);
+					} else {
+						retry(entry, results.get(j).error);
+					}
+				}
+			}
+		}
+
+		private void done(Entry entry) {
+			flushed.incrementAndGet();
+			release(entry);
+			unclaim(entry.key());
+		}
+
+		/**
+		 * Re-enqueues the entry after an exponential backoff, the path stays claimed until then to preserve ordering.
+		 * Gives the entry up once it failed {@code maxAttempts} times. A closed mapper leaves it in the journal.
+		 */
+		private void retry(final Entry entry, Throwable error) {
+			if (closed) {
+				return;
+			}
+			entry.attempts++;
+			if (entry.attempts >= maxAttempts) {
+				giveUp(entry, error);
+				unclaim(entry.key());
+				return;
+			}
+			retries.incrementAndGet();
+			long backoff = Math.min(MAX_BACKOFF_MILLIS, retryBackoffMillis << Math.min(entry.attempts, 16));
+			log.warn("flushing '" + entry.key() + "' failed (attempt " + entry.attempts + "), retrying in " + backoff + " ms", error);
+
+			try {
+				retryScheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						queue.add(entry);
+						unclaim(entry.key());
+					}
+				}, backoff, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// closed meanwhile, the entry is replayed from the journal
+			}
+		}
+
+		/**
+		 * Releases the path and re-queues the entries parked on it.
+		 */
+		private void unclaim(String key) {
+			List<Entry> waiting;
+			synchronized (lock) {
+				inFlight.remove(key);
+				waiting = parked.remove(key);
+			}
+			if (waiting != null) {
+				queue.addAll(waiting);
+			}
+		}
+	}
+
+	private static String toKey(String namespace, String[] path) {
+		StringBuilder sb = new StringBuilder(namespace).append(':');
+		for (String string : path) {
+			sb.append('/').append(string);
+		}
+		return sb.toString();
+	}
+
+	public long getPendingBytes() {
+		synchronized (lock) {
+			return pendingBytes;
+		}
+	}
+
+	public int getPendingEntries() {
+		synchronized (lock) {
+			return pendingEntries;
+		}
+	}
+
+	public long getFlushedCount() {
+		return flushed.get();
+	}
+
+	public long getSupersededCount() {
+		return superseded.get();
+	}
+
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	/**
+	 * Number of entries given up after {@code maxAttempts} and moved to the {@code failed} folder of the journal.
+	 */
+	public long getFailedCount() {
+		return failures.get();
+	}
+
+	/**
+	 * Counters {@code flushed}, {@code superseded}, {@code retries} and {@code failed}, gauges {@code pendingBytes} and
+	 * {@code pendingEntries}.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+}
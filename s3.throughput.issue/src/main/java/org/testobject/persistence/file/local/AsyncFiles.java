@@ -0,0 +1,124 @@
+package org.testobject.persistence.file.local;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Whole-file reads and writes on {@link AsynchronousFileChannel}s, completion handlers run on the given executor.
+ */
+class AsyncFiles {
+
+	private final ExecutorService executor;
+
+	AsyncFiles(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Writes the content, forcing it to disk before the future completes if requested.
+	 */
+	ListenableFuture<Void> write(File file, byte[] content, boolean force) {
+		SettableFuture<Void> future = SettableFuture.create();
+		try {
+			AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(),
+					EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), executor);
+			new Transfer<Void>(channel, ByteBuffer.wrap(content), future, null, true, force).next();
+		} catch (IOException e) {
+			future.setException(e);
+		}
+		return future;
+	}
+
+	ListenableFuture<InputStream> read(File file) {
+		SettableFuture<InputStream> future = SettableFuture.create();
+		try {
+			AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(), EnumSet.of(StandardOpenOption.READ), executor);
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				channel.close();
+				throw new IOException("file '" + file + "' is too large to be read at once");
+			}
+			byte[] content = new byte[(int) size];
+			new Transfer<InputStream>(channel, ByteBuffer.wrap(content), future, new ByteArrayInputStream(content), false, false).next();
+		} catch (IOException e) {
+			future.setException(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Issues reads or writes until the buffer is exhausted, then closes the channel and completes the future.
+	 */
+	private static class Transfer<T> implements CompletionHandler<Integer, Void> {
+
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer buffer;
+		private final SettableFuture<T> future;
+		private final T result;
+		private final boolean write;
+		private final boolean force;
+
+		Transfer(AsynchronousFileChannel channel, ByteBuffer buffer, SettableFuture<T> future, T result, boolean write, boolean force) {
+			this.channel = channel;
+			this.buffer = buffer;
+			this.future = future;
+			this.result = result;
+			this.write = write;
+			this.force = force;
+		}
+
+		void next() {
+			if (buffer.hasRemaining() == false) {
+				try {
+					if (force) {
+						channel.force(false);
+					}
+					future.set(result);
+				} catch (IOException e) {
+					future.setException(e);
+				} finally {
+					close();
+				}
+			} else if (write) {
+				channel.write(buffer, buffer.position(), null, this);
+			} else {
+				channel.read(buffer, buffer.position(), null, this);
+			}
+		}
+
+		@Override
+		public void completed(Integer transferred, Void attachment) {
+			if (transferred < 0) {
+				close();
+				future.setException(new IOException("unexpected end of file"));
+			} else {
+				next();
+			}
+		}
+
+		@Override
+		public void failed(Throwable e, Void attachment) {
+			close();
+			future.setException(e);
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to do with this channel
+			}
+		}
+	}
+}
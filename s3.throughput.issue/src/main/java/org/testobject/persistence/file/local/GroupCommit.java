@@ -0,0 +1,96 @@
+package org.testobject.persistence.file.local;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Makes renames durable by forcing their directories, shared between concurrent writers. The first writer of a group
+ * waits for the commit window, closes the group and forces every directory the group touched once, the other writers
+ * of the group wait for that. Writers arriving meanwhile form the next group.
+ */
+public class GroupCommit {
+
+	private final long windowNanos;
+
+	private Group open;
+
+	public GroupCommit(long windowMicros) {
+		this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+	}
+
+	public void commit(Path directory) throws IOException {
+		Group group;
+		boolean leader;
+		synchronized (this) {
+			leader = open == null;
+			if (leader) {
+				open = new Group();
+			}
+			group = open;
+			group.directories.add(directory);
+		}
+
+		if (leader) {
+			LockSupport.parkNanos(windowNanos);
+			synchronized (this) {
+				open = null;
+			}
+			group.force();
+		} else {
+			group.await();
+		}
+
+		if (group.error != null) {
+			throw new IOException("cannot commit directory '" + directory + "'", group.error);
+		}
+	}
+
+	static void force(Path directory) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	private static class Group {
+
+		// guarded by the enclosing GroupCommit until the group is closed
+		final Set<Path> directories = new HashSet<>();
+		final CountDownLatch committed = new CountDownLatch(1);
+		volatile IOException error;
+
+		void force() {
+			try {
+				for (Path directory : directories) {
+					GroupCommit.force(directory);
+				}
+			} catch (IOException e) {
+				error = e;
+			} finally {
+				committed.countDown();
+			}
+		}
+
+		void await() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					committed.await();
+					break;
+				} catch (InterruptedException e) {
+					// the rename already happened, the caller has to learn whether it is durable
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
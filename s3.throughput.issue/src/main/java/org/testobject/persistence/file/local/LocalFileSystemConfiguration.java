@@ -0,0 +1,114 @@
+package org.testobject.persistence.file.local;
+
+/**
+ * Tuning knobs of {@link LocalFileSystemMapper}.
+ */
+public class LocalFileSystemConfiguration {
+
+	public enum Durability {
+		/**
+		 * Files are renamed into place without being forced to disk, a crash may lose recent writes but never exposes a
+		 * partially written file.
+		 */
+		NONE,
+
+		/**
+		 * Every write forces the file's content and then its directory before returning.
+		 */
+		FSYNC,
+
+		/**
+		 * Every write forces the file's content, directory updates of concurrent writes are collected for the commit
+		 * window and forced once per directory before these writes return.
+		 */
+		GROUP_COMMIT
+	}
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	public static final int DEFAULT_SMALL_FILE_THRESHOLD = 64 * 1024;
+	public static final long DEFAULT_COMMIT_WINDOW_MICROS = 1000;
+
+	private int threads = Runtime.getRuntime().availableProcessors() * 2;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int smallFileThreshold = DEFAULT_SMALL_FILE_THRESHOLD;
+	private Durability durability = Durability.NONE;
+	private long commitWindowMicros = DEFAULT_COMMIT_WINDOW_MICROS;
+
+	/**
+	 * Number of worker threads of batch and asynchronous operations.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public LocalFileSystemConfiguration withThreads(int threads) {
+		setThreads(threads);
+		return this;
+	}
+
+	/**
+	 * Size of the buffers between writers or readers and the file channel, a file up to this size is written with a
+	 * single system call.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public LocalFileSystemConfiguration withBufferSize(int bufferSize) {
+		setBufferSize(bufferSize);
+		return this;
+	}
+
+	/**
+	 * Files up to this size are read into memory at once and their descriptor closed before the stream is returned.
+	 */
+	public int getSmallFileThreshold() {
+		return smallFileThreshold;
+	}
+
+	public void setSmallFileThreshold(int smallFileThreshold) {
+		this.smallFileThreshold = smallFileThreshold;
+	}
+
+	public LocalFileSystemConfiguration withSmallFileThreshold(int smallFileThreshold) {
+		setSmallFileThreshold(smallFileThreshold);
+		return this;
+	}
+
+	public Durability getDurability() {
+		return durability;
+	}
+
+	public void setDurability(Durability durability) {
+		this.durability = durability;
+	}
+
+	public LocalFileSystemConfiguration withDurability(Durability durability) {
+		setDurability(durability);
+		return this;
+	}
+
+	/**
+	 * How long the first write of a group commit waits for others to join, see {@link Durability#GROUP_COMMIT}.
+	 */
+	public long getCommitWindowMicros() {
+		return commitWindowMicros;
+	}
+
+	public void setCommitWindowMicros(long commitWindowMicros) {
+		this.commitWindowMicros = commitWindowMicros;
+	}
+
+	public LocalFileSystemConfiguration withCommitWindowMicros(long commitWindowMicros) {
+		setCommitWindowMicros(commitWindowMicros);
+		return this;
+	}
+}
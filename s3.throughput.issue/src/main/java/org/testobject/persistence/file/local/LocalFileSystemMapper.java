@@ -2,71 +2,280 @@ package org.testobject.persistence.file.local;
 
 import static org.testobject.commons.file.Constants.application_work_folder;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.testobject.commons.file.Constants;
 import org.testobject.commons.file.FileUtil;
+import org.testobject.persistence.file.AsyncFileMapper;
+import org.testobject.persistence.file.Batches;
 import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.StatFileMapper;
+import org.testobject.persistence.file.local.LocalFileSystemConfiguration.Durability;
 
-public class LocalFileSystemMapper implements FileMapper {
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.io.LimitInputStream;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Stores files below the work folder, one directory per namespace. Writes go to a hidden temporary file next to the
+ * target which is renamed into place once complete, so readers see either the previous or the new content but never a
+ * partial file. Directories known to exist are cached, a write to one of them costs an open, a write and a rename.
+ * Small files are read into memory at once, larger ones are streamed through a buffer.
+ */
+public class LocalFileSystemMapper implements FileMapper, AsyncFileMapper, StatFileMapper, Closeable {
+
+	private static final String TEMPORARY_PREFIX = ".";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final long WHOLE_FILE = -1;
 
 	private final String prefix;
-	private final File workingFolder; 
+	private final File workingFolder;
+	private final ListeningExecutorService executor;
+	private final AsyncFiles asyncFiles;
+	private final ForkJoinPool deleters;
+	private final int bufferSize;
+	private final int smallFileThreshold;
+	private final Durability durability;
+	private final GroupCommit groupCommit;
+	private final Set<Path> directories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+	private final String temporaryId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+	private final AtomicLong temporaryFiles = new AtomicLong();
 
 	@Inject
 	public LocalFileSystemMapper(@Named(Constants.system_name) String prefix, @Named(application_work_folder) String workFolderPath) {
+		this(prefix, workFolderPath, new LocalFileSystemConfiguration());
+	}
+
+	public LocalFileSystemMapper(String prefix, String workFolderPath, int threads) {
+		this(prefix, workFolderPath, new LocalFileSystemConfiguration().withThreads(threads));
+	}
+
+	public LocalFileSystemMapper(String prefix, String workFolderPath, LocalFileSystemConfiguration configuration) {
 		this.prefix = prefix;
 		this.workingFolder = new File(workFolderPath);
+		this.executor = MoreExecutors.listeningDecorator(Batches.newPool("local-file-mapper", configuration.getThreads()));
+		this.asyncFiles = new AsyncFiles(executor);
+		this.deleters = new ForkJoinPool(configuration.getThreads());
+		this.bufferSize = configuration.getBufferSize();
+		this.smallFileThreshold = configuration.getSmallFileThreshold();
+		this.durability = configuration.getDurability();
+		this.groupCommit = new GroupCommit(configuration.getCommitWindowMicros());
+	}
+
+	/**
+	 * Shuts the pool of the mapper and the pool deleting namespaces down once their running work is done.
+	 */
+	@Override
+	public void close() {
+		Batches.shutdown(executor, 1, TimeUnit.MINUTES);
+		Batches.shutdown(deleters, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Whether the file name belongs to a write in progress or to one interrupted by a crash.
+	 */
+	public static boolean isTemporary(String fileName) {
+		return fileName.startsWith(TEMPORARY_PREFIX) && fileName.endsWith(TEMPORARY_SUFFIX);
 	}
 
 	@Override
 	public void createNamespace(String namespace) {
-		new File(workingFolder, getBucketName(namespace)).mkdirs();
+		try {
+			createDirectories(new File(workingFolder, getBucketName(namespace)).toPath());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
-	
 
 	@Override
 	public void deleteNamespace(String namespace) {
-		FileUtil.removeDir(new File(workingFolder, getBucketName(namespace)));
+		File folder = new File(workingFolder, getBucketName(namespace));
+		Path root = folder.toPath();
+		Iterator<Path> cached = directories.iterator();
+		while (cached.hasNext()) {
+			if (cached.next().startsWith(root)) {
+				cached.remove();
+			}
+		}
+		FileUtil.removeDir(folder, deleters);
 	}
 
 	@Override
 	public InputStream read(String namespace, String[] path) {
 		try {
-			return new FileInputStream(getFile(getBucketName(namespace), toString(path)));
-		} catch (FileNotFoundException e) {
+			return open(getFile(getBucketName(namespace), toString(path)).toPath(), 0, WHOLE_FILE);
+		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
 	@Override
-	public void write(String namespace, String[] path, Writer writer) {
-		File file = getFile(getBucketName(namespace), toString(path));
-		if (file.exists() == false) {
-			createFile(file);
+	public InputStream read(String namespace, String[] path, long offset, long length) {
+		try {
+			return open(getFile(getBucketName(namespace), toString(path)).toPath(), offset, length);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
-		
-		try (FileOutputStream out = new FileOutputStream(file, false)) {
-			writer.write(out);
+	}
+
+	@Override
+	public FileSummary stat(String namespace, String[] path) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(getFile(getBucketName(namespace), toString(path)).toPath(), BasicFileAttributes.class);
+			return attributes.isRegularFile() ? new FileSummary(path, attributes.size(), null) : null;
+		} catch (NoSuchFileException e) {
+			return null;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	private void createFile(File file) {
+	private InputStream open(Path file, long offset, long length) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
 		try {
-			file.getParentFile().mkdirs();
-			file.createNewFile();
+			long remaining = Math.max(0, channel.size() - offset);
+			if (length != WHOLE_FILE) {
+				remaining = Math.min(remaining, length);
+			}
+
+			if (remaining <= smallFileThreshold) {
+				try (FileChannel small = channel) {
+					ByteBuffer content = ByteBuffer.allocate((int) remaining);
+					while (content.hasRemaining()) {
+						if (small.read(content, offset + content.position()) < 0) {
+							break;
+						}
+					}
+					return new ByteArrayInputStream(content.array(), 0, content.position());
+				}
+			}
+
+			channel.position(offset);
+			InputStream in = new BufferedInputStream(Channels.newInputStream(channel), bufferSize);
+			return length == WHOLE_FILE ? in : new LimitInputStream(in, length);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(String namespace, String[] path, Writer writer) {
+		Path file = getFile(getBucketName(namespace), toString(path)).toPath();
+		Path temporary = temporaryOf(file);
+		try {
+			try (FileChannel channel = createTemporary(temporary)) {
+				OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), bufferSize) {
+					@Override
+					public void close() throws IOException {
+						// the channel is closed once its content is complete and forced
+						flush();
+					}
+				};
+				writer.write(out);
+				out.flush();
+				if (durability != Durability.NONE) {
+					channel.force(false);
+				}
+			}
+			commit(temporary, file);
 		} catch (IOException e) {
+			deleteQuietly(temporary);
 			throw new RuntimeException(e);
+		} catch (RuntimeException e) {
+			deleteQuietly(temporary);
+			throw e;
+		}
+	}
+
+	@Override
+	public List<WriteResult> writeAll(String namespace, List<WriteRequest> requests) {
+		return Batches.writeAll(executor, this, namespace, requests);
+	}
+
+	private Path temporaryOf(Path file) {
+		return file.resolveSibling(TEMPORARY_PREFIX + file.getFileName() + "." + temporaryId + "-" + temporaryFiles.incrementAndGet() + TEMPORARY_SUFFIX);
+	}
+
+	private FileChannel createTemporary(Path temporary) throws IOException {
+		createDirectories(temporary.getParent());
+		try {
+			return FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		} catch (NoSuchFileException e) {
+			// the directory was removed behind the cache's back
+			directories.remove(temporary.getParent());
+			createDirectories(temporary.getParent());
+			return FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		}
+	}
+
+	private void createDirectories(Path directory) throws IOException {
+		if (directories.contains(directory) == false) {
+			Files.createDirectories(directory);
+			directories.add(directory);
+		}
+	}
+
+	/**
+	 * Renames the complete temporary file into place and, depending on the durability, forces the directory entry.
+	 */
+	private void commit(Path temporary, Path file) throws IOException {
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+		switch (durability) {
+		case FSYNC:
+			GroupCommit.force(file.getParent());
+			break;
+		case GROUP_COMMIT:
+			groupCommit.commit(file.getParent());
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// a leftover temporary file is recognizable by its name
 		}
 	}
 
@@ -80,7 +289,146 @@ public class LocalFileSystemMapper implements FileMapper {
 
 	@Override
 	public void delete(String namespace, String[] path) {
-		getFile(getBucketName(namespace), toString(path)).delete();
+		try {
+			Files.deleteIfExists(getFile(getBucketName(namespace), toString(path)).toPath());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Walks the prefix's directory tree one directory at a time, files of writes in progress are skipped. Sizes are
+	 * taken while listing, there are no tags.
+	 */
+	@Override
+	public Iterator<FileSummary> list(String namespace, final String[] prefix) {
+		final String bucket = getBucketName(namespace);
+		return new AbstractIterator<FileSummary>() {
+
+			private final Deque<String[]> pending = new ArrayDeque<>(Collections.singleton(prefix));
+			private final Deque<FileSummary> files = new ArrayDeque<>();
+
+			@Override
+			protected FileSummary computeNext() {
+				while (files.isEmpty()) {
+					String[] directory = pending.poll();
+					if (directory == null) {
+						return endOfData();
+					}
+					list(directory);
+				}
+				return files.poll();
+			}
+
+			private void list(String[] directory) {
+				File folder = getFile(bucket, LocalFileSystemMapper.this.toString(directory));
+				String[] names = folder.list();
+				if (names == null) {
+					// not a directory, or removed in the meantime
+					return;
+				}
+				for (String name : names) {
+					if (isTemporary(name)) {
+						continue;
+					}
+					try {
+						BasicFileAttributes attributes = Files.readAttributes(new File(folder, name).toPath(), BasicFileAttributes.class);
+						String[] path = ObjectArrays.concat(directory, name);
+						if (attributes.isDirectory()) {
+							pending.push(path);
+						} else {
+							files.add(new FileSummary(path, attributes.size(), null));
+						}
+					} catch (NoSuchFileException e) {
+						// deleted since the directory was read
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Creates the directory on the pool of the mapper, like every other asynchronous call.
+	 */
+	@Override
+	public ListenableFuture<Void> createNamespaceAsync(final String namespace) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				createNamespace(namespace);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public ListenableFuture<Void> deleteNamespaceAsync(final String namespace) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				deleteNamespace(namespace);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public ListenableFuture<Void> writeAsync(String namespace, String[] path, Writer writer) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final Path file = getFile(getBucketName(namespace), toString(path)).toPath();
+		final Path temporary = temporaryOf(file);
+		try {
+			writer.write(out);
+			createDirectories(file.getParent());
+		} catch (IOException e) {
+			return Futures.immediateFailedFuture(e);
+		}
+
+		ListenableFuture<Void> written = Futures.transform(asyncFiles.write(temporary.toFile(), out.toByteArray(), durability != Durability.NONE),
+				new AsyncFunction<Void, Void>() {
+					@Override
+					public ListenableFuture<Void> apply(Void ignored) {
+						return executor.submit(new Callable<Void>() {
+							@Override
+							public Void call() throws IOException {
+								commit(temporary, file);
+								return null;
+							}
+						});
+					}
+				});
+		Futures.addCallback(written, new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				deleteQuietly(temporary);
+			}
+		});
+		return written;
+	}
+
+	@Override
+	public ListenableFuture<InputStream> readAsync(String namespace, String[] path) {
+		return asyncFiles.read(getFile(getBucketName(namespace), toString(path)));
+	}
+
+	/**
+	 * Unlinks the file on the pool of the mapper, so a slow file system does not block the caller.
+	 */
+	@Override
+	public ListenableFuture<Void> deleteAsync(final String namespace, final String[] path) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				delete(namespace, path);
+				return null;
+			}
+		});
 	}
 
 	private File getFile(String namespace, String key) {
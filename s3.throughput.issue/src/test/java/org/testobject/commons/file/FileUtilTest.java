@@ -0,0 +1,143 @@
+package org.testobject.commons.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileUtilTest {
+
+	private File workFolder;
+	private ForkJoinPool pool;
+
+	@Before
+	public void before() throws IOException {
+		workFolder = Files.createTempDirectory("file-util").toFile();
+		pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void after() {
+		pool.shutdown();
+		FileUtil.removeDir(workFolder);
+	}
+
+	@Test
+	public void copiesFolderTreesInParallel() throws IOException {
+		File src = createTree(new File(workFolder, "src"));
+
+		FileUtil.copyFolder(src, new File(workFolder, "parallel"), pool);
+		FileUtil.copyFolder(src, new File(workFolder, "sequential"));
+
+		assertSameTree(src, new File(workFolder, "parallel"));
+		assertSameTree(src, new File(workFolder, "sequential"));
+	}
+
+	@Test
+	public void filtersOnlyTheTopLevel() throws IOException {
+		File src = createTree(new File(workFolder, "src"));
+		File dst = new File(workFolder, "dst");
+
+		FileUtil.copyFolder(src, dst, new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("a");
+			}
+		}, pool);
+
+		assertThat(dst.list(), is(new String[] { "a" }));
+		assertSameTree(new File(src, "a"), new File(dst, "a"));
+	}
+
+	@Test
+	public void copyFileReplacesLongerContent() throws IOException {
+		File src = write(new File(workFolder, "src"), bytes(100));
+		File dst = write(new File(workFolder, "dst"), bytes(1000));
+
+		FileUtil.copyFile(src, dst);
+
+		assertThat(Files.readAllBytes(dst.toPath()), is(bytes(100)));
+	}
+
+	@Test
+	public void transfersTheRemainingInput() throws IOException {
+		File src = write(new File(workFolder, "src"), bytes(100000));
+		File dst = new File(workFolder, "dst");
+
+		try (FileInputStream in = new FileInputStream(src); FileOutputStream out = new FileOutputStream(dst)) {
+			in.skip(1000);
+			assertThat(FileUtil.transfer(in, out), is(99000L));
+			assertThat(in.getChannel().position(), is(100000L));
+		}
+		assertThat(Files.readAllBytes(dst.toPath()), is(Arrays.copyOfRange(bytes(100000), 1000, 100000)));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThat(FileUtil.transfer(new ByteArrayInputStream(bytes(100000)), out), is(100000L));
+		assertThat(out.toByteArray(), is(bytes(100000)));
+	}
+
+	@Test
+	public void removesFolderTreesInParallel() throws IOException {
+		File tree = createTree(new File(workFolder, "tree"));
+
+		assertThat(FileUtil.removeDir(tree, pool), is(true));
+		assertThat(tree.exists(), is(false));
+		assertThat(FileUtil.removeDir(tree, pool), is(true));
+		assertThat(FileUtil.removeDir(write(new File(workFolder, "file"), bytes(1)), pool), is(false));
+	}
+
+	/**
+	 * Nested folders with more files than a single copy or remove task takes.
+	 */
+	private static File createTree(File root) throws IOException {
+		for (String folder : new String[] { "a", "a/b", "a/b/c", "d" }) {
+			File directory = new File(root, folder);
+			directory.mkdirs();
+			for (int i = 0; i < 40; i++) {
+				write(new File(directory, i + ".png"), bytes(i * 10));
+			}
+		}
+		return root;
+	}
+
+	private static void assertSameTree(File expected, File actual) throws IOException {
+		String[] names = expected.list();
+		Arrays.sort(names);
+		String[] copied = actual.list();
+		Arrays.sort(copied);
+		assertThat(copied, is(names));
+		for (String name : names) {
+			File file = new File(expected, name);
+			if (file.isDirectory()) {
+				assertSameTree(file, new File(actual, name));
+			} else {
+				assertThat(Files.readAllBytes(new File(actual, name).toPath()), is(Files.readAllBytes(file.toPath())));
+			}
+		}
+	}
+
+	private static File write(File file, byte[] content) throws IOException {
+		Files.write(file.toPath(), content);
+		return file;
+	}
+
+	private static byte[] bytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+}
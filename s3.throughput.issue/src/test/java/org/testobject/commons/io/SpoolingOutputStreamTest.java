@@ -0,0 +1,118 @@
+package org.testobject.commons.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+
+import com.google.common.io.ByteStreams;
+
+public class SpoolingOutputStreamTest {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private File spoolFolder;
+	private BufferPool pool;
+
+	@Before
+	public void before() throws IOException {
+		spoolFolder = Files.createTempDirectory("spool").toFile();
+		pool = new BufferPool(CHUNK_SIZE, 4 * CHUNK_SIZE, false);
+	}
+
+	@After
+	public void after() {
+		FileUtil.removeDir(spoolFolder);
+	}
+
+	@Test
+	public void keepsContentBelowThresholdInPooledChunks() throws IOException {
+		byte[] content = randomBytes(3 * CHUNK_SIZE + 10);
+		SpoolingOutputStream out = write(content, 4 * CHUNK_SIZE);
+
+		assertThat(out.isSpooled(), is(false));
+		assertThat(out.size(), is((long) content.length));
+		assertThat(pool.getOutstandingBytes(), is(4L * CHUNK_SIZE));
+		assertThat(read(out.openStream()), is(content));
+		assertThat(read(out.openStream(CHUNK_SIZE - 5, 20)), is(Arrays.copyOfRange(content, CHUNK_SIZE - 5, CHUNK_SIZE + 15)));
+
+		try (InputStream in = out.openStream()) {
+			in.mark(0);
+			ByteStreams.skipFully(in, 2000);
+			in.reset();
+			assertThat(ByteStreams.toByteArray(in), is(content));
+		}
+
+		out.release();
+		assertThat(pool.getOutstandingBytes(), is(0L));
+		assertThat(pool.getPooledBytes(), is(4L * CHUNK_SIZE));
+	}
+
+	@Test
+	public void spoolsContentBeyondThresholdAndReleasesChunks() throws IOException {
+		byte[] content = randomBytes(5 * CHUNK_SIZE);
+		SpoolingOutputStream out = write(content, 2 * CHUNK_SIZE);
+
+		assertThat(out.isSpooled(), is(true));
+		assertThat(pool.getOutstandingBytes(), is(0L));
+		assertThat(read(out.openStream()), is(content));
+		assertThat(read(out.openStream(4000, 100)), is(Arrays.copyOfRange(content, 4000, 4100)));
+
+		File spoolFile = out.getSpoolFile();
+		out.release();
+		assertThat(spoolFile.exists(), is(false));
+	}
+
+	@Test
+	public void poolRetainsAtMostMaxPooledBytes() {
+		BufferPool small = new BufferPool(CHUNK_SIZE, 2 * CHUNK_SIZE, true);
+		ByteBuffer[] buffers = new ByteBuffer[3];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = small.acquire();
+		}
+		for (ByteBuffer buffer : buffers) {
+			small.release(buffer);
+		}
+		assertThat(small.getPooledBytes(), is(2L * CHUNK_SIZE));
+
+		small.acquire();
+		small.acquire();
+		small.acquire();
+		assertThat(small.getReuseCount(), is(2L));
+		assertThat(small.getAllocationCount(), is(4L));
+		assertThat(small.getOutstandingBytes(), is(3L * CHUNK_SIZE));
+	}
+
+	private SpoolingOutputStream write(byte[] content, long spoolThreshold) throws IOException {
+		SpoolingOutputStream out = new SpoolingOutputStream(pool, spoolThreshold, spoolFolder);
+		// odd slices cross chunk borders
+		for (int offset = 0; offset < content.length; offset += 333) {
+			out.write(content, offset, Math.min(333, content.length - offset));
+		}
+		out.close();
+		return out;
+	}
+
+	private static byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try (InputStream input = in) {
+			return ByteStreams.toByteArray(input);
+		}
+	}
+}
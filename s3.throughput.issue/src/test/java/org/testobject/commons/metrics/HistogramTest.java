@@ -0,0 +1,35 @@
+package org.testobject.commons.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void bucketsBoundValuesWithinOneSixteenth() {
+		for (long value = 0; value < 1 << 20; value += 7) {
+			long upperBound = Histogram.upperBoundOf(Histogram.indexOf(value));
+			assertTrue(value + " above bucket bound " + upperBound, upperBound >= value);
+			assertTrue(value + " far below bucket bound " + upperBound, upperBound - value <= value / 16);
+		}
+		assertThat(Histogram.upperBoundOf(Histogram.indexOf(Long.MAX_VALUE)), is(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void percentiles() {
+		Histogram histogram = new Histogram();
+		for (long value = 1; value <= 1000; value++) {
+			histogram.record(value);
+		}
+
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		assertThat(snapshot.getCount(), is(1000L));
+		assertThat(snapshot.getMax(), is(1000L));
+		assertTrue(snapshot.getValue(0.5) >= 500 && snapshot.getValue(0.5) <= 500 + 500 / 16);
+		assertTrue(snapshot.getValue(0.99) >= 990);
+		assertThat(snapshot.getValue(1.0), is(1000L));
+	}
+}
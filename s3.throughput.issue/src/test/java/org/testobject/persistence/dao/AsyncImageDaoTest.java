@@ -0,0 +1,80 @@
+package org.testobject.persistence.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+import org.testobject.persistence.file.MissingFiles;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+public class AsyncImageDaoTest {
+
+	private File workFolder;
+	private LocalFileSystemMapper mapper;
+
+	@Before
+	public void before() throws IOException {
+		workFolder = Files.createTempDirectory("async-image-dao").toFile();
+		mapper = new LocalFileSystemMapper("async", workFolder.getPath());
+	}
+
+	@After
+	public void after() {
+		mapper.close();
+		FileUtil.removeDir(workFolder);
+	}
+
+	@Test
+	public void putsGetsAndRemovesImages() throws Exception {
+		try (AsyncImageDao dao = new AsyncImageDao(mapper)) {
+			dao.put("screens", image(1), image(2), image(3)).get();
+			assertThat(dao.get("screens", 0).get().getRGB(0, 0), is(0xff000001));
+			assertThat(dao.get("screens", 2).get().getRGB(0, 0), is(0xff000003));
+
+			// same layout as the blocking dao
+			try (ImageDao blocking = new ImageDao(mapper)) {
+				assertThat(blocking.get("screens", 1).getRGB(0, 0), is(0xff000002));
+			}
+
+			dao.remove("screens", 1).get();
+			try {
+				dao.get("screens", 1).get();
+				fail();
+			} catch (ExecutionException e) {
+				assertThat(MissingFiles.isMissing(e), is(true));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsBundlesAndManifests() {
+		try {
+			new AsyncImageDao(mapper, new ImageDaoConfiguration().withStorage(ImageDaoConfiguration.Storage.BUNDLE));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new AsyncImageDao(mapper, new ImageDaoConfiguration().withManifest(true));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static BufferedImage image(int color) {
+		BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, color);
+		return image;
+	}
+}
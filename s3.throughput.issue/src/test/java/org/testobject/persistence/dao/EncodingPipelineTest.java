@@ -0,0 +1,120 @@
+package org.testobject.persistence.dao;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.persistence.dao.EncodingPipeline.Written;
+import org.testobject.persistence.dao.codec.PngCodec;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+
+public class EncodingPipelineTest {
+
+	private static final String NAMESPACE = "pipeline";
+
+	private static final Function<Integer, String[]> PATHS = new Function<Integer, String[]>() {
+		@Override
+		public String[] apply(Integer image) {
+			return new String[] { "screens", image + ".png" };
+		}
+	};
+
+	private File workFolder;
+	private Metrics metrics;
+	private EncodingPipeline pipeline;
+
+	@Before
+	public void before() throws IOException {
+		workFolder = Files.createTempDirectory("pipeline").toFile();
+		LocalFileSystemMapper mapper = new LocalFileSystemMapper("pipeline", workFolder.getPath());
+		mapper.createNamespace(NAMESPACE);
+		metrics = new Metrics();
+		pipeline = new EncodingPipeline(mapper, new PngCodec(PngEncoder.DEFAULT_DEFLATE_LEVEL), new ImageDaoConfiguration(), metrics);
+	}
+
+	@After
+	public void after() {
+		pipeline.close();
+		FileUtil.removeDir(workFolder);
+	}
+
+	@Test(timeout = 10000)
+	public void failsImagesPutWhileClosing() {
+		List<BufferedImage> images = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			images.add(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB));
+		}
+
+		List<Written> results = pipeline.write(NAMESPACE, PATHS, closingAfter(images, 3));
+
+		assertWrittenBeforeClose(results);
+		assertThat(results.get(3).error, instanceOf(RejectedExecutionException.class));
+	}
+
+	@Test(timeout = 10000)
+	public void failsEncodedImagesPutWhileClosing() {
+		List<byte[]> images = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			images.add(new byte[64]);
+		}
+
+		List<Written> results = pipeline.writeEncoded(NAMESPACE, PATHS, closingAfter(images, 3));
+
+		assertWrittenBeforeClose(results);
+		assertThat(results.get(3).error, instanceOf(IllegalStateException.class));
+	}
+
+	private void assertWrittenBeforeClose(List<Written> results) {
+		assertThat(results.size(), is(4));
+		for (int i = 0; i < 3; i++) {
+			assertThat(results.get(i).isSuccess(), is(true));
+		}
+		assertThat(metrics.snapshot().get("inFlightBytes").longValue(), is(0L));
+	}
+
+	/**
+	 * Closes the pipeline from another thread before the given element is returned.
+	 */
+	private <T> Iterator<T> closingAfter(final List<T> elements, final int count) {
+		return new AbstractIterator<T>() {
+
+			private int next;
+
+			@Override
+			protected T computeNext() {
+				if (next == count) {
+					Thread closer = new Thread() {
+						@Override
+						public void run() {
+							pipeline.close();
+						}
+					};
+					closer.start();
+					try {
+						closer.join();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return next < elements.size() ? elements.get(next++) : endOfData();
+			}
+		};
+	}
+}
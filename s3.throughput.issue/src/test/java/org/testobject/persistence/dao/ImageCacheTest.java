@@ -0,0 +1,86 @@
+package org.testobject.persistence.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ImageCacheTest {
+
+	@Test
+	public void doesNotCacheLoadsRacingAnInvalidation() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger version = new AtomicInteger();
+		final ImageCache cache = new ImageCache("images", 1024 * 1024, new ImageCache.Loader() {
+			@Override
+			public BufferedImage load(String path, int image) throws IOException {
+				BufferedImage loaded = image(version.get());
+				if (version.get() == 0) {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+				return loaded;
+			}
+		});
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<BufferedImage> stale = executor.submit(new Callable<BufferedImage>() {
+				@Override
+				public BufferedImage call() throws IOException {
+					return cache.get("screens", 0);
+				}
+			});
+			started.await();
+			version.set(1);
+			cache.invalidate("screens");
+			release.countDown();
+
+			assertThat(stale.get().getRGB(0, 0), is(image(0).getRGB(0, 0)));
+			BufferedImage fresh = cache.get("screens", 0);
+			assertThat(fresh.getRGB(0, 0), is(image(1).getRGB(0, 0)));
+			assertThat(cache.get("screens", 0), sameInstance(fresh));
+			assertThat(cache.stats().loadCount(), is(2L));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void rethrowsUncheckedLoadFailures() throws IOException {
+		ImageCache cache = new ImageCache("images", 1024 * 1024, new ImageCache.Loader() {
+			@Override
+			public BufferedImage load(String path, int image) {
+				throw new IllegalStateException("no image");
+			}
+		});
+		try {
+			cache.get("screens", 0);
+			fail();
+		} catch (IllegalStateException e) {
+			assertThat(cache.size(), is(0L));
+		}
+	}
+
+	private static BufferedImage image(int color) {
+		BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, color);
+		return image;
+	}
+}
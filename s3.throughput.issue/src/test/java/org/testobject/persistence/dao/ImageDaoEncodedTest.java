@@ -0,0 +1,126 @@
+package org.testobject.persistence.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+import org.testobject.persistence.file.MissingFiles;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+public class ImageDaoEncodedTest {
+
+	private File workFolder;
+	private ImageDao dao;
+
+	@Before
+	public void before() throws IOException {
+		workFolder = Files.createTempDirectory("image-dao-encoded").toFile();
+		dao = new ImageDao(new LocalFileSystemMapper("encoded", workFolder.getPath()), new ImageDaoConfiguration().withManifest(true));
+	}
+
+	@After
+	public void after() {
+		dao.close();
+		FileUtil.removeDir(workFolder);
+	}
+
+	@Test
+	public void storesEncodedImagesUnchanged() throws IOException {
+		byte[] first = encode(1);
+		byte[] second = encode(2);
+		byte[] streamed = encode(3);
+
+		dao.putEncoded("screens", Arrays.asList(first, second).iterator());
+		dao.putEncoded("screens", 2, new ByteArrayInputStream(streamed), streamed.length);
+
+		assertThat(read(dao.getEncoded("screens", 0)), is(first));
+		assertThat(read(dao.getEncoded("screens", 2)), is(streamed));
+		assertThat(dao.get("screens", 1).getRGB(0, 0), is(0xff000002));
+		assertThat(dao.count("screens"), is(3));
+		assertThat(dao.getManifest("screens").get(2).etag, is(Hashing.md5().hashBytes(streamed).toString()));
+	}
+
+	@Test
+	public void rejectsImagesWithoutPngHeader() throws IOException {
+		byte[] png = encode(1);
+		try {
+			dao.putEncoded("screens", Arrays.asList(png, "no png at all".getBytes()).iterator());
+			fail();
+		} catch(RuntimeException e) {
+			assertThat(dao.count("screens"), is(1));
+		}
+		try {
+			dao.putEncoded("screens", 1, new ByteArrayInputStream(png), png.length + 1);
+			fail();
+		} catch(RuntimeException e) {
+			assertThat(dao.count("screens"), is(1));
+		}
+	}
+
+	@Test
+	public void rereadsBundlesRewrittenByOthers() throws IOException {
+		ImageDaoConfiguration bundles = new ImageDaoConfiguration().withStorage(ImageDaoConfiguration.Storage.BUNDLE).withCacheSize(0);
+		LocalFileSystemMapper mapper = new LocalFileSystemMapper("encoded", workFolder.getPath());
+		try (ImageDao writer = new ImageDao(mapper, bundles); ImageDao reader = new ImageDao(mapper, bundles)) {
+			writer.putEncoded("screens", Arrays.asList(encode(1), encode(2)).iterator());
+			assertThat(reader.get("screens", 1).getRGB(0, 0), is(0xff000002));
+
+			writer.putEncoded("screens", Arrays.asList(encode(3), encode(4), encode(5)).iterator());
+			assertThat(reader.get("screens", 1).getRGB(0, 0), is(0xff000004));
+			assertThat(reader.get("screens", 2).getRGB(0, 0), is(0xff000005));
+		}
+	}
+
+	@Test
+	public void rewritesBundlesForSingleImages() throws IOException {
+		ImageDaoConfiguration bundles = new ImageDaoConfiguration().withStorage(ImageDaoConfiguration.Storage.BUNDLE).withCacheSize(0);
+		try (ImageDao dao = new ImageDao(new LocalFileSystemMapper("encoded", workFolder.getPath()), bundles)) {
+			dao.putEncoded("screens", Arrays.asList(encode(1), encode(2), encode(3)).iterator());
+			byte[] png = encode(4);
+			dao.putEncoded("screens", 1, new ByteArrayInputStream(png), png.length);
+			dao.putEncoded("screens", 4, new ByteArrayInputStream(png), png.length);
+			assertThat(dao.count("screens"), is(4));
+			assertThat(dao.get("screens", 1).getRGB(0, 0), is(0xff000004));
+			assertThat(dao.exists("screens", 3), is(false));
+
+			dao.remove("screens", 4);
+			dao.remove("screens", 1);
+			assertThat(dao.count("screens"), is(2));
+			assertThat(dao.exists("screens", 1), is(false));
+			assertThat(dao.get("screens", 2).getRGB(0, 0), is(0xff000003));
+			try {
+				dao.get("screens", 1);
+				fail();
+			} catch(IOException e) {
+				assertThat(MissingFiles.isMissing(e), is(true));
+			}
+		}
+	}
+
+	private static byte[] encode(int color) throws IOException {
+		BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, color);
+		return new PngEncoder(PngEncoder.DEFAULT_DEFLATE_LEVEL).encode(image);
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try(InputStream input = in) {
+			return ByteStreams.toByteArray(input);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.testobject.persistence.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+import com.google.common.collect.AbstractIterator;
+
+public class ImageDaoStreamingTest {
+
+	private static final int SIZE = 128;
+	private static final long IMAGE_BYTES = SIZE * SIZE * 4;
+
+	private File workFolder;
+
+	@Before
+	public void before() throws IOException {
+		workFolder = Files.createTempDirectory("image-dao-streaming").toFile();
+	}
+
+	@After
+	public void after() {
+		FileUtil.removeDir(workFolder);
+	}
+
+	@Test
+	public void boundsImagesInFlight() throws IOException, InterruptedException {
+		LocalFileSystemMapper mapper = new LocalFileSystemMapper("streaming", workFolder.getPath());
+		long ceiling = 16 * IMAGE_BYTES;
+		int threads = countThreads("image-dao-");
+		ImageDao dao = new ImageDao(mapper, new ImageDaoConfiguration().withMaxInFlightBytes(ceiling).withCacheSize(0));
+
+		dao.put("screens", images(500));
+
+		assertThat(dao.count("screens"), is(500));
+		assertThat(dao.get("screens", 499).getRGB(0, 0), is(0xff000000 | 499));
+		assertThat(dao.getAll("screens", 1, 2).get(1).getRGB(0, 0), is(0xff000000 | 2));
+		long peak = dao.getMetrics().snapshot().get("inFlightBytes.peak").longValue();
+		assertTrue("peak of " + peak + " bytes", peak > 0 && peak <= ceiling + IMAGE_BYTES);
+		assertThat(dao.getMetrics().snapshot().get("inFlightBytes").longValue(), is(0L));
+
+		dao.close();
+		assertThat(awaitThreads("image-dao-", threads), is(threads));
+	}
+
+	/**
+	 * A pool terminates once its workers leave their loop, their threads may still be alive for a moment.
+	 */
+	private static int awaitThreads(String prefix, int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		int count = countThreads(prefix);
+		while (count != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			count = countThreads(prefix);
+		}
+		return count;
+	}
+
+	private static int countThreads(String prefix) {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith(prefix) && thread.isAlive()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static Iterator<BufferedImage> images(final int count) {
+		return new AbstractIterator<BufferedImage>() {
+
+			private int image;
+
+			@Override
+			protected BufferedImage computeNext() {
+				if (image == count) {
+					return endOfData();
+				}
+				BufferedImage decoded = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+				decoded.setRGB(0, 0, 0xff000000 | image++);
+				return decoded;
+			}
+		};
+	}
+}
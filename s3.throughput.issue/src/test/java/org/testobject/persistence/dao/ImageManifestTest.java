@@ -0,0 +1,127 @@
+package org.testobject.persistence.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+import org.testobject.persistence.file.ForwardingFileMapper;
+import org.testobject.persistence.file.aws.S3Emulator;
+import org.testobject.persistence.file.aws.S3FileSystemMapper;
+import org.testobject.persistence.file.aws.S3TransferConfiguration;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+import com.google.common.hash.Hashing;
+
+public class ImageManifestTest {
+
+	private S3Emulator emulator;
+	private File workFolder;
+
+	@Before
+	public void before() throws IOException {
+		emulator = new S3Emulator();
+		workFolder = Files.createTempDirectory("image-manifest").toFile();
+	}
+
+	@After
+	public void after() {
+		emulator.close();
+		FileUtil.removeDir(workFolder);
+	}
+
+	@Test
+	public void countsAndChecksImagesWithOneRead() throws IOException {
+		S3FileSystemMapper mapper = new S3FileSystemMapper(workFolder.getPath(), "manifest", "EU", "access", "secret",
+				new S3TransferConfiguration().withClientConfiguration(emulator.clientConfiguration()));
+		ImageDaoConfiguration configuration = new ImageDaoConfiguration().withManifest(true).withCacheSize(0);
+		try (ImageDao writer = new ImageDao(mapper, configuration)) {
+			writer.put("screens", image(1), image(2), image(3));
+			writer.remove("screens", 1);
+		}
+
+		try (ImageDao reader = new ImageDao(mapper, configuration); ImageDao lister = new ImageDao(mapper, new ImageDaoConfiguration())) {
+			long requests = emulator.getRequestCount();
+			assertThat(reader.count("screens"), is(2));
+			assertThat(reader.exists("screens", 0), is(true));
+			assertThat(reader.exists("screens", 1), is(false));
+			assertThat(emulator.getRequestCount() - requests, is(1L));
+
+			ImageManifest listed = lister.getManifest("screens");
+			ImageManifest.Entry entry = reader.getManifest("screens").get(2);
+			assertThat(listed.size(), is(2));
+			assertThat(listed.get(2).size, is(entry.size));
+			assertThat(listed.get(2).etag, is(entry.etag));
+			assertThat(entry.etag, is(Hashing.md5().hashBytes(new PngEncoder(PngEncoder.DEFAULT_DEFLATE_LEVEL).encode(image(3))).toString()));
+			assertThat(reader.count("unknown"), is(0));
+		}
+		mapper.close();
+	}
+
+	@Test
+	public void listsOnlyPathsWithoutManifest() throws IOException {
+		ForwardingFileMapper mapper = new ForwardingFileMapper(new LocalFileSystemMapper("manifest", workFolder.getPath())) {
+			@Override
+			public InputStream read(String namespace, String[] path) {
+				if (path[0].equals("unreadable")) {
+					throw new RuntimeException("connection reset");
+				}
+				return delegate.read(namespace, path);
+			}
+
+			@Override
+			public Iterator<FileSummary> list(String namespace, String[] prefix) {
+				if (prefix[0].equals("unreadable")) {
+					fail("listed '" + prefix[0] + "'");
+				}
+				return delegate.list(namespace, prefix);
+			}
+		};
+		try (ImageDao dao = new ImageDao(mapper, new ImageDaoConfiguration().withManifest(true).withCacheSize(0))) {
+			assertThat(dao.count("unknown"), is(0));
+			try {
+				dao.count("unreadable");
+				fail();
+			} catch (RuntimeException e) {
+				assertThat(e.getMessage(), is("connection reset"));
+			}
+		}
+	}
+
+	@Test
+	public void keepsImagesOfOtherWriters() throws IOException {
+		LocalFileSystemMapper mapper = new LocalFileSystemMapper("manifest", workFolder.getPath());
+		ImageDaoConfiguration configuration = new ImageDaoConfiguration().withManifest(true).withCacheSize(0).withManifestTtlMillis(0);
+		try (ImageDao first = new ImageDao(mapper, configuration); ImageDao second = new ImageDao(mapper, configuration)) {
+			first.put("screens", image(1), image(2));
+			assertThat(second.count("screens"), is(2));
+
+			// each writer has the manifest of the other's last put cached
+			second.remove("screens", 0);
+			first.remove("screens", 1);
+			assertThat(second.count("screens"), is(0));
+
+			first.put("screens", image(3), image(4));
+			second.remove("screens", 1);
+			assertThat(first.count("screens"), is(1));
+			assertThat(first.exists("screens", 0), is(true));
+		}
+		mapper.close();
+	}
+
+	private static BufferedImage image(int color) {
+		BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, color);
+		return image;
+	}
+}
@@ -0,0 +1,62 @@
+package org.testobject.persistence.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+public class PrefetchingIteratorTest {
+
+	@Test
+	public void fetchesAheadUpToDepth() {
+		final List<SettableFuture<BufferedImage>> fetches = new ArrayList<>();
+		PrefetchingIterator iterator = new PrefetchingIterator(new PrefetchingIterator.Fetcher() {
+			@Override
+			public Future<BufferedImage> fetch(int image) {
+				SettableFuture<BufferedImage> future = SettableFuture.create();
+				future.set(new BufferedImage(image + 1, 1, BufferedImage.TYPE_INT_ARGB));
+				fetches.add(future);
+				return future;
+			}
+		}, new int[] { 4, 2, 0, 1, 3 }, 2);
+
+		assertThat(fetches.size(), is(2));
+		assertThat(iterator.next().getWidth(), is(5));
+		assertThat(fetches.size(), is(3));
+		assertThat(iterator.next().getWidth(), is(3));
+		assertThat(iterator.next().getWidth(), is(1));
+		assertThat(iterator.next().getWidth(), is(2));
+		assertThat(iterator.next().getWidth(), is(4));
+		assertThat(iterator.hasNext(), is(false));
+		assertThat(fetches.size(), is(5));
+	}
+
+	@Test
+	public void closeCancelsPendingFetches() {
+		final List<SettableFuture<BufferedImage>> fetches = new ArrayList<>();
+		PrefetchingIterator iterator = new PrefetchingIterator(new PrefetchingIterator.Fetcher() {
+			@Override
+			public Future<BufferedImage> fetch(int image) {
+				SettableFuture<BufferedImage> future = SettableFuture.create();
+				fetches.add(future);
+				return future;
+			}
+		}, new int[] { 0, 1, 2, 3 }, 3);
+
+		iterator.close();
+
+		assertThat(iterator.hasNext(), is(false));
+		assertThat(fetches.size(), is(3));
+		for (SettableFuture<BufferedImage> fetch : fetches) {
+			assertTrue(fetch.isCancelled());
+		}
+	}
+}
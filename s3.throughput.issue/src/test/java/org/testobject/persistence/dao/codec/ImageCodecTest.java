@@ -0,0 +1,92 @@
+package org.testobject.persistence.dao.codec;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+
+public class ImageCodecTest {
+
+	@Test
+	public void paletteRoundTripIsPixelExact() throws IOException {
+		AdaptiveCodec codec = new AdaptiveCodec(-1, true);
+		int palettes = 0;
+		for (BufferedImage image : readImages("big.zip")) {
+			byte[] encoded = codec.encode(image);
+			palettes += isPalette(encoded) ? 1 : 0;
+			assertSamePixels(codec.decode(new ByteArrayInputStream(encoded)), image);
+		}
+		assertTrue(palettes > 0);
+	}
+
+	@Test
+	public void paletteFormatBitPacksFewColors() throws IOException {
+		BufferedImage mask = new BufferedImage(100, 30, BufferedImage.TYPE_INT_ARGB);
+		for (int x = 10; x < 60; x++) {
+			mask.setRGB(x, x % 30, 0xff3366cc);
+		}
+
+		byte[] encoded = new PaletteCodec(-1).encode(mask);
+
+		assertTrue(encoded.length < 100);
+		assertSamePixels(new AdaptiveCodec(-1, false).decode(new ByteArrayInputStream(encoded)), mask);
+	}
+
+	@Test
+	public void fallsBackToPng() throws IOException {
+		BufferedImage gradient = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 32; y++) {
+			for (int x = 0; x < 32; x++) {
+				gradient.setRGB(x, y, x << 16 | y << 8 | (x ^ y));
+			}
+		}
+
+		byte[] encoded = new AdaptiveCodec(-1, true).encode(gradient);
+
+		assertThat(isPalette(encoded), is(false));
+		assertSamePixels(ImageIO.read(new ByteArrayInputStream(encoded)), gradient);
+	}
+
+	private static boolean isPalette(byte[] encoded) {
+		for (int i = 0; i < PaletteCodec.MAGIC.length; i++) {
+			if (encoded[i] != PaletteCodec.MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+		assertThat(actual.getWidth(), is(expected.getWidth()));
+		assertThat(actual.getHeight(), is(expected.getHeight()));
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertThat(actual.getRGB(x, y), is(expected.getRGB(x, y)));
+			}
+		}
+	}
+
+	private static List<BufferedImage> readImages(String file) throws IOException {
+		try (ZipFile zip = new ZipFile(FileUtil.toFileFromSystem(file))) {
+			List<BufferedImage> images = new ArrayList<>(zip.size());
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				images.add(ImageIO.read(zip.getInputStream(entries.nextElement())));
+			}
+			return images;
+		}
+	}
+}
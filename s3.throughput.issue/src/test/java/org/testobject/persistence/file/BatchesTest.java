@@ -0,0 +1,118 @@
+package org.testobject.persistence.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+import org.testobject.persistence.file.FileMapper.WriteRequest;
+import org.testobject.persistence.file.FileMapper.WriteResult;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+import com.google.common.io.ByteStreams;
+
+public class BatchesTest {
+
+	private static final String NAMESPACE = "batches";
+
+	private File workFolder;
+	private LocalFileSystemMapper mapper;
+	private ExecutorService pool;
+
+	@Before
+	public void before() throws IOException {
+		workFolder = Files.createTempDirectory("batches").toFile();
+		mapper = new LocalFileSystemMapper("batches", workFolder.getPath());
+		mapper.createNamespace(NAMESPACE);
+		pool = Batches.newPool("batches-test", 4);
+	}
+
+	@After
+	public void after() {
+		pool.shutdownNow();
+		FileUtil.removeDir(workFolder);
+	}
+
+	@Test
+	public void writeAllReportsFailuresPerRequest() throws IOException {
+		List<WriteRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			requests.add(new WriteRequest(path(i), i % 7 == 3 ? failing() : writing((byte) i)));
+		}
+
+		List<WriteResult> results = Batches.writeAll(pool, mapper, NAMESPACE, requests);
+
+		assertThat(results.size(), is(20));
+		for (int i = 0; i < 20; i++) {
+			assertThat(results.get(i).path, is(path(i)));
+			assertThat(results.get(i).isSuccess(), is(i % 7 != 3));
+			if (results.get(i).isSuccess()) {
+				try (InputStream in = mapper.read(NAMESPACE, path(i))) {
+					assertThat(ByteStreams.toByteArray(in), is(new byte[] { (byte) i }));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void writeAllRunsRequestsConcurrently() {
+		final CountDownLatch started = new CountDownLatch(4);
+		List<WriteRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			requests.add(new WriteRequest(path(i), new FileMapper.Writer() {
+				@Override
+				public void write(OutputStream out) throws IOException {
+					started.countDown();
+					try {
+						// only completes if all four writes run at the same time
+						if (started.await(10, TimeUnit.SECONDS) == false) {
+							throw new IOException("writes ran one after another");
+						}
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					out.write(1);
+				}
+			}));
+		}
+
+		for (WriteResult result : Batches.writeAll(pool, mapper, NAMESPACE, requests)) {
+			assertThat(String.valueOf(result.error), result.isSuccess(), is(true));
+		}
+	}
+
+	private static FileMapper.Writer writing(final byte value) {
+		return new FileMapper.Writer() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				out.write(value);
+			}
+		};
+	}
+
+	private static FileMapper.Writer failing() {
+		return new FileMapper.Writer() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				throw new IOException("failing writer");
+			}
+		};
+	}
+
+	private static String[] path(int i) {
+		return new String[] { "images", i + ".png" };
+	}
+}
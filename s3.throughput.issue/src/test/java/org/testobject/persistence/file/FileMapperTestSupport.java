@@ -0,0 +1,51 @@
+package org.testobject.persistence.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.testobject.commons.file.FileUtil;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Temporary work folder and content helpers shared by the tests of the {@link FileMapper} implementations. The folder
+ * is removed after the {@link After} methods of the test, so mappers closed there may still write to it.
+ */
+public abstract class FileMapperTestSupport {
+
+	protected File workFolder;
+
+	@Before
+	public void createWorkFolder() throws IOException {
+		workFolder = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+	}
+
+	@After
+	public void removeWorkFolder() {
+		FileUtil.removeDir(workFolder);
+	}
+
+	protected static String[] path(int i) {
+		return new String[] { "images", i + ".png" };
+	}
+
+	/**
+	 * The same bytes for the same size.
+	 */
+	protected static byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	protected static byte[] read(InputStream in) throws IOException {
+		try (InputStream input = in) {
+			return ByteStreams.toByteArray(input);
+		}
+	}
+}
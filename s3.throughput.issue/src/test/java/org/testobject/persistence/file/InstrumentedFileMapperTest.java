@@ -0,0 +1,114 @@
+package org.testobject.persistence.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.persistence.file.FileMapper.FileSummary;
+import org.testobject.persistence.file.FileMapper.WriteRequest;
+import org.testobject.persistence.file.FileMapper.WriteResult;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+import com.google.common.io.ByteStreams;
+
+public class InstrumentedFileMapperTest {
+
+	private static final String NAMESPACE = "images";
+
+	private File workFolder;
+
+	@Before
+	public void before() throws IOException {
+		workFolder = Files.createTempDirectory("instrumented-mapper").toFile();
+	}
+
+	@After
+	public void after() {
+		FileUtil.removeDir(workFolder);
+	}
+
+	@Test
+	public void recordsCallsBytesAndErrors() throws Exception {
+		InstrumentedFileMapper mapper = new InstrumentedFileMapper(new LocalFileSystemMapper("instrumented", workFolder.getPath()));
+		mapper.createNamespace(NAMESPACE);
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(new byte[100]));
+		List<WriteResult> results = mapper.writeAll(NAMESPACE, Arrays.asList(new WriteRequest(path(1), new ByteArrayWriter(new byte[50])),
+				new WriteRequest(path(2), new FileMapper.Writer() {
+					@Override
+					public void write(OutputStream out) throws IOException {
+						throw new IOException("writer failed");
+					}
+				})));
+		assertThat(results.get(0).isSuccess(), is(true));
+		assertThat(results.get(1).isSuccess(), is(false));
+
+		try (InputStream in = mapper.read(NAMESPACE, path(0))) {
+			ByteStreams.toByteArray(in);
+		}
+		try (InputStream in = mapper.read(NAMESPACE, path(1), 10, 20)) {
+			ByteStreams.toByteArray(in);
+		}
+		try {
+			mapper.read(NAMESPACE, path(2));
+			fail();
+		} catch (RuntimeException e) {
+			// missing
+		}
+		Iterator<FileSummary> files = mapper.list(NAMESPACE, new String[] { "screens" });
+		while (files.hasNext()) {
+			files.next();
+		}
+
+		SortedMap<String, Number> snapshot = mapper.getMetrics().snapshot();
+		assertThat(snapshot.get("write.count").longValue(), is(1L));
+		assertThat(snapshot.get("writeAll.count").longValue(), is(1L));
+		assertThat(snapshot.get("writeAll.errors.RuntimeException").longValue(), is(1L));
+		assertThat(snapshot.get("read.count").longValue(), is(1L));
+		assertThat(snapshot.get("read.inFlight").longValue(), is(0L));
+		assertThat(snapshot.get("read.errors.RuntimeException").longValue(), is(1L));
+		assertThat(snapshot.get("readRange.count").longValue(), is(1L));
+		assertThat(snapshot.get("list.count").longValue(), is(1L));
+		assertThat(snapshot.get("bytesWritten").longValue(), is(150L));
+		assertThat(snapshot.get("bytesRead").longValue(), is(120L));
+		assertThat(snapshot.get("filesListed").longValue(), is(2L));
+
+		ObjectName name = mapper.getMetrics().register("instrumented-test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertThat(((Number) server.getAttribute(name, "bytesWritten")).longValue(), is(150L));
+			assertThat(((Number) server.getAttribute(name, "read.count")).longValue(), is(1L));
+
+			// a second registration under the same name replaces the first
+			Metrics other = new Metrics();
+			other.counter("bytesWritten").set(7);
+			assertThat(other.register("instrumented-test"), is(name));
+			assertThat(((Number) server.getAttribute(name, "bytesWritten")).longValue(), is(7L));
+		} finally {
+			Metrics.unregister(name);
+		}
+		assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+	}
+
+	private static String[] path(int i) {
+		return new String[] { "screens", i + ".png" };
+	}
+}
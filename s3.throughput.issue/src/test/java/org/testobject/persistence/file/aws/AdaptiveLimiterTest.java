@@ -0,0 +1,85 @@
+package org.testobject.persistence.file.aws;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+
+	@Test
+	public void backsOffOncePerBurstOfThrottles() throws InterruptedException {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 2, 20, 2);
+		long[] starts = new long[5];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = limiter.acquire();
+		}
+		for (long start : starts) {
+			limiter.onThrottle(start);
+		}
+		assertThat(limiter.getLimit(), is(7));
+		assertThat(limiter.getThrottleCount(), is(5L));
+		assertThat(limiter.getInFlight(), is(0));
+
+		// requests started after the decrease count as a new signal
+		limiter.onThrottle(limiter.acquire());
+		assertThat(limiter.getLimit(), is(4));
+		for (int i = 0; i < 10; i++) {
+			limiter.onThrottle(limiter.acquire());
+		}
+		assertThat(limiter.getLimit(), is(2));
+	}
+
+	@Test
+	public void growsOnlyWhileSaturatedAndHealthy() throws InterruptedException {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 4, 2);
+		// one request at a time uses less than half of any limit above 2
+		for (int i = 0; i < 100; i++) {
+			limiter.onSuccess(limiter.acquire());
+		}
+		assertThat(limiter.getLimit(), is(2));
+
+		for (int round = 0; round < 100; round++) {
+			int limit = limiter.getLimit();
+			long[] starts = new long[limit];
+			for (int i = 0; i < limit; i++) {
+				starts[i] = limiter.acquire();
+			}
+			for (long start : starts) {
+				limiter.onSuccess(start);
+			}
+		}
+		assertThat(limiter.getLimit(), is(4));
+		assertThat(limiter.getFailureCount(), is(0L));
+	}
+
+	@Test
+	public void blocksBeyondLimitUntilRelease() throws InterruptedException {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1, 2);
+		long start = limiter.acquire();
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					limiter.onSuccess(limiter.acquire());
+					acquired.countDown();
+				} catch (InterruptedException e) {
+					// test fails below
+				}
+			}
+		};
+		waiter.start();
+
+		assertThat(acquired.await(100, TimeUnit.MILLISECONDS), is(false));
+		limiter.onFailure(start);
+		assertThat(acquired.await(10, TimeUnit.SECONDS), is(true));
+		waiter.join();
+		assertThat(limiter.getFailureCount(), is(1L));
+		assertThat(limiter.getInFlight(), is(0));
+	}
+}
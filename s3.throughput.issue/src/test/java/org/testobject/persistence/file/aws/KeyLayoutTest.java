@@ -0,0 +1,55 @@
+package org.testobject.persistence.file.aws;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class KeyLayoutTest {
+
+	@Test
+	public void flatLayoutJoinsSegments() {
+		String[] path = { "images", "0.png" };
+		assertThat(KeyLayout.FLAT.toKey(path), is("/images/0.png"));
+		assertThat(KeyLayout.FLAT.toPath("/images/0.png"), is(path));
+		assertThat(KeyLayout.FLAT.toPath("images/0.png"), is(nullValue()));
+		assertThat(KeyLayout.FLAT.toKeyPrefixes(new String[] { "images" }).size(), is(1));
+	}
+
+	@Test
+	public void hashedLayoutRoundTripsOnlyItsOwnKeys() {
+		HashedKeyLayout layout = new HashedKeyLayout();
+		String[] path = { "images", "0.png" };
+		String key = layout.toKey(path);
+
+		assertTrue(key, key.matches("[0-9a-f]{4}/images/0\\.png"));
+		assertThat(layout.toPath(key), is(path));
+		assertThat(layout.toPath(KeyLayout.FLAT.toKey(path)), is(nullValue()));
+		char digit = key.charAt(0) == '0' ? '1' : '0';
+		assertThat(layout.toPath(digit + key.substring(1)), is(nullValue()));
+	}
+
+	@Test
+	public void hashedLayoutListsFixedSegmentsUnderOnePrefix() {
+		HashedKeyLayout layout = new HashedKeyLayout();
+		Set<String> hashes = new HashSet<>();
+		List<String> prefixes = layout.toKeyPrefixes(new String[] { "images" });
+		assertThat(prefixes.size(), is(1));
+		for (int i = 0; i < 100; i++) {
+			assertTrue(layout.toKey(new String[] { "images", i + ".png" }).startsWith(prefixes.get(0)));
+			hashes.add(layout.toKey(new String[] { "path" + i, "0.png" }).substring(0, layout.getPrefixLength()));
+		}
+		// different leading segments scatter over the hash prefixes
+		assertTrue(hashes.size() > 50);
+
+		assertThat(layout.toKeyPrefixes(new String[0]).size(), is(16));
+		assertThat(new HashedKeyLayout(4, 2).toKeyPrefixes(new String[] { "images" }).size(), is(16));
+		assertThat(new HashedKeyLayout(4, 2).toKeyPrefixes(new String[] { "images", "0.png" }).size(), is(1));
+	}
+}
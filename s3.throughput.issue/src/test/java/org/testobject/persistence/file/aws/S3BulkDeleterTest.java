@@ -0,0 +1,109 @@
+package org.testobject.persistence.file.aws;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.persistence.file.aws.S3BulkDeleter.Progress;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+public class S3BulkDeleterTest {
+
+	@Test
+	public void deletesEveryListingPageInBoundedBatches() {
+		ListingClient client = new ListingClient(2500);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			S3Requests requests = new S3Requests(new AdaptiveLimiter(8, 1, 8, 2), 0, 1, 1);
+			Progress progress = new S3BulkDeleter(client, requests, executor, 2).deleteAll("bucket");
+
+			assertThat(progress.keys, is(2500L));
+			assertThat(progress.batches, is(3L));
+			assertThat(client.listings.get(), is(3));
+			assertThat(client.deleted.get(), is(2500));
+			Metrics metrics = requests.getMetrics();
+			assertThat(metrics.timer("s3.listObjects").getLatencies().getCount(), is(3L));
+			assertThat(metrics.timer("s3.deleteObjects").getLatencies().getCount(), is(3L));
+			assertTrue("batches in flight: " + client.maxInFlight.get(), client.maxInFlight.get() <= 2);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Serves {@code count} keys in pages of {@link S3BulkDeleter#MAX_KEYS} and counts the keys deleted.
+	 */
+	private static class ListingClient extends AmazonS3Client {
+
+		final int count;
+		final AtomicInteger listings = new AtomicInteger();
+		final AtomicInteger deleted = new AtomicInteger();
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+
+		ListingClient(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public ObjectListing listObjects(ListObjectsRequest request) {
+			return page(request.getBucketName(), 0);
+		}
+
+		@Override
+		public ObjectListing listNextBatchOfObjects(ObjectListing previous) {
+			return page(previous.getBucketName(), Integer.parseInt(previous.getNextMarker()));
+		}
+
+		@Override
+		public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+			int current = inFlight.incrementAndGet();
+			try {
+				while (true) {
+					int max = maxInFlight.get();
+					if (current <= max || maxInFlight.compareAndSet(max, current)) {
+						break;
+					}
+				}
+				assertTrue(request.getKeys().size() <= S3BulkDeleter.MAX_KEYS);
+				Thread.sleep(20);
+				deleted.addAndGet(request.getKeys().size());
+				return new DeleteObjectsResult(Collections.<DeletedObject> emptyList());
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		}
+
+		private ObjectListing page(String bucket, int offset) {
+			listings.incrementAndGet();
+			ObjectListing listing = new ObjectListing();
+			listing.setBucketName(bucket);
+			int end = Math.min(offset + S3BulkDeleter.MAX_KEYS, count);
+			for (int i = offset; i < end; i++) {
+				S3ObjectSummary summary = new S3ObjectSummary();
+				summary.setBucketName(bucket);
+				summary.setKey("/images/" + i + ".png");
+				listing.getObjectSummaries().add(summary);
+			}
+			listing.setTruncated(end < count);
+			listing.setNextMarker(String.valueOf(end));
+			return listing;
+		}
+	}
+}
@@ -0,0 +1,824 @@
+package org.testobject.persistence.file.aws;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Protocol;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * In-memory stand-in for the S3 REST API as far as {@link S3FileSystemMapper} uses it: bucket create, delete and
+ * location, object put, get with ranges and conditions, head and delete, multipart uploads, listing and multi-object
+ * delete. Clients reach it as their HTTP proxy, see {@link #clientConfiguration()}, so virtual-host style requests
+ * never hit DNS. Latency, bandwidth, throttling and server errors can be injected while it runs.
+ * <p>
+ * It speaks just enough HTTP/1.1 with keep-alive on plain sockets, the client matches response headers such as
+ * {@code ETag} case-sensitively which rules out servers that normalize header names.
+ */
+public class S3Emulator implements Closeable {
+
+	private static final String S3_HOST = "s3.amazonaws.com";
+	private static final String XMLNS = "http://s3.amazonaws.com/doc/2006-03-01/";
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private static class StoredObject {
+
+		final byte[] content;
+		final String etag;
+		final Date lastModified = new Date();
+
+		StoredObject(byte[] content, String etag) {
+			this.content = content;
+			this.etag = etag;
+		}
+	}
+
+	private static class Upload {
+
+		final String bucket;
+		final String key;
+		final ConcurrentMap<Integer, StoredObject> parts = new ConcurrentHashMap<>();
+
+		Upload(String bucket, String key) {
+			this.bucket = bucket;
+			this.key = key;
+		}
+	}
+
+	private static class S3Error extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+		final String code;
+
+		S3Error(int status, String code, String message) {
+			super(message);
+			this.status = status;
+			this.code = code;
+		}
+	}
+
+	private static class Request {
+
+		final String method;
+		final URI uri;
+		final Map<String, String> headers;
+		byte[] body;
+
+		Request(String method, URI uri, Map<String, String> headers) {
+			this.method = method;
+			this.uri = uri;
+			this.headers = headers;
+		}
+
+		String header(String name) {
+			return headers.get(name.toLowerCase(Locale.US));
+		}
+	}
+
+	private static class Response {
+
+		final Map<String, String> headers = new LinkedHashMap<>();
+		int status = 200;
+		byte[] body;
+		int offset;
+		int length;
+
+		Response body(byte[] content, int offset, int length) {
+			this.body = content;
+			this.offset = offset;
+			this.length = length;
+			return this;
+		}
+	}
+
+	private final String id = UUID.randomUUID().toString();
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;
+	private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+	private final ConcurrentMap<String, ConcurrentSkipListMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Upload> uploads = new ConcurrentHashMap<>();
+
+	private volatile long latencyMillis;
+	private volatile long latencyJitterMillis;
+	private volatile RateLimiter bandwidth;
+	private volatile double throttleRate;
+	private volatile double errorRate;
+	private volatile int maxConcurrentRequests = Integer.MAX_VALUE;
+
+	private final AtomicInteger concurrentRequests = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	public S3Emulator() {
+		try {
+			this.serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("s3-emulator-%d").setDaemon(true).build());
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+	}
+
+	/**
+	 * Client settings which route all requests through this emulator. The user agent names the emulator instance, so
+	 * that clients shared by configuration (see {@link SharedS3Client}) are never shared across emulators.
+	 */
+	public ClientConfiguration clientConfiguration() {
+		return new ClientConfiguration()
+				.withUserAgent(ClientConfiguration.DEFAULT_USER_AGENT + " s3-emulator/" + id)
+				.withProtocol(Protocol.HTTP)
+				.withProxyHost("127.0.0.1")
+				.withProxyPort(getPort())
+				.withMaxErrorRetry(0);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	public void close() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// accept loop ends either way
+		}
+		for (Socket connection : connections) {
+			closeQuietly(connection);
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Delays every request by the given time plus a random share of the jitter.
+	 */
+	public void setLatency(long latencyMillis, long latencyJitterMillis) {
+		this.latencyMillis = latencyMillis;
+		this.latencyJitterMillis = latencyJitterMillis;
+	}
+
+	/**
+	 * Caps the bytes per second received and sent across all connections, 0 removes the cap.
+	 */
+	public void setBandwidth(long bytesPerSecond) {
+		this.bandwidth = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+	}
+
+	/**
+	 * Share of requests answered with 503 SlowDown.
+	 */
+	public void setThrottleRate(double throttleRate) {
+		this.throttleRate = throttleRate;
+	}
+
+	/**
+	 * Share of requests answered with 500 InternalError.
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Requests beyond this many in flight are answered with 503 SlowDown, like a saturated S3 partition.
+	 */
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+
+	/**
+	 * Client connections currently open.
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getThrottledCount() {
+		return throttled.get();
+	}
+
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public int getObjectCount(String bucket) {
+		NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+		return objects == null ? 0 : objects.size();
+	}
+
+	public boolean containsObject(String bucket, String key) {
+		NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+		return objects != null && objects.containsKey(key);
+	}
+
+	private void accept() {
+		while (serverSocket.isClosed() == false) {
+			try {
+				final Socket connection = serverSocket.accept();
+				connections.add(connection);
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(connection);
+					}
+				});
+			} catch (IOException e) {
+				// server socket closed
+			}
+		}
+	}
+
+	private void serve(Socket connection) {
+		try {
+			InputStream in = new BufferedInputStream(connection.getInputStream());
+			OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+			while (true) {
+				Request request = readRequest(in, out);
+				if (request == null) {
+					return;
+				}
+
+				Response response = handle(request);
+				writeResponse(out, request, response);
+				if ("close".equalsIgnoreCase(request.header("Connection"))) {
+					return;
+				}
+			}
+		} catch (IOException e) {
+			// connection dropped by the client
+		} finally {
+			connections.remove(connection);
+			closeQuietly(connection);
+		}
+	}
+
+	private Request readRequest(InputStream in, OutputStream out) throws IOException {
+		String requestLine = readLine(in);
+		if (requestLine == null || requestLine.isEmpty()) {
+			return null;
+		}
+
+		String[] parts = requestLine.split(" ");
+		Map<String, String> headers = new HashMap<>();
+		for (String line = readLine(in); line != null && line.isEmpty() == false; line = readLine(in)) {
+			int colon = line.indexOf(':');
+			headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+		}
+
+		Request request;
+		try {
+			request = new Request(parts[0], new URI(parts[1]), headers);
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+
+		if ("100-continue".equalsIgnoreCase(request.header("Expect"))) {
+			out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+		}
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if ("chunked".equalsIgnoreCase(request.header("Transfer-Encoding"))) {
+			for (int size = Integer.parseInt(readLine(in).split(";")[0].trim(), 16); size > 0; size = Integer.parseInt(readLine(in).split(";")[0].trim(), 16)) {
+				receive(in, body, size);
+				readLine(in);
+			}
+			while (readLine(in).isEmpty() == false) {
+				// trailers
+			}
+		} else if (request.header("Content-Length") != null) {
+			receive(in, body, Long.parseLong(request.header("Content-Length")));
+		}
+		request.body = body.toByteArray();
+
+		return request;
+	}
+
+	private void writeResponse(OutputStream out, Request request, Response response) throws IOException {
+		StringBuilder head = new StringBuilder("HTTP/1.1 ").append(response.status).append(' ').append(reason(response.status)).append("\r\n");
+		for (Map.Entry<String, String> header : response.headers.entrySet()) {
+			head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		if (response.headers.containsKey("Content-Length") == false && response.status != 204 && response.status != 304) {
+			head.append("Content-Length: ").append(response.body == null ? 0 : response.length).append("\r\n");
+		}
+		head.append("\r\n");
+		out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+
+		if (response.body != null && "HEAD".equals(request.method) == false) {
+			transmit(out, response.body, response.offset, response.length);
+		}
+		out.flush();
+	}
+
+	private Response handle(Request request) {
+		requests.incrementAndGet();
+		int concurrent = concurrentRequests.incrementAndGet();
+		try {
+			delay();
+
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (concurrent > maxConcurrentRequests || random.nextDouble() < throttleRate) {
+				throttled.incrementAndGet();
+				throw new S3Error(503, "SlowDown", "Please reduce your request rate.");
+			}
+			if (random.nextDouble() < errorRate) {
+				errors.incrementAndGet();
+				throw new S3Error(500, "InternalError", "We encountered an internal error. Please try again.");
+			}
+
+			return route(request);
+		} catch (S3Error e) {
+			return error(e);
+		} catch (RuntimeException e) {
+			return error(new S3Error(500, "InternalError", String.valueOf(e)));
+		} finally {
+			concurrentRequests.decrementAndGet();
+		}
+	}
+
+	private Response route(Request request) throws S3Error {
+		String host = request.uri.getHost() != null ? request.uri.getHost() : request.header("Host").replaceFirst(":\\d+$", "");
+		String path = request.uri.getRawPath();
+
+		String bucket;
+		String key;
+		if (host.endsWith("." + S3_HOST)) {
+			bucket = host.substring(0, host.length() - S3_HOST.length() - 1);
+			key = decode(path.substring(1));
+		} else {
+			int slash = path.indexOf('/', 1);
+			bucket = decode(slash < 0 ? path.substring(1) : path.substring(1, slash));
+			key = slash < 0 ? "" : decode(path.substring(slash + 1));
+		}
+
+		Map<String, String> query = parseQuery(request.uri.getRawQuery());
+		return key.isEmpty() ? routeBucket(request, bucket, query) : routeObject(request, bucket, key, query);
+	}
+
+	private Response routeBucket(Request request, String bucket, Map<String, String> query) throws S3Error {
+		switch (request.method) {
+		case "PUT":
+			buckets.putIfAbsent(bucket, new ConcurrentSkipListMap<String, StoredObject>());
+			return new Response();
+		case "DELETE":
+			if (bucket(bucket).isEmpty() == false) {
+				throw new S3Error(409, "BucketNotEmpty", "The bucket you tried to delete is not empty");
+			}
+			buckets.remove(bucket);
+			return status(204);
+		case "HEAD":
+			bucket(bucket);
+			return new Response();
+		case "GET":
+			if (query.containsKey("location")) {
+				bucket(bucket);
+				return xml("<LocationConstraint xmlns=\"" + XMLNS + "\">EU</LocationConstraint>");
+			}
+			return list(bucket, query);
+		case "POST":
+			if (query.containsKey("delete")) {
+				return deleteObjects(bucket, request.body);
+			}
+			break;
+		default:
+			break;
+		}
+		throw new S3Error(405, "MethodNotAllowed", "The specified method is not allowed against this resource.");
+	}
+
+	private Response routeObject(Request request, String bucket, String key, Map<String, String> query) throws S3Error {
+		switch (request.method) {
+		case "PUT":
+			StoredObject object = new StoredObject(request.body, md5(request.body));
+			if (query.containsKey("uploadId")) {
+				upload(query.get("uploadId")).parts.put(Integer.parseInt(query.get("partNumber")), object);
+			} else {
+				bucket(bucket).put(key, object);
+			}
+			Response response = new Response();
+			response.headers.put("ETag", "\"" + object.etag + "\"");
+			return response;
+		case "POST":
+			if (query.containsKey("uploads")) {
+				bucket(bucket);
+				String uploadId = UUID.randomUUID().toString();
+				uploads.put(uploadId, new Upload(bucket, key));
+				return xml("<InitiateMultipartUploadResult xmlns=\"" + XMLNS + "\"><Bucket>" + escape(bucket) + "</Bucket><Key>" + escape(key)
+						+ "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+			}
+			if (query.containsKey("uploadId")) {
+				return completeUpload(query.get("uploadId"), request.body);
+			}
+			break;
+		case "DELETE":
+			if (query.containsKey("uploadId")) {
+				uploads.remove(query.get("uploadId"));
+			} else {
+				bucket(bucket).remove(key);
+			}
+			return status(204);
+		case "GET":
+		case "HEAD":
+			return getObject(request, bucket, key);
+		default:
+			break;
+		}
+		throw new S3Error(405, "MethodNotAllowed", "The specified method is not allowed against this resource.");
+	}
+
+	private Response getObject(Request request, String bucket, String key) throws S3Error {
+		StoredObject object = bucket(bucket).get(key);
+		if (object == null) {
+			throw new S3Error(404, "NoSuchKey", "The specified key does not exist.");
+		}
+
+		Response response = new Response();
+		response.headers.put("ETag", "\"" + object.etag + "\"");
+		response.headers.put("Last-Modified", httpDate(object.lastModified));
+		response.headers.put("Content-Type", "application/octet-stream");
+		response.headers.put("Accept-Ranges", "bytes");
+
+		String ifNoneMatch = request.header("If-None-Match");
+		if (ifNoneMatch != null && ifNoneMatch.replace("\"", "").equals(object.etag)) {
+			response.status = 304;
+			return response;
+		}
+
+		int from = 0;
+		int to = object.content.length - 1;
+		String range = request.header("Range");
+		if (range != null && range.startsWith("bytes=")) {
+			String[] bounds = range.substring("bytes=".length()).split("-", 2);
+			from = Integer.parseInt(bounds[0]);
+			if (bounds[1].isEmpty() == false) {
+				to = Math.min(to, Integer.parseInt(bounds[1]));
+			}
+			if (from > to) {
+				throw new S3Error(416, "InvalidRange", "The requested range is not satisfiable");
+			}
+			response.status = 206;
+			response.headers.put("Content-Range", "bytes " + from + "-" + to + "/" + object.content.length);
+		}
+
+		return response.body(object.content, from, to - from + 1);
+	}
+
+	private Response list(String bucket, Map<String, String> query) throws S3Error {
+		String prefix = query.containsKey("prefix") ? query.get("prefix") : "";
+		String marker = query.containsKey("marker") ? query.get("marker") : "";
+		int maxKeys = query.containsKey("max-keys") ? Integer.parseInt(query.get("max-keys")) : 1000;
+
+		NavigableMap<String, StoredObject> candidates = bucket(bucket).tailMap(marker, false);
+		StringBuilder contents = new StringBuilder();
+		String last = null;
+		boolean truncated = false;
+		int count = 0;
+		for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+			if (entry.getKey().startsWith(prefix) == false) {
+				if (entry.getKey().compareTo(prefix) > 0) {
+					break;
+				}
+				continue;
+			}
+			if (count == maxKeys) {
+				truncated = true;
+				break;
+			}
+			StoredObject object = entry.getValue();
+			contents.append("<Contents><Key>").append(escape(entry.getKey())).append("</Key>")
+					.append("<LastModified>").append(isoDate(object.lastModified)).append("</LastModified>")
+					.append("<ETag>&quot;").append(object.etag).append("&quot;</ETag>")
+					.append("<Size>").append(object.content.length).append("</Size>")
+					.append("<StorageClass>STANDARD</StorageClass></Contents>");
+			last = entry.getKey();
+			count++;
+		}
+
+		StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"" + XMLNS + "\">")
+				.append("<Name>").append(escape(bucket)).append("</Name>")
+				.append("<Prefix>").append(escape(prefix)).append("</Prefix>")
+				.append("<Marker>").append(escape(marker)).append("</Marker>")
+				.append("<MaxKeys>").append(maxKeys).append("</MaxKeys>")
+				.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+		if (truncated && last != null) {
+			xml.append("<NextMarker>").append(escape(last)).append("</NextMarker>");
+		}
+		xml.append(contents).append("</ListBucketResult>");
+
+		return xml(xml.toString());
+	}
+
+	private Response deleteObjects(String bucket, byte[] body) throws S3Error {
+		NavigableMap<String, StoredObject> objects = bucket(bucket);
+		Document request = parse(body);
+		boolean quiet = "true".equals(text(request.getDocumentElement(), "Quiet"));
+
+		StringBuilder xml = new StringBuilder("<DeleteResult xmlns=\"" + XMLNS + "\">");
+		NodeList keys = request.getElementsByTagName("Object");
+		for (int i = 0; i < keys.getLength(); i++) {
+			String key = text((Element) keys.item(i), "Key");
+			objects.remove(key);
+			if (quiet == false) {
+				xml.append("<Deleted><Key>").append(escape(key)).append("</Key></Deleted>");
+			}
+		}
+		xml.append("</DeleteResult>");
+
+		return xml(xml.toString());
+	}
+
+	private Response completeUpload(String uploadId, byte[] body) throws S3Error {
+		Upload upload = upload(uploadId);
+		NodeList parts = parse(body).getElementsByTagName("Part");
+
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		ByteArrayOutputStream digests = new ByteArrayOutputStream();
+		for (int i = 0; i < parts.getLength(); i++) {
+			int number = Integer.parseInt(text((Element) parts.item(i), "PartNumber"));
+			StoredObject part = upload.parts.get(number);
+			if (part == null || part.etag.equals(text((Element) parts.item(i), "ETag").replace("\"", "")) == false) {
+				throw new S3Error(400, "InvalidPart", "One or more of the specified parts could not be found.");
+			}
+			content.write(part.content, 0, part.content.length);
+			byte[] digest = fromHex(part.etag);
+			digests.write(digest, 0, digest.length);
+		}
+
+		String etag = md5(digests.toByteArray()) + "-" + parts.getLength();
+		bucket(upload.bucket).put(upload.key, new StoredObject(content.toByteArray(), etag));
+		uploads.remove(uploadId);
+
+		return xml("<CompleteMultipartUploadResult xmlns=\"" + XMLNS + "\"><Location>http://" + S3_HOST + "/" + escape(upload.bucket) + "/"
+				+ escape(upload.key) + "</Location><Bucket>" + escape(upload.bucket) + "</Bucket><Key>" + escape(upload.key) + "</Key><ETag>&quot;" + etag
+				+ "&quot;</ETag></CompleteMultipartUploadResult>");
+	}
+
+	private ConcurrentSkipListMap<String, StoredObject> bucket(String bucket) throws S3Error {
+		ConcurrentSkipListMap<String, StoredObject> objects = buckets.get(bucket);
+		if (objects == null) {
+			throw new S3Error(404, "NoSuchBucket", "The specified bucket does not exist");
+		}
+		return objects;
+	}
+
+	private Upload upload(String uploadId) throws S3Error {
+		Upload upload = uploads.get(uploadId);
+		if (upload == null) {
+			throw new S3Error(404, "NoSuchUpload", "The specified upload does not exist.");
+		}
+		return upload;
+	}
+
+	private void delay() {
+		long delay = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0);
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void receive(InputStream in, ByteArrayOutputStream out, long length) throws IOException {
+		byte[] buffer = new byte[CHUNK_SIZE];
+		long remaining = length;
+		while (remaining > 0) {
+			int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (n == -1) {
+				throw new IOException("unexpected end of request body");
+			}
+			RateLimiter limiter = bandwidth;
+			if (limiter != null) {
+				limiter.acquire(n);
+			}
+			out.write(buffer, 0, n);
+			remaining -= n;
+		}
+		bytesReceived.addAndGet(length);
+	}
+
+	private void transmit(OutputStream out, byte[] content, int offset, int length) throws IOException {
+		for (int position = offset; position < offset + length; position += CHUNK_SIZE) {
+			int n = Math.min(CHUNK_SIZE, offset + length - position);
+			RateLimiter limiter = bandwidth;
+			if (limiter != null) {
+				limiter.acquire(n);
+			}
+			out.write(content, position, n);
+		}
+		bytesSent.addAndGet(length);
+	}
+
+	private Response error(S3Error error) {
+		Response response = xml("<Error><Code>" + error.code + "</Code><Message>" + escape(error.getMessage()) + "</Message><RequestId>"
+				+ Long.toHexString(requests.get()) + "</RequestId></Error>");
+		response.status = error.status;
+		return response;
+	}
+
+	private Response status(int status) {
+		Response response = new Response();
+		response.status = status;
+		return response;
+	}
+
+	private Response xml(String xml) {
+		byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+		Response response = new Response().body(body, 0, body.length);
+		response.headers.put("Content-Type", "application/xml");
+		response.headers.put("x-amz-request-id", Long.toHexString(requests.get()));
+		return response;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				int length = line.length();
+				return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+			}
+			line.append((char) c);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	private static String reason(int status) {
+		switch (status) {
+		case 200:
+			return "OK";
+		case 204:
+			return "No Content";
+		case 206:
+			return "Partial Content";
+		case 304:
+			return "Not Modified";
+		case 400:
+			return "Bad Request";
+		case 404:
+			return "Not Found";
+		case 405:
+			return "Method Not Allowed";
+		case 409:
+			return "Conflict";
+		case 416:
+			return "Requested Range Not Satisfiable";
+		case 503:
+			return "Service Unavailable";
+		default:
+			return "Internal Server Error";
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return query;
+		}
+		for (String parameter : rawQuery.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals < 0) {
+				query.put(decode(parameter), "");
+			} else {
+				query.put(decode(parameter.substring(0, equals)), decode(parameter.substring(equals + 1)));
+			}
+		}
+		return query;
+	}
+
+	private static String decode(String encoded) {
+		try {
+			// '+' is a literal plus in S3 paths, only percent escapes are decoded
+			return URLDecoder.decode(encoded.replace("+", "%2B"), "UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static Document parse(byte[] body) throws S3Error {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(body));
+		} catch (Exception e) {
+			throw new S3Error(400, "MalformedXML", "The XML you provided was not well-formed.");
+		}
+	}
+
+	private static String text(Element element, String tag) {
+		NodeList nodes = element.getElementsByTagName(tag);
+		return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent().trim();
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	private static String md5(byte[] content) {
+		try {
+			return toHex(MessageDigest.getInstance("MD5").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	private static String httpDate(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(date);
+	}
+
+	private static String isoDate(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date);
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing left to do with this connection
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package org.testobject.persistence.file.aws;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.metrics.Metrics;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper.FileSummary;
+import org.testobject.persistence.file.FileMapper.WriteRequest;
+import org.testobject.persistence.file.FileMapper.WriteResult;
+import org.testobject.persistence.file.FileMapperTestSupport;
+
+import com.google.common.hash.Hashing;
+
+public class S3FileSystemMapperTest extends FileMapperTestSupport {
+
+	private static final String PREFIX = "foobar";
+	private static final String NAMESPACE = "org.foo.bar.images";
+	private static final String BUCKET = PREFIX + "-" + NAMESPACE;
+
+	private S3Emulator emulator;
+	private final List<S3FileSystemMapper> mappers = new ArrayList<>();
+
+	@Before
+	public void before() {
+		emulator = new S3Emulator();
+	}
+
+	@After
+	public void after() {
+		for (S3FileSystemMapper mapper : mappers) {
+			mapper.close();
+		}
+		emulator.close();
+	}
+
+	@Test
+	public void writeAndRead() throws IOException {
+		S3FileSystemMapper mapper = createMapper(new S3TransferConfiguration());
+		byte[] content = randomBytes(10000);
+
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(content));
+
+		assertThat(read(mapper.read(NAMESPACE, path(0))), is(content));
+		assertThat(read(mapper.read(NAMESPACE, path(0), 100, 50)), is(Arrays.copyOfRange(content, 100, 150)));
+		assertThat(mapper.getUploader().getSinglePutCount(), is(1L));
+	}
+
+	@Test
+	public void writeMultipart() throws IOException {
+		S3TransferConfiguration configuration = new S3TransferConfiguration().withMultipartThreshold(S3TransferConfiguration.MIN_PART_SIZE);
+		S3FileSystemMapper mapper = createMapper(configuration);
+		byte[] content = randomBytes((int) (2.5 * S3TransferConfiguration.MIN_PART_SIZE));
+
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(content));
+
+		assertThat(read(mapper.read(NAMESPACE, path(0))), is(content));
+		assertThat(mapper.getUploader().getMultipartUploadCount(), is(1L));
+		assertThat(mapper.getUploader().getPartCount(), is(3L));
+	}
+
+	@Test
+	public void deleteNamespaceBeyondOneListingPage() {
+		S3FileSystemMapper mapper = createMapper(new S3TransferConfiguration());
+		assertAllSucceeded(mapper.writeAll(NAMESPACE, writeRequests(2500, 16)));
+		assertThat(emulator.getObjectCount(BUCKET), is(2500));
+
+		mapper.deleteNamespace(NAMESPACE);
+
+		assertThat(emulator.getObjectCount(BUCKET), is(0));
+	}
+
+	@Test
+	public void writeAllRetriesThrottledRequests() {
+		emulator.setThrottleRate(0.2);
+		S3FileSystemMapper mapper = createMapper(new S3TransferConfiguration().withRetryBackoff(1).withMaxRetries(20));
+
+		assertAllSucceeded(mapper.writeAll(NAMESPACE, writeRequests(200, 16)));
+
+		assertThat(emulator.getObjectCount(BUCKET), is(200));
+		assertTrue(mapper.getLimiter().getThrottleCount() > 0);
+	}
+
+	@Test
+	public void hashedLayoutReadsLegacyKeys() throws IOException {
+		S3FileSystemMapper flat = createMapper(new S3TransferConfiguration());
+		byte[] content = randomBytes(100);
+		flat.write(NAMESPACE, path(0), new ByteArrayWriter(content));
+
+		S3FileSystemMapper hashed = createMapper(new S3TransferConfiguration().withKeyLayout(new HashedKeyLayout()).withLegacyKeyFallback(true));
+		hashed.write(NAMESPACE, path(1), new ByteArrayWriter(content));
+
+		assertTrue(emulator.containsObject(BUCKET, new HashedKeyLayout().toKey(path(1))));
+		assertThat(read(hashed.read(NAMESPACE, path(0))), is(content));
+		assertThat(read(hashed.read(NAMESPACE, path(1))), is(content));
+
+		hashed.delete(NAMESPACE, path(0));
+		assertThat(emulator.getObjectCount(BUCKET), is(1));
+	}
+
+	@Test
+	public void statsObjectsWithoutReadingThem() {
+		S3FileSystemMapper mapper = createMapper(new S3TransferConfiguration());
+		byte[] content = randomBytes(100);
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(content));
+
+		FileSummary file = mapper.stat(NAMESPACE, path(0));
+		assertThat(file.size, is(100L));
+		assertThat(file.etag, is(Hashing.md5().hashBytes(content).toString()));
+		assertThat(mapper.stat(NAMESPACE, path(1)), is((FileSummary) null));
+	}
+
+	@Test
+	public void sharedClientSkipsKnownBucketsAndWarmsUpConnections() throws Exception {
+		emulator.setLatency(50, 0);
+		S3FileSystemMapper first = createMapper(new S3TransferConfiguration());
+		assertThat(first.warmUp(NAMESPACE, 4).get(), is(4));
+		assertTrue(emulator.getConnectionCount() >= 4);
+
+		long requests = emulator.getRequestCount();
+		S3FileSystemMapper second = createMapper(new S3TransferConfiguration());
+		assertThat(emulator.getRequestCount(), is(requests));
+		assertThat(second.warmUp(NAMESPACE, 4).get(), is(0));
+
+		second.write(NAMESPACE, path(0), new ByteArrayWriter(randomBytes(100)));
+		assertTrue(second.getTimeToFirstUploadMillis() >= 50);
+	}
+
+	@Test
+	public void hedgesSlowRequestsWithinBudget() throws IOException {
+		S3FileSystemMapper mapper = createMapper(new S3TransferConfiguration().withHedgeReads(true).withHedgeWrites(true).withHedgePercentile(0.5)
+				.withHedgeMinDelay(1));
+		emulator.setLatency(0, 100);
+		for (int i = 0; i < 30; i++) {
+			mapper.write(NAMESPACE, path(i), new ByteArrayWriter(randomBytes(1000 + i)));
+		}
+		for (int i = 0; i < 30; i++) {
+			assertThat(read(mapper.read(NAMESPACE, path(i))), is(randomBytes(1000 + i)));
+		}
+
+		Metrics metrics = mapper.getMetrics();
+		long hedged = metrics.counter("hedge.write.hedged").get() + metrics.counter("hedge.read.hedged").get();
+		assertTrue(hedged > 0);
+		assertTrue(metrics.counter("hedge.read.hedged").get() <= 10 + 30 * S3TransferConfiguration.DEFAULT_HEDGE_BUDGET);
+		assertThat(emulator.getObjectCount(BUCKET), is(30));
+	}
+
+	@Test
+	public void listsPrefixAcrossPagesAndLayouts() {
+		S3FileSystemMapper flat = createMapper(new S3TransferConfiguration());
+		flat.write(NAMESPACE, new String[] { "other", "0.png" }, new ByteArrayWriter(randomBytes(10)));
+		flat.write(NAMESPACE, path(0), new ByteArrayWriter(randomBytes(10)));
+
+		S3FileSystemMapper hashed = createMapper(new S3TransferConfiguration().withKeyLayout(new HashedKeyLayout()).withLegacyKeyFallback(true));
+		assertAllSucceeded(hashed.writeAll(NAMESPACE, writeRequests(1500, 16)));
+
+		long requests = emulator.getRequestCount();
+		Set<String> listed = new HashSet<>();
+		Iterator<FileSummary> files = hashed.list(NAMESPACE, new String[] { "images" });
+		while (files.hasNext()) {
+			FileSummary file = files.next();
+			assertTrue(listed.add(Arrays.toString(file.path)));
+			assertThat(file.size, is(16L));
+			assertThat(file.etag.length(), is(32));
+		}
+		assertThat(listed.size(), is(1500));
+		assertTrue("listed with " + (emulator.getRequestCount() - requests) + " requests", emulator.getRequestCount() - requests <= 4);
+		assertThat(flat.list(NAMESPACE, new String[] { "other" }).next().path, is(new String[] { "other", "0.png" }));
+	}
+
+	@Test
+	public void closeStopsThreads() throws Exception {
+		int threads = countMapperThreads();
+		S3FileSystemMapper mapper = new S3FileSystemMapper(workFolder.getPath(), PREFIX, "EU", "access", "secret", new S3TransferConfiguration()
+				.withHedgeReads(true).withClientConfiguration(emulator.clientConfiguration()));
+		assertThat(mapper.createNamespaceAsync(NAMESPACE).get(), is((Void) null));
+		mapper.writeAsync(NAMESPACE, path(0), new ByteArrayWriter(randomBytes(100))).get();
+		assertAllSucceeded(mapper.writeAll(NAMESPACE, writeRequests(20, 16)));
+		assertThat(read(mapper.readAsync(NAMESPACE, path(0)).get()), is(randomBytes(16)));
+		mapper.deleteNamespace(NAMESPACE);
+
+		mapper.close();
+		// a pool terminates once its workers are done, their threads may still be exiting
+		long deadline = System.currentTimeMillis() + 1000;
+		while (countMapperThreads() > threads && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(countMapperThreads(), is(threads));
+	}
+
+	private S3FileSystemMapper createMapper(S3TransferConfiguration configuration) {
+		S3FileSystemMapper mapper = new S3FileSystemMapper(workFolder.getPath(), PREFIX, "EU", "access", "secret",
+				configuration.withClientConfiguration(emulator.clientConfiguration()));
+		mappers.add(mapper);
+		mapper.createNamespace(NAMESPACE);
+		return mapper;
+	}
+
+	private static int countMapperThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("s3-") && thread.getName().startsWith("s3-emulator-") == false && thread.isAlive()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static List<WriteRequest> writeRequests(int count, int size) {
+		List<WriteRequest> requests = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			requests.add(new WriteRequest(path(i), new ByteArrayWriter(randomBytes(size))));
+		}
+		return requests;
+	}
+
+	private static void assertAllSucceeded(List<WriteResult> results) {
+		for (WriteResult result : results) {
+			assertTrue(Arrays.toString(result.path) + " failed: " + result.error, result.isSuccess());
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.testobject.persistence.file.aws;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+import org.testobject.commons.metrics.Timer;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+public class S3RequestsTest {
+
+	@Test
+	public void getsHoldTheirSlotUntilTheContentIsClosed() throws IOException {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 2, 2);
+		S3Requests requests = new S3Requests(limiter, 0, 1, 1);
+		Timer gets = requests.timer("s3.getObject");
+
+		InputStream closed = requests.execute(gets, get()).getObjectContent();
+		S3ObjectInputStream aborted = requests.execute(gets, get()).getObjectContent();
+		assertThat(limiter.getInFlight(), is(2));
+		assertThat(limiter.getSuccessCount(), is(2L));
+
+		closed.close();
+		closed.close();
+		assertThat(limiter.getInFlight(), is(1));
+
+		aborted.abort();
+		aborted.close();
+		assertThat(limiter.getInFlight(), is(0));
+
+		// a 304 comes without content and gives its slot back at once
+		requests.execute(gets, new Callable<S3Object>() {
+			@Override
+			public S3Object call() {
+				return null;
+			}
+		});
+		assertThat(limiter.getInFlight(), is(0));
+	}
+
+	private static Callable<S3Object> get() {
+		return new Callable<S3Object>() {
+			@Override
+			public S3Object call() {
+				S3Object s3Object = new S3Object();
+				s3Object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(new byte[10]), new HttpGet("http://localhost/")));
+				return s3Object;
+			}
+		};
+	}
+}
@@ -0,0 +1,205 @@
+package org.testobject.persistence.file.aws;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.commons.file.FileUtil;
+import org.testobject.commons.io.BufferPool;
+import org.testobject.commons.io.SpoolingOutputStream;
+import org.testobject.persistence.file.aws.S3Uploader.Strategy;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class S3UploaderTest {
+
+	private static final long PART_SIZE = S3TransferConfiguration.MIN_PART_SIZE;
+
+	private RecordingClient client;
+	private ExecutorService partExecutor;
+	private S3Uploader uploader;
+	private File spoolFolder;
+	private SpoolingOutputStream content;
+
+	@Before
+	public void before() throws IOException {
+		client = new RecordingClient();
+		partExecutor = Executors.newFixedThreadPool(4);
+		S3Requests requests = new S3Requests(new AdaptiveLimiter(8, 1, 8, 2), 0, 1, 1);
+		uploader = new S3Uploader(client, requests, new S3TransferConfiguration().withMultipartThreshold(PART_SIZE), partExecutor);
+		spoolFolder = Files.createTempDirectory("spool").toFile();
+	}
+
+	@After
+	public void after() {
+		partExecutor.shutdownNow();
+		if (content != null) {
+			content.release();
+		}
+		FileUtil.removeDir(spoolFolder);
+	}
+
+	@Test
+	public void putsContentBelowThresholdAtOnce() throws IOException {
+		assertThat(uploader.upload("bucket", "key", content(PART_SIZE - 1)), is(Strategy.SINGLE_PUT));
+
+		assertThat(client.puts.get(), is(1));
+		assertThat(client.partSizes.size(), is(0));
+		assertThat(uploader.getSinglePutCount(), is(1L));
+	}
+
+	@Test
+	public void uploadsContentAboveThresholdInParts() throws IOException {
+		assertThat(uploader.upload("bucket", "key", content(2 * PART_SIZE + 1)), is(Strategy.MULTIPART));
+
+		assertThat(client.puts.get(), is(0));
+		assertThat(client.completed.get(), is(1));
+		assertThat(uploader.getPartCount(), is(3L));
+		Collections.sort(client.partSizes);
+		assertThat(client.partSizes, is(Arrays.asList(1L, PART_SIZE, PART_SIZE)));
+	}
+
+	@Test
+	public void abortsUploadsWithFailingParts() throws IOException {
+		client.failingPart = 2;
+		try {
+			uploader.upload("bucket", "key", content(3 * PART_SIZE));
+			fail("upload with a failing part succeeded");
+		} catch (RuntimeException expected) {
+			// expected
+		}
+
+		assertThat(client.completed.get(), is(0));
+		assertThat(client.aborted.get(), is(1));
+		assertThat(uploader.getMultipartUploadCount(), is(0L));
+	}
+
+	@Test
+	public void failsOnlyOnceRunningPartsReturned() throws IOException {
+		client.blockingPart = 1;
+		client.failingPart = 2;
+		final AtomicBoolean released = new AtomicBoolean();
+		new Thread() {
+			@Override
+			public void run() {
+				Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+				released.set(true);
+				client.unblock.countDown();
+			}
+		}.start();
+
+		try {
+			uploader.upload("bucket", "key", content(3 * PART_SIZE));
+			fail("upload with a failing part succeeded");
+		} catch (RuntimeException expected) {
+			// expected
+		}
+
+		// the content is released after the upload failed, no part may still read it
+		assertThat(released.get(), is(true));
+		assertThat(client.running.get(), is(0));
+		assertThat(client.aborted.get(), is(1));
+		assertThat(client.runningAtAbort, is(0));
+	}
+
+	private SpoolingOutputStream content(long length) throws IOException {
+		content = new SpoolingOutputStream(new BufferPool(64 * 1024, 0, false), Long.MAX_VALUE, spoolFolder);
+		byte[] chunk = new byte[64 * 1024];
+		for (long written = 0; written < length; written += chunk.length) {
+			content.write(chunk, 0, (int) Math.min(chunk.length, length - written));
+		}
+		return content;
+	}
+
+	private static class RecordingClient extends AmazonS3Client {
+
+		final AtomicInteger puts = new AtomicInteger();
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicInteger aborted = new AtomicInteger();
+		final List<Long> partSizes = Collections.synchronizedList(new ArrayList<Long>());
+		final AtomicInteger running = new AtomicInteger();
+		final CountDownLatch blocking = new CountDownLatch(1);
+		final CountDownLatch unblock = new CountDownLatch(1);
+		volatile int failingPart;
+		volatile int blockingPart;
+		volatile int runningAtAbort = -1;
+
+		@Override
+		public PutObjectResult putObject(PutObjectRequest request) {
+			puts.incrementAndGet();
+			return new PutObjectResult();
+		}
+
+		@Override
+		public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+			InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+			result.setUploadId("upload");
+			return result;
+		}
+
+		@Override
+		public UploadPartResult uploadPart(UploadPartRequest request) {
+			running.incrementAndGet();
+			try {
+				if (request.getPartNumber() == blockingPart) {
+					blocking.countDown();
+					Uninterruptibles.awaitUninterruptibly(unblock);
+				}
+				if (request.getPartNumber() == failingPart) {
+					if (blockingPart > 0) {
+						// fail while the blocking part is running
+						Uninterruptibles.awaitUninterruptibly(blocking);
+					}
+					throw new AmazonClientException("part " + failingPart + " failed");
+				}
+				partSizes.add(request.getPartSize());
+				UploadPartResult result = new UploadPartResult();
+				result.setPartNumber(request.getPartNumber());
+				result.setETag("etag-" + request.getPartNumber());
+				return result;
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+
+		@Override
+		public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+			completed.incrementAndGet();
+			return new CompleteMultipartUploadResult();
+		}
+
+		@Override
+		public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+			runningAtAbort = running.get();
+			aborted.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.testobject.persistence.file.bundle;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.ForwardingFileMapper;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+import com.google.common.io.ByteStreams;
+
+public class BundleTest {
+
+	private static final String NAMESPACE = "bundles";
+
+	private FileMapper mapper;
+
+	@Before
+	public void before() {
+		mapper = new LocalFileSystemMapper("foobar", "target");
+		mapper.deleteNamespace(NAMESPACE);
+		mapper.createNamespace(NAMESPACE);
+	}
+
+	@Test
+	public void small() throws IOException {
+		roundtrip(24);
+	}
+
+	@Test
+	public void indexLargerThanPrefetch() throws IOException {
+		roundtrip(3000);
+	}
+
+	@Test
+	public void readsEmptyEntriesWithNonEmptyRanges() throws IOException {
+		FileMapper ranges = new ForwardingFileMapper(mapper) {
+			@Override
+			public InputStream read(String namespace, String[] path, long offset, long length) {
+				assertThat(length > 0, is(true));
+				return delegate.read(namespace, path, offset, length);
+			}
+		};
+		String[] path = { "images", "images.bundle" };
+		Bundle.write(ranges, NAMESPACE, path, Arrays.asList(new byte[0], new byte[] { 1 }, new byte[0]));
+
+		Bundle.Index index = Bundle.readIndex(ranges, NAMESPACE, path);
+		for (int i = 0; i < index.size(); i++) {
+			try (InputStream in = Bundle.read(ranges, NAMESPACE, path, index, i)) {
+				assertThat(ByteStreams.toByteArray(in).length, is(i == 1 ? 1 : 0));
+			}
+		}
+	}
+
+	@Test
+	public void detectsRewrittenBundles() throws IOException {
+		String[] path = { "images", "images.bundle" };
+		Bundle.write(mapper, NAMESPACE, path, Arrays.asList(new byte[] { 1, 1 }, new byte[] { 2, 2 }));
+		Bundle.Index index = Bundle.readIndex(mapper, NAMESPACE, path);
+
+		Bundle.write(mapper, NAMESPACE, path, Arrays.asList(new byte[] { 3 }, new byte[] { 4, 4, 4 }));
+		for (int i = 0; i < index.size(); i++) {
+			try {
+				Bundle.read(mapper, NAMESPACE, path, index, i).close();
+				fail("read entry " + i + " with a stale index");
+			} catch (Bundle.StaleIndexException e) {
+				// expected
+			}
+		}
+
+		Bundle.Index current = Bundle.readIndex(mapper, NAMESPACE, path);
+		try (InputStream in = Bundle.read(mapper, NAMESPACE, path, current, 1)) {
+			assertThat(ByteStreams.toByteArray(in), is(new byte[] { 4, 4, 4 }));
+		}
+	}
+
+	private void roundtrip(int count) throws IOException {
+		Random random = new Random(count);
+		List<byte[]> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] entry = new byte[random.nextInt(2000)];
+			random.nextBytes(entry);
+			entries.add(entry);
+		}
+
+		String[] path = { "images", "images.bundle" };
+		Bundle.write(mapper, NAMESPACE, path, entries);
+
+		Bundle.Index index = Bundle.readIndex(mapper, NAMESPACE, path);
+		assertThat(index.size(), is(count));
+		for (int i = 0; i < count; i++) {
+			try (InputStream in = Bundle.read(mapper, NAMESPACE, path, index, i)) {
+				assertThat(ByteStreams.toByteArray(in), is(entries.get(i)));
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package org.testobject.persistence.file.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.FileMapperTestSupport;
+import org.testobject.persistence.file.ForwardingFileMapper;
+import org.testobject.persistence.file.aws.S3Emulator;
+import org.testobject.persistence.file.aws.S3FileSystemMapper;
+import org.testobject.persistence.file.aws.S3TransferConfiguration;
+import org.testobject.persistence.file.cache.DiskCacheConfiguration.Eviction;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+public class DiskCachingFileMapperTest extends FileMapperTestSupport {
+
+	private static final String NAMESPACE = "images";
+
+	@Test
+	public void revalidatesExpiredEntriesByETag() throws IOException {
+		try (S3Emulator emulator = new S3Emulator()) {
+			S3FileSystemMapper s3 = new S3FileSystemMapper(workFolder.getPath(), "cache", "EU", "access", "secret",
+					new S3TransferConfiguration().withClientConfiguration(emulator.clientConfiguration()));
+			s3.createNamespace(NAMESPACE);
+			byte[] content = randomBytes(10000);
+			s3.write(NAMESPACE, path(0), new ByteArrayWriter(content));
+
+			DiskCachingFileMapper cache = new DiskCachingFileMapper(s3, workFolder.getPath(), new DiskCacheConfiguration().withTtlMillis(0));
+			long sent = emulator.getBytesSent();
+			for (int i = 0; i < 3; i++) {
+				assertThat(read(cache.read(NAMESPACE, path(0))), is(content));
+			}
+
+			assertThat(cache.getMetrics().counter("cache.notModified").get(), is(2L));
+			assertTrue(emulator.getBytesSent() - sent < 2 * content.length);
+
+			byte[] changed = randomBytes(5000);
+			cache.write(NAMESPACE, path(0), new ByteArrayWriter(changed));
+			assertThat(read(cache.read(NAMESPACE, path(0))), is(changed));
+		}
+	}
+
+	@Test
+	public void evictsBeyondTheCap() throws IOException {
+		CountingFileMapper origin = new CountingFileMapper(localMapper());
+		for (int i = 0; i < 10; i++) {
+			origin.write(NAMESPACE, path(i), new ByteArrayWriter(randomBytes(1000)));
+		}
+
+		DiskCacheConfiguration configuration = new DiskCacheConfiguration().withMaxBytes(5000).withEviction(Eviction.LRU).withTtlMillis(Long.MAX_VALUE);
+		DiskCachingFileMapper cache = new DiskCachingFileMapper(origin, workFolder.getPath(), configuration);
+		for (int i = 0; i < 10; i++) {
+			read(cache.read(NAMESPACE, path(i)));
+		}
+		assertTrue(cache.getCachedBytes() <= 5000);
+
+		origin.reads.set(0);
+		read(cache.read(NAMESPACE, path(9)));
+		read(cache.read(NAMESPACE, path(0)));
+		assertThat(origin.reads.get(), is(1));
+	}
+
+	@Test
+	public void concurrentReadsShareOneDownload() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountingFileMapper origin = new CountingFileMapper(localMapper()) {
+			@Override
+			public InputStream read(String namespace, String[] path) {
+				awaitQuietly(release);
+				return super.read(namespace, path);
+			}
+		};
+		final byte[] content = randomBytes(100000);
+		origin.write(NAMESPACE, path(0), new ByteArrayWriter(content));
+		final DiskCachingFileMapper cache = new DiskCachingFileMapper(origin, workFolder.getPath());
+
+		ExecutorService readers = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<byte[]>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(readers.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return read(cache.read(NAMESPACE, path(0)));
+					}
+				}));
+			}
+			Thread.sleep(100);
+			release.countDown();
+
+			for (Future<byte[]> result : results) {
+				assertThat(result.get(), is(content));
+			}
+			assertThat(origin.reads.get(), is(1));
+			assertThat(cache.getHitRatio() >= 7 / 8.0, is(true));
+		} finally {
+			readers.shutdownNow();
+		}
+	}
+
+	private FileMapper localMapper() {
+		LocalFileSystemMapper mapper = new LocalFileSystemMapper("origin", new File(workFolder, "origin").getPath());
+		mapper.createNamespace(NAMESPACE);
+		return mapper;
+	}
+
+	private static class CountingFileMapper extends ForwardingFileMapper {
+
+		final AtomicInteger reads = new AtomicInteger();
+
+		CountingFileMapper(FileMapper delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public InputStream read(String namespace, String[] path) {
+			reads.incrementAndGet();
+			return super.read(namespace, path);
+		}
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
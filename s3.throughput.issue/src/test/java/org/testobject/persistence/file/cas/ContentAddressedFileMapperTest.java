@@ -0,0 +1,116 @@
+package org.testobject.persistence.file.cas;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper.FileSummary;
+import org.testobject.persistence.file.FileMapperTestSupport;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+public class ContentAddressedFileMapperTest extends FileMapperTestSupport {
+
+	private static final String NAMESPACE = "images";
+
+	private LocalFileSystemMapper local;
+	private final List<ContentAddressedFileMapper> mappers = new ArrayList<>();
+
+	@Before
+	public void before() {
+		local = new LocalFileSystemMapper("cas", workFolder.getPath());
+		local.createNamespace(NAMESPACE);
+	}
+
+	@After
+	public void after() {
+		for (ContentAddressedFileMapper mapper : mappers) {
+			mapper.close();
+		}
+	}
+
+	@Test
+	public void storesDuplicatesOnce() throws IOException {
+		ContentAddressedFileMapper mapper = mapper();
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(bytes(1)));
+		mapper.write(NAMESPACE, path(1), new ByteArrayWriter(bytes(1)));
+		mapper.write(NAMESPACE, path(2), new ByteArrayWriter(bytes(2)));
+
+		assertThat(read(mapper.read(NAMESPACE, path(1))), is(bytes(1)));
+		assertThat(read(mapper.read(NAMESPACE, path(2), 1, 2)), is(Arrays.copyOfRange(bytes(2), 1, 3)));
+		assertThat(mapper.getDuplicateCount(), is(1L));
+		assertThat(mapper.getBytesStored(), is(2L * bytes(1).length));
+		assertThat(mapper.getDedupRatio(), is(1.5));
+		assertThat(listed(mapper).size(), is(3));
+		assertThat(blobs().size(), is(2));
+	}
+
+	@Test
+	public void looksUpBlobsStoredByOthers() throws IOException {
+		mapper().write(NAMESPACE, path(0), new ByteArrayWriter(bytes(1)));
+
+		ContentAddressedFileMapper restarted = mapper();
+		restarted.write(NAMESPACE, path(1), new ByteArrayWriter(bytes(1)));
+		restarted.write(NAMESPACE, path(2), new ByteArrayWriter(bytes(1)));
+
+		assertThat(restarted.getLookupCount(), is(1L));
+		assertThat(restarted.getDuplicateCount(), is(2L));
+		assertThat(restarted.getBytesStored(), is(0L));
+		assertThat(read(restarted.read(NAMESPACE, path(0))), is(bytes(1)));
+		assertThat(blobs().size(), is(1));
+	}
+
+	@Test
+	public void replacesTruncatedBlobsAndKeepsBlobsOfDeletedPaths() throws IOException {
+		ContentAddressedFileMapper mapper = mapper();
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(bytes(1)));
+		String[] blob = blobs().get(0);
+		local.write(NAMESPACE, blob, new ByteArrayWriter(new byte[1]));
+
+		mapper().write(NAMESPACE, path(1), new ByteArrayWriter(bytes(1)));
+		assertThat(read(mapper.read(NAMESPACE, path(0))), is(bytes(1)));
+
+		mapper.delete(NAMESPACE, path(0));
+		mapper.delete(NAMESPACE, path(1));
+		assertThat(listed(mapper).size(), is(0));
+		assertThat(blobs().size(), is(1));
+	}
+
+	private ContentAddressedFileMapper mapper() {
+		ContentAddressedFileMapper mapper = new ContentAddressedFileMapper(local, 2, 100);
+		mappers.add(mapper);
+		return mapper;
+	}
+
+	private List<String[]> blobs() {
+		List<String[]> blobs = new ArrayList<>();
+		Iterator<FileSummary> files = local.list(NAMESPACE, new String[] { ".cas" });
+		while (files.hasNext()) {
+			blobs.add(files.next().path);
+		}
+		return blobs;
+	}
+
+	private static List<String[]> listed(ContentAddressedFileMapper mapper) {
+		List<String[]> listed = new ArrayList<>();
+		Iterator<FileSummary> files = mapper.list(NAMESPACE, new String[0]);
+		while (files.hasNext()) {
+			listed.add(files.next().path);
+		}
+		return listed;
+	}
+
+	private static byte[] bytes(int value) {
+		byte[] bytes = new byte[64];
+		Arrays.fill(bytes, (byte) value);
+		return bytes;
+	}
+}
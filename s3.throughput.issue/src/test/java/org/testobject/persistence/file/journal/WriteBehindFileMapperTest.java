@@ -0,0 +1,150 @@
+package org.testobject.persistence.file.journal;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.FileMapperTestSupport;
+import org.testobject.persistence.file.ForwardingFileMapper;
+import org.testobject.persistence.file.MissingFiles;
+import org.testobject.persistence.file.local.LocalFileSystemMapper;
+
+public class WriteBehindFileMapperTest extends FileMapperTestSupport {
+
+	private static final String NAMESPACE = "images";
+
+	private LocalFileSystemMapper local;
+	private FailingFileMapper backend;
+	private final List<WriteBehindFileMapper> mappers = new ArrayList<>();
+
+	@Before
+	public void before() {
+		local = new LocalFileSystemMapper("journal", workFolder.getPath());
+		local.createNamespace(NAMESPACE);
+		backend = new FailingFileMapper(local);
+	}
+
+	@After
+	public void after() {
+		for (WriteBehindFileMapper mapper : mappers) {
+			mapper.close();
+		}
+	}
+
+	@Test
+	public void servesUnflushedWritesAndFlushesOnlyTheLatest() throws IOException {
+		WriteBehindFileMapper mapper = create(new WriteBehindConfiguration().withRetryBackoffMillis(10).withMaxAttempts(1000));
+		backend.failing.add("0.png");
+
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(bytes(1)));
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(bytes(2)));
+		assertThat(read(mapper.read(NAMESPACE, path(0))), is(bytes(2)));
+		assertThat(read(mapper.read(NAMESPACE, path(0), 1, 1)), is(new byte[] { 2 }));
+
+		backend.failing.clear();
+		mapper.flush();
+
+		assertThat(read(local.read(NAMESPACE, path(0))), is(bytes(2)));
+		assertThat(mapper.getSupersededCount(), is(1L));
+		assertThat(mapper.getFlushedCount(), is(1L));
+		assertThat(mapper.getPendingBytes(), is(0L));
+	}
+
+	@Test
+	public void replaysJournalAfterRestart() throws IOException {
+		WriteBehindFileMapper first = create(new WriteBehindConfiguration().withRetryBackoffMillis(60 * 1000));
+		backend.failing.add("0.png");
+		backend.failing.add("1.png");
+		first.write(NAMESPACE, path(0), new ByteArrayWriter(bytes(1)));
+		first.write(NAMESPACE, path(1), new ByteArrayWriter(bytes(2)));
+		first.delete(NAMESPACE, path(1));
+		try {
+			first.read(NAMESPACE, path(1));
+			fail("deleted");
+		} catch (RuntimeException e) {
+			assertThat(MissingFiles.isMissing(e), is(true));
+		}
+
+		try {
+			create(new WriteBehindConfiguration());
+			fail("journal is locked");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		first.close();
+
+		backend.failing.clear();
+		WriteBehindFileMapper second = create(new WriteBehindConfiguration());
+		assertThat(read(second.read(NAMESPACE, path(0))), is(bytes(1)));
+		second.flush();
+
+		assertThat(read(local.read(NAMESPACE, path(0))), is(bytes(1)));
+		assertThat(local.list(NAMESPACE, new String[] { "images" }).next().path, is(path(0)));
+	}
+
+	@Test
+	public void givesUpEntriesAfterMaxAttempts() throws IOException {
+		WriteBehindFileMapper mapper = create(new WriteBehindConfiguration().withRetryBackoffMillis(1).withMaxAttempts(3));
+		backend.failing.add("0.png");
+
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(bytes(1)));
+		mapper.write(NAMESPACE, path(1), new ByteArrayWriter(bytes(2)));
+		mapper.flush();
+
+		assertThat(mapper.getFailedCount(), is(1L));
+		assertThat(mapper.getRetryCount(), is(2L));
+		assertThat(mapper.getPendingEntries(), is(0));
+		assertThat(read(local.read(NAMESPACE, path(1))), is(bytes(2)));
+		File failed = new File(new File(workFolder, WriteBehindFileMapper.JOURNAL_FOLDER), WriteBehindFileMapper.FAILED_FOLDER);
+		assertThat(failed.list().length, is(1));
+	}
+
+	private WriteBehindFileMapper create(WriteBehindConfiguration configuration) {
+		WriteBehindFileMapper mapper = new WriteBehindFileMapper(backend, workFolder.getPath(), configuration.withCommitWindowMicros(0));
+		mappers.add(mapper);
+		return mapper;
+	}
+
+	private static byte[] bytes(int value) {
+		return new byte[] { (byte) value, (byte) value, (byte) value };
+	}
+
+	/**
+	 * Fails every write of a path whose last element is listed.
+	 */
+	private static class FailingFileMapper extends ForwardingFileMapper {
+
+		final Set<String> failing = Collections.synchronizedSet(new HashSet<String>());
+
+		FailingFileMapper(FileMapper delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public List<WriteResult> writeAll(String namespace, List<WriteRequest> requests) {
+			List<WriteResult> results = new ArrayList<>(requests.size());
+			for (WriteRequest request : requests) {
+				if (failing.contains(request.path[request.path.length - 1])) {
+					results.add(new WriteResult(request.path, new RuntimeException("failing '" + request.path[1] + "'")));
+				} else {
+					delegate.write(namespace, request.path, request.writer);
+					results.add(new WriteResult(request.path, null));
+				}
+			}
+			return results;
+		}
+	}
+}
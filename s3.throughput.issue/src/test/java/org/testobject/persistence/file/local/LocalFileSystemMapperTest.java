@@ -0,0 +1,149 @@
+package org.testobject.persistence.file.local;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.testobject.persistence.file.ByteArrayWriter;
+import org.testobject.persistence.file.FileMapper;
+import org.testobject.persistence.file.FileMapper.WriteRequest;
+import org.testobject.persistence.file.FileMapper.WriteResult;
+import org.testobject.persistence.file.FileMapperTestSupport;
+import org.testobject.persistence.file.local.LocalFileSystemConfiguration.Durability;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class LocalFileSystemMapperTest extends FileMapperTestSupport {
+
+	private static final String NAMESPACE = "images";
+
+	private final List<LocalFileSystemMapper> mappers = new ArrayList<>();
+
+	@After
+	public void after() {
+		for (LocalFileSystemMapper mapper : mappers) {
+			mapper.close();
+		}
+	}
+
+	@Test
+	public void writesAndReadsWithEveryDurability() throws IOException {
+		for (Durability durability : Durability.values()) {
+			LocalFileSystemMapper mapper = createMapper(new LocalFileSystemConfiguration().withDurability(durability).withSmallFileThreshold(1024));
+			List<WriteRequest> requests = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				requests.add(new WriteRequest(path(i), new ByteArrayWriter(randomBytes(100 * i))));
+			}
+			for (WriteResult result : mapper.writeAll(NAMESPACE, requests)) {
+				assertThat(durability + ": " + result.error, result.isSuccess(), is(true));
+			}
+
+			for (int i = 0; i < 20; i++) {
+				assertThat(read(mapper.read(NAMESPACE, path(i))), is(randomBytes(100 * i)));
+			}
+			// below and above the small file threshold
+			assertThat(read(mapper.read(NAMESPACE, path(5), 10, 20)), is(Arrays.copyOfRange(randomBytes(500), 10, 30)));
+			assertThat(read(mapper.read(NAMESPACE, path(19), 1800, 500)), is(Arrays.copyOfRange(randomBytes(1900), 1800, 1900)));
+			mapper.deleteNamespace(NAMESPACE);
+		}
+	}
+
+	@Test
+	public void rejectsCallsOnceClosed() {
+		LocalFileSystemMapper mapper = new LocalFileSystemMapper("local", workFolder.getPath());
+		mapper.createNamespace(NAMESPACE);
+		mapper.writeAll(NAMESPACE, Arrays.asList(new WriteRequest(path(0), new ByteArrayWriter(randomBytes(10)))));
+		mapper.deleteNamespace(NAMESPACE);
+
+		mapper.close();
+		try {
+			mapper.createNamespaceAsync(NAMESPACE);
+			fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void failedWriteKeepsPreviousContent() throws IOException {
+		LocalFileSystemMapper mapper = createMapper(new LocalFileSystemConfiguration());
+		mapper.write(NAMESPACE, path(0), new ByteArrayWriter(randomBytes(100)));
+
+		try {
+			mapper.write(NAMESPACE, path(0), new FileMapper.Writer() {
+				@Override
+				public void write(OutputStream out) throws IOException {
+					out.write(randomBytes(50));
+					throw new IOException("writer failed halfway");
+				}
+			});
+			fail();
+		} catch (RuntimeException e) {
+			assertThat(e.getCause().getMessage(), is("writer failed halfway"));
+		}
+
+		assertThat(read(mapper.read(NAMESPACE, path(0))), is(randomBytes(100)));
+		assertThat(folderOf(path(0)).list().length, is(1));
+	}
+
+	@Test
+	public void failedRenameLeavesNoTemporaryFile() throws IOException {
+		LocalFileSystemMapper mapper = createMapper(new LocalFileSystemConfiguration());
+		// a non-empty directory in place of the file cannot be replaced by the rename
+		mapper.write(NAMESPACE, new String[] { "images", "0.png", "nested" }, new ByteArrayWriter(randomBytes(10)));
+
+		try {
+			mapper.write(NAMESPACE, path(0), new ByteArrayWriter(randomBytes(100)));
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+		assertThat(folderOf(path(0)).list(), is(new String[] { "0.png" }));
+		assertThat(read(mapper.read(NAMESPACE, new String[] { "images", "0.png", "nested" })), is(randomBytes(10)));
+	}
+
+	@Test
+	public void asyncCallsReportFailuresThroughTheirFutures() throws Exception {
+		LocalFileSystemMapper mapper = new LocalFileSystemMapper("local", workFolder.getPath(), new LocalFileSystemConfiguration());
+		mappers.add(mapper);
+		mapper.createNamespaceAsync(NAMESPACE).get();
+		mapper.writeAsync(NAMESPACE, path(0), new ByteArrayWriter(randomBytes(100))).get();
+		assertThat(read(mapper.readAsync(NAMESPACE, path(0)).get()), is(randomBytes(100)));
+
+		mapper.deleteAsync(NAMESPACE, path(0)).get();
+		assertThat(folderOf(path(0)).list().length, is(0));
+
+		// a non-empty directory cannot be unlinked, the call returns and its future fails
+		mapper.write(NAMESPACE, new String[] { "images", "0.png", "nested" }, new ByteArrayWriter(randomBytes(10)));
+		ListenableFuture<Void> delete = mapper.deleteAsync(NAMESPACE, path(0));
+		try {
+			delete.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertThat(e.getCause() instanceof RuntimeException, is(true));
+		}
+	}
+
+	private LocalFileSystemMapper createMapper(LocalFileSystemConfiguration configuration) {
+		LocalFileSystemMapper mapper = new LocalFileSystemMapper("local", workFolder.getPath(), configuration);
+		mappers.add(mapper);
+		mapper.createNamespace(NAMESPACE);
+		return mapper;
+	}
+
+	private File folderOf(String[] path) {
+		return new File(workFolder, "local-" + NAMESPACE + File.separator + path[0]);
+	}
+}